@@ -0,0 +1,90 @@
+package com.github.ddth.hll.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ddth.hll.IHLL;
+
+/**
+ * Latency of adding a batch of {@code batchSize} items: batch methods
+ * ({@link IHLL#addAll(long[], int, int)},
+ * {@link IHLL#addAllHashes(long[], int, int)}) vs. a loop of single adds.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AddAllBenchmark {
+
+    @Param({ HLLs.PJ, HLLs.AK, HLLs.ATS })
+    public String impl;
+
+    @Param({ "14", "16" })
+    public int log2m;
+
+    @Param({ "4096", "65536" })
+    public int batchSize;
+
+    private long[] values, hashes;
+    private IHLL hll;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        Random rand = new Random(Inputs.SEED);
+        values = new long[batchSize];
+        hashes = new long[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            values[i] = rand.nextLong();
+            hashes[i] = Inputs.mix64(values[i]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        hll = HLLs.create(impl, log2m);
+    }
+
+    @Benchmark
+    public IHLL loopAddLong() {
+        for (long value : values) {
+            hll.addLong(value);
+        }
+        return hll;
+    }
+
+    @Benchmark
+    public IHLL addAllLongs() {
+        return hll.addAll(values, 0, values.length);
+    }
+
+    @Benchmark
+    public IHLL loopAddHash() {
+        for (long hash : hashes) {
+            hll.addHash(hash);
+        }
+        return hll;
+    }
+
+    @Benchmark
+    public IHLL addAllHashes() {
+        return hll.addAllHashes(hashes, 0, hashes.length);
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.ddth.hll.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ddth.hll.IHLL;
+
+/**
+ * Throughput of {@link IHLL#add(Object)} ({@link #add()}) and of the typed
+ * {@code addLong/addBytes/addChars} overloads ({@link #addTyped()}).
+ * 
+ * <p>
+ * Items are drawn from a pre-computed pool (see {@link Inputs#poolSize(int)})
+ * that holds all of the {@code cardinality} distinct values; the HLL is
+ * re-created for each iteration.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AddBenchmark {
+
+    @Param({ HLLs.PJ, HLLs.AK, HLLs.ATS, HLLs.OFF_HEAP, HLLs.DDTH })
+    public String impl;
+
+    @Param({ "10", "14", "16" })
+    public int log2m;
+
+    @Param({ Inputs.TYPE_LONG, Inputs.TYPE_STRING, Inputs.TYPE_BYTES })
+    public String inputType;
+
+    @Param({ "1000", "1000000" })
+    public int cardinality;
+
+    private Object[] items;
+    private long[] longItems;
+    private int pos;
+    private IHLL hll;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        items = Inputs.sample(inputType, cardinality, Inputs.poolSize(cardinality));
+        longItems = new long[items.length];
+        if (Inputs.TYPE_LONG.equals(inputType)) {
+            for (int i = 0; i < items.length; i++) {
+                longItems[i] = ((Long) items[i]).longValue();
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        hll = HLLs.create(impl, log2m);
+        pos = 0;
+    }
+
+    @Benchmark
+    public IHLL add() {
+        Object item = items[pos];
+        pos = (pos + 1) & (items.length - 1);
+        return hll.add(item);
+    }
+
+    @Benchmark
+    public IHLL addTyped() {
+        int i = pos;
+        pos = (pos + 1) & (items.length - 1);
+        Object item = items[i];
+        if (item instanceof byte[]) {
+            byte[] data = (byte[]) item;
+            return hll.addBytes(data, 0, data.length);
+        }
+        if (item instanceof String) {
+            return hll.addChars((String) item);
+        }
+        return hll.addLong(longItems[i]);
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.ddth.hll.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ddth.hll.IHLL;
+
+/**
+ * Throughput of {@link IHLL#addHash(long)} with pre-computed hash values.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AddHashBenchmark {
+
+    @Param({ HLLs.PJ, HLLs.AK, HLLs.ATS })
+    public String impl;
+
+    @Param({ "10", "14", "16" })
+    public int log2m;
+
+    @Param({ "1000", "1000000" })
+    public int cardinality;
+
+    private long[] hashes;
+    private int pos;
+    private IHLL hll;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        hashes = Inputs.sampleHashes(cardinality, Inputs.poolSize(cardinality));
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        hll = HLLs.create(impl, log2m);
+        pos = 0;
+    }
+
+    @Benchmark
+    public IHLL addHash() {
+        long hash = hashes[pos];
+        pos = (pos + 1) & (hashes.length - 1);
+        return hll.addHash(hash);
+    }
+}
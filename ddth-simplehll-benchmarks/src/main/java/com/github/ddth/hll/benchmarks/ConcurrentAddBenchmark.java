@@ -0,0 +1,86 @@
+package com.github.ddth.hll.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+
+/**
+ * Throughput of many threads adding to one shared {@link IHLL}: lock-free
+ * {@link ConcurrentHLL} vs. a {@link com.github.ddth.hll.impl.PjHLL} guarded by
+ * a lock. Run with {@code -t <threads>} to change the number of writers.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(8)
+public class ConcurrentAddBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedHLL {
+        @Param({ "14", "16" })
+        public int log2m;
+
+        private IHLL concurrentHll;
+        private IHLL pjHll;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            concurrentHll = HLLs.create(HLLs.CONCURRENT, log2m);
+            pjHll = HLLs.create(HLLs.PJ, log2m);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadItems {
+        private long[] items;
+        private int pos;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            // same pool for all threads, each starting at a different position
+            items = Inputs.sampleHashes(1000000, Inputs.poolSize(1000000));
+            pos = ThreadLocalRandom.current().nextInt(items.length);
+        }
+
+        long next() {
+            long item = items[pos];
+            pos = (pos + 1) & (items.length - 1);
+            return item;
+        }
+    }
+
+    @Benchmark
+    public IHLL concurrentAddLong(SharedHLL shared, ThreadItems items) {
+        return shared.concurrentHll.addLong(items.next());
+    }
+
+    @Benchmark
+    public IHLL synchronizedAddLong(SharedHLL shared, ThreadItems items) {
+        IHLL hll = shared.pjHll;
+        long item = items.next();
+        synchronized (hll) {
+            return hll.addLong(item);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.ddth.hll.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ddth.hll.IHLL;
+
+/**
+ * Latency of {@link IHLL#count()} on a HLL holding {@code cardinality}
+ * distinct items.
+ * 
+ * <p>
+ * {@link #count()} measures repeated reads of an unchanged HLL (some
+ * implementations cache the estimate). {@link #addThenCount()} adds a new item
+ * before each read, which is the "poll after every micro-batch" pattern and
+ * forces the estimate to be re-computed.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CountBenchmark {
+
+    @Param({ HLLs.PJ, HLLs.AK, HLLs.ATS })
+    public String impl;
+
+    @Param({ "10", "14", "16" })
+    public int log2m;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int cardinality;
+
+    private IHLL hll;
+    private long next;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        hll = Inputs.fill(HLLs.create(impl, log2m), Inputs.TYPE_LONG, 0, cardinality);
+        next = cardinality;
+    }
+
+    @Benchmark
+    public long count() {
+        return hll.count();
+    }
+
+    @Benchmark
+    public long addThenCount() {
+        hll.add(next++);
+        return hll.count();
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.ddth.hll.benchmarks;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.OffHeapHLL;
+import com.github.ddth.hll.impl.PjHLL;
+
+/**
+ * Creates the {@link IHLL} implementations under benchmark, sized by the same
+ * "number of registers = 2^log2m" knob.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class HLLs {
+
+    public final static String PJ = "PjHLL";
+    public final static String AK = "AkHLL";
+    public final static String ATS = "AtsHLL";
+    public final static String CONCURRENT = "ConcurrentHLL";
+    public final static String OFF_HEAP = "OffHeapHLL";
+    public final static String DDTH = "DdthHLL";
+
+    /**
+     * Creates a new, initialized {@link IHLL}.
+     * 
+     * @param impl
+     *            one of {@link #PJ}, {@link #AK}, {@link #ATS},
+     *            {@link #CONCURRENT}, {@link #OFF_HEAP}, {@link #DDTH}
+     * @param log2m
+     *            log2 of number of registers ({@code numRegisterIndexBits}
+     *            for {@link PjHLL}, {@link ConcurrentHLL}, {@link OffHeapHLL}
+     *            and {@link DdthHLL})
+     * @return
+     */
+    public static IHLL create(String impl, int log2m) {
+        if (PJ.equals(impl)) {
+            return new PjHLL(log2m, 0).init();
+        }
+        if (AK.equals(impl)) {
+            return new AkHLL(log2m, 0).init();
+        }
+        if (ATS.equals(impl)) {
+            return new AtsHLL(log2m).init();
+        }
+        if (CONCURRENT.equals(impl)) {
+            return new ConcurrentHLL(log2m, 0).init();
+        }
+        if (OFF_HEAP.equals(impl)) {
+            return new OffHeapHLL(log2m, 0).init();
+        }
+        if (DDTH.equals(impl)) {
+            return new DdthHLL(log2m).init();
+        }
+        throw new IllegalArgumentException("Unsupported HLL implementation [" + impl + "]!");
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.ddth.hll.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import com.github.ddth.hll.IHLL;
+
+/**
+ * Generates benchmark input items. Items are pre-computed so that generating
+ * them is not part of the measurement.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class Inputs {
+
+    public final static String TYPE_LONG = "long";
+    public final static String TYPE_STRING = "String";
+    public final static String TYPE_BYTES = "byte[]";
+
+    /**
+     * Seed of the random generator, so that all runs see the same items.
+     */
+    public final static long SEED = 1981;
+
+    /**
+     * Smallest item pool, large enough for the HLL rather than the pool to
+     * dominate the cache footprint.
+     */
+    public final static int MIN_POOL_SIZE = 1 << 16;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Size of an item pool that holds all of {@code cardinality} distinct
+     * values: the smallest power of 2 of at least {@code cardinality} and
+     * {@link #MIN_POOL_SIZE}.
+     * 
+     * @param cardinality
+     * @return
+     */
+    public static int poolSize(int cardinality) {
+        int size = MIN_POOL_SIZE;
+        while (size < cardinality) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Values {@code 0..cardinality-1} repeated to fill {@code size} slots,
+     * shuffled: every value is in the pool if {@code size >= cardinality}.
+     * 
+     * @param cardinality
+     * @param size
+     * @return
+     */
+    private static int[] shuffledValues(int cardinality, int size) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i % cardinality;
+        }
+        Random rand = new Random(SEED);
+        for (int i = size - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+        return values;
+    }
+
+    /**
+     * Builds the item of the specified type for a numeric value.
+     * 
+     * @param type
+     * @param value
+     * @return
+     */
+    public static Object item(String type, long value) {
+        if (TYPE_LONG.equals(type)) {
+            return Long.valueOf(value);
+        }
+        if (TYPE_STRING.equals(type)) {
+            return String.valueOf(value);
+        }
+        if (TYPE_BYTES.equals(type)) {
+            return String.valueOf(value).getBytes(UTF8);
+        }
+        throw new IllegalArgumentException("Unsupported input type [" + type + "]!");
+    }
+
+    /**
+     * Builds a pool of {@code size} items of {@code cardinality} distinct
+     * values, in random order; all the values are in the pool if
+     * {@code size >= cardinality} (see {@link #poolSize(int)}).
+     * 
+     * @param type
+     * @param cardinality
+     * @param size
+     * @return
+     */
+    public static Object[] sample(String type, int cardinality, int size) {
+        int[] values = shuffledValues(cardinality, size);
+        Object[] result = new Object[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = item(type, values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Builds a pool of {@code size} 64-bit hash values of {@code cardinality}
+     * distinct values, see {@link #sample(String, int, int)}.
+     * 
+     * @param cardinality
+     * @param size
+     * @return
+     */
+    public static long[] sampleHashes(int cardinality, int size) {
+        int[] values = shuffledValues(cardinality, size);
+        long[] result = new long[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = mix64(values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer, a cheap stand-in for an upstream hash.
+     * 
+     * @param value
+     * @return
+     */
+    public static long mix64(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Adds distinct values {@code [from, to)} to a HLL.
+     * 
+     * @param hll
+     * @param type
+     * @param from
+     * @param to
+     * @return
+     */
+    public static IHLL fill(IHLL hll, String type, long from, long to) {
+        for (long value = from; value < to; value++) {
+            hll.add(item(type, value));
+        }
+        return hll;
+    }
+}
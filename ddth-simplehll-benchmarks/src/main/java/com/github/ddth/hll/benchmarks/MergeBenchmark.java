@@ -0,0 +1,69 @@
+package com.github.ddth.hll.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ddth.hll.IHLL;
+
+/**
+ * Latency of {@link IHLL#merge(IHLL)}: two HLLs of {@code cardinality} items
+ * each, half of them shared.
+ * 
+ * <p>
+ * {@link #merge()} folds the source into a long-lived accumulator (the
+ * steady state of a rollup: registers are compared but rarely change).
+ * {@link #mergeIntoEmpty()} creates a new HLL and merges the source into it
+ * (the first step of a rollup).
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MergeBenchmark {
+
+    @Param({ HLLs.PJ, HLLs.AK, HLLs.ATS, HLLs.OFF_HEAP, HLLs.DDTH })
+    public String impl;
+
+    @Param({ "10", "14", "16" })
+    public int log2m;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int cardinality;
+
+    private IHLL target, source;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        target = Inputs.fill(HLLs.create(impl, log2m), Inputs.TYPE_LONG, 0, cardinality);
+        source = Inputs.fill(HLLs.create(impl, log2m), Inputs.TYPE_LONG, cardinality / 2,
+                cardinality / 2 + cardinality);
+    }
+
+    @Benchmark
+    public IHLL merge() {
+        return target.merge(source);
+    }
+
+    @Benchmark
+    public IHLL mergeIntoEmpty() {
+        return HLLs.create(impl, log2m).merge(source);
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.ddth.hll.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.utils.HLLUtils;
+
+/**
+ * Latency of serializing ({@link IHLL#toBytes()},
+ * {@link HLLUtils#toBytes(IHLL)}) and deserializing
+ * ({@link HLLUtils#fromBytes(byte[])}) a HLL holding {@code cardinality}
+ * distinct items.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    @Param({ HLLs.PJ, HLLs.AK, HLLs.ATS, HLLs.OFF_HEAP, HLLs.DDTH })
+    public String impl;
+
+    @Param({ "10", "14", "16" })
+    public int log2m;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int cardinality;
+
+    private IHLL hll;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        hll = Inputs.fill(HLLs.create(impl, log2m), Inputs.TYPE_LONG, 0, cardinality);
+        data = HLLUtils.toBytes(hll);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return hll.toBytes();
+    }
+
+    @Benchmark
+    public byte[] utilsToBytes() {
+        return HLLUtils.toBytes(hll);
+    }
+
+    @Benchmark
+    public IHLL utilsFromBytes() {
+        return HLLUtils.fromBytes(data);
+    }
+}
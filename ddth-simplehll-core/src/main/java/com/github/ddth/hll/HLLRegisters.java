@@ -0,0 +1,202 @@
+package com.github.ddth.hll;
+
+import java.util.Arrays;
+
+/**
+ * Canonical HyperLogLog registers, the common model to convert {@link IHLL}s
+ * between implementations (see
+ * {@link com.github.ddth.hll.utils.HLLUtils#convert(IHLL, Class)}).
+ * 
+ * <ul>
+ * <li>Register {@code i} (of {@code m = 2^numRegisterIndexBits}) holds, over
+ * all items whose 64-bit hash value has {@code i} as its low
+ * {@code numRegisterIndexBits} bits, the max of 1 + the number of trailing
+ * zeros of the remaining bits; {@code 0} if there is no such item. This is
+ * the convention of {@code PjHLL}, {@code AkHLL} and {@code DdthHLL}.</li>
+ * <li>Registers can be merged (max of each register), and folded to fewer
+ * registers, without loss: the result is the same as counting the items with
+ * fewer registers in the first place.</li>
+ * <li>The registers are only meaningful together with the hash function that
+ * produced them: registers from different hash functions (see
+ * {@link #getHashFunction()}, {@link #getHashSeed()}) can be converted from
+ * one implementation to another, but not merged with each other.</li>
+ * </ul>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class HLLRegisters {
+
+    /**
+     * 64-bit MurmurHash3 (first 64 bits of x64_128): {@code PjHLL},
+     * {@code ConcurrentHLL} and {@code OffHeapHLL} with 64-bit hashing,
+     * {@code AkHLL} (the seed is {@link #getHashSeed()}), {@code DdthHLL}.
+     */
+    public final static String MURMUR3_64 = "murmur3_64";
+
+    /**
+     * 32-bit MurmurHash3 (x86_32): {@code PjHLL}, {@code ConcurrentHLL} and
+     * {@code OffHeapHLL} with 32-bit hashing.
+     */
+    public final static String MURMUR3_32 = "murmur3_32";
+
+    /**
+     * 32-bit MurmurHash2, as used by {@code AtsHLL}; the register index is
+     * taken from the high bits of the hash value and the register value from
+     * the leading zeros of the remaining bits, i.e. the canonical registers
+     * of the bit-reversed hash value.
+     */
+    public final static String MURMUR2_32 = "murmur2_32";
+
+    private final String hashFunction;
+    private final int hashSeed;
+    private final int numRegisterIndexBits;
+    private final byte[] registers;
+
+    /**
+     * @param hashFunction
+     *            {@link #MURMUR3_64}, {@link #MURMUR3_32}, {@link #MURMUR2_32}
+     *            or other identifier of the hash function
+     * @param hashSeed
+     * @param registers
+     *            {@code 2^numRegisterIndexBits} register values (not copied)
+     */
+    public HLLRegisters(String hashFunction, int hashSeed, byte[] registers) {
+        if (registers.length < 2 || Integer.bitCount(registers.length) != 1) {
+            throw new IllegalArgumentException(
+                    "Number of registers must be a power of 2 [" + registers.length + "]!");
+        }
+        this.hashFunction = hashFunction;
+        this.hashSeed = hashSeed;
+        this.numRegisterIndexBits = Integer.numberOfTrailingZeros(registers.length);
+        this.registers = registers;
+    }
+
+    public String getHashFunction() {
+        return hashFunction;
+    }
+
+    public int getHashSeed() {
+        return hashSeed;
+    }
+
+    public int getNumRegisterIndexBits() {
+        return numRegisterIndexBits;
+    }
+
+    /**
+     * Gets the register values (not copied).
+     * 
+     * @return
+     */
+    public byte[] getRegisters() {
+        return registers;
+    }
+
+    /**
+     * Checks if the registers come from the same hash function (and seed) as
+     * other registers, i.e. if they can be merged.
+     * 
+     * @param other
+     * @return
+     */
+    public boolean isSameHash(HLLRegisters other) {
+        return hashFunction.equals(other.hashFunction) && hashSeed == other.hashSeed;
+    }
+
+    /**
+     * Folds the registers to fewer registers: register {@code i} becomes
+     * register {@code i & (m' - 1)}, the dropped index bits counted as the
+     * first bits of the register value.
+     * 
+     * @param numRegisterIndexBits
+     *            at most {@link #getNumRegisterIndexBits()}
+     * @return
+     */
+    public HLLRegisters fold(int numRegisterIndexBits) {
+        if (numRegisterIndexBits == this.numRegisterIndexBits) {
+            return this;
+        }
+        if (numRegisterIndexBits < 1 || numRegisterIndexBits > this.numRegisterIndexBits) {
+            throw new IllegalArgumentException("Cannot fold " + this.numRegisterIndexBits
+                    + " register index bits to " + numRegisterIndexBits + "!");
+        }
+        final int extraBits = this.numRegisterIndexBits - numRegisterIndexBits;
+        final int mask = (1 << numRegisterIndexBits) - 1;
+        byte[] result = new byte[1 << numRegisterIndexBits];
+        for (int idx = 0; idx < registers.length; idx++) {
+            if (registers[idx] != 0) {
+                final int extra = idx >>> numRegisterIndexBits;
+                final int value = extra != 0 ? Integer.numberOfTrailingZeros(extra) + 1
+                        : extraBits + registers[idx];
+                if (value > result[idx & mask]) {
+                    result[idx & mask] = (byte) value;
+                }
+            }
+        }
+        return new HLLRegisters(hashFunction, hashSeed, result);
+    }
+
+    /**
+     * Merges with other registers of the same hash function, into new
+     * registers; the one with more registers is folded first.
+     * 
+     * @param other
+     * @return
+     * @throws IllegalArgumentException
+     *             if the hash functions differ
+     */
+    public HLLRegisters merge(HLLRegisters other) {
+        if (!isSameHash(other)) {
+            throw new IllegalArgumentException("Registers of hash functions [" + hashFunction
+                    + "/" + hashSeed + "] and [" + other.hashFunction + "/" + other.hashSeed
+                    + "] cannot be merged!");
+        }
+        final int p = Math.min(numRegisterIndexBits, other.numRegisterIndexBits);
+        byte[] a = fold(p).registers, b = other.fold(p).registers;
+        byte[] result = a == registers ? a.clone() : a;
+        for (int i = 0; i < result.length; i++) {
+            if (b[i] > result[i]) {
+                result[i] = b[i];
+            }
+        }
+        return new HLLRegisters(hashFunction, hashSeed, result);
+    }
+
+    /**
+     * Reorders registers indexed by the high bits of the hash value (e.g.
+     * {@code AtsHLL}'s) to canonical order, and vice versa: the register index
+     * bits are reversed.
+     * 
+     * @param registers
+     * @return
+     */
+    public static byte[] reverseIndexBits(byte[] registers) {
+        final int shift = 32 - Integer.numberOfTrailingZeros(registers.length);
+        byte[] result = new byte[registers.length];
+        for (int idx = 0; idx < registers.length; idx++) {
+            result[Integer.reverse(idx) >>> shift] = registers[idx];
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof HLLRegisters)) {
+            return false;
+        }
+        HLLRegisters other = (HLLRegisters) obj;
+        return isSameHash(other) && Arrays.equals(registers, other.registers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * hashFunction.hashCode() + Arrays.hashCode(registers);
+    }
+}
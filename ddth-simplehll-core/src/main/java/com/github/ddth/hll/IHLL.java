@@ -1,5 +1,7 @@
 package com.github.ddth.hll;
 
+import java.nio.ByteBuffer;
+
 /**
  * High level HyperLogLog API.
  * 
@@ -31,6 +33,40 @@ public interface IHLL extends Cloneable {
      */
     public IHLL init(byte[] data);
 
+    /**
+     * Gets the number of bytes {@link #toBytes()} and
+     * {@link #writeTo(ByteBuffer)} output.
+     * 
+     * @return
+     * @since 0.1.3
+     */
+    public int serializedSize();
+
+    /**
+     * Serializes this HLL into a buffer, at its position (same bytes as
+     * {@link #toBytes()}). The position is advanced by
+     * {@link #serializedSize()} bytes.
+     * 
+     * @param buffer
+     * @return
+     * @throws java.nio.BufferOverflowException
+     *             if fewer than {@link #serializedSize()} bytes remain in
+     *             {@code buffer}
+     * @since 0.1.3
+     */
+    public IHLL writeTo(ByteBuffer buffer);
+
+    /**
+     * Initializes this HLL from the bytes between a buffer's position and
+     * limit (output from {@link #toBytes()} or {@link #writeTo(ByteBuffer)}).
+     * The position is advanced to the limit.
+     * 
+     * @param buffer
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL readFrom(ByteBuffer buffer);
+
     /**
      * Returns the (estimated) number of items have been added.
      * 
@@ -46,6 +82,134 @@ public interface IHLL extends Cloneable {
      */
     public IHLL add(Object obj);
 
+    /**
+     * Adds a {@code long} item, without boxing. Same as
+     * {@code add(Long.valueOf(value))}.
+     * 
+     * @param value
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addLong(long value);
+
+    /**
+     * Adds an {@code int} item, without boxing. Same as
+     * {@code add(Integer.valueOf(value))}.
+     * 
+     * @param value
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addInt(int value);
+
+    /**
+     * Adds a range of a byte array as an item, without copying. Same as
+     * {@code add(Arrays.copyOfRange(data, offset, offset + length))}.
+     * 
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addBytes(byte[] data, int offset, int length);
+
+    /**
+     * Adds a character sequence as an item. Same as
+     * {@code add(value.toString())}.
+     * 
+     * @param value
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addChars(CharSequence value);
+
+    /**
+     * Adds an item by its pre-computed 64-bit hash value, skipping the
+     * implementation's own hashing.
+     * 
+     * <p>
+     * Hash contract:
+     * </p>
+     * <ul>
+     * <li>The value must come from a good 64-bit hash function (e.g.
+     * MurmurHash3, xxHash64): all 64 bits uniformly distributed. Identity-like
+     * hashes (sequential ids, {@link Object#hashCode()}) ruin the
+     * estimate.</li>
+     * <li>All items counted by this HLL, and by any HLL merged with it, must be
+     * hashed with the same function and seed. The implementation's own hash
+     * (used by {@link #add(Object)} and the typed {@code addXXX} methods) is a
+     * different function: the same item added via both paths is counted
+     * twice.</li>
+     * <li>Which bits are used is implementation specific: {@code PjHLL},
+     * {@code AkHLL} and {@code DdthHLL} use the low {@code log2m} bits as
+     * register index and the trailing zeros of the remaining bits
+     * ({@code PjHLL} with 32-bit hashing uses only the low 32 bits),
+     * {@code AtsHLL} uses the high {@code log2m} bits as register index and
+     * the leading zeros of the remaining bits (see
+     * {@link HLLRegisters}).</li>
+     * </ul>
+     * 
+     * @param hash
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addHash(long hash);
+
+    /**
+     * Adds a batch of {@code long} items. Same as calling
+     * {@link #addLong(long)} for each item, with per-call overhead paid once
+     * per batch.
+     * 
+     * @param values
+     * @param offset
+     *            index of the first item to add
+     * @param length
+     *            number of items to add
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addAll(long[] values, int offset, int length);
+
+    /**
+     * Adds a batch of byte array items. Same as calling {@link #add(Object)}
+     * for each item, with per-call overhead paid once per batch.
+     * 
+     * @param values
+     * @param offset
+     *            index of the first item to add
+     * @param length
+     *            number of items to add
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addAll(byte[][] values, int offset, int length);
+
+    /**
+     * Adds a batch of pre-computed 64-bit hash values. Same as calling
+     * {@link #addHash(long)} for each value (see there for the hash contract),
+     * with per-call overhead paid once per batch.
+     * 
+     * @param hashes
+     * @param offset
+     *            index of the first hash value to add
+     * @param length
+     *            number of hash values to add
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addAllHashes(long[] hashes, int offset, int length);
+
+    /**
+     * Adds all items of a collection. Same as calling {@link #add(Object)} for
+     * each item.
+     * 
+     * @param items
+     * @return
+     * @since 0.1.3
+     */
+    public IHLL addAll(Iterable<?> items);
+
     /**
      * Merges another HLL to this one.
      * 
@@ -1,11 +1,15 @@
 package com.github.ddth.hll.impl;
 
 import java.lang.reflect.Field;
-import java.nio.charset.Charset;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.github.ddth.hll.HLLRegisters;
 import com.github.ddth.hll.IHLL;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
+import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
+import com.github.ddth.hll.prasanthj.Murmur3;
 
 import net.agkn.hll.HLL;
 
@@ -13,26 +17,61 @@ import net.agkn.hll.HLL;
  * This {@link IHLL} utilizes AggregateKnowledge's library as the underlying
  * HyperLogLog implementation.
  * 
+ * <p>
+ * Items are hashed by MurmurHash3 (x64_128) with a fixed, configurable seed.
+ * Only {@link AkHLL}s with the same seed can be merged. The seed is stored in
+ * the serialized form (since v0.1.3).
+ * </p>
+ * 
  * @author Thanh Nguyen <btnguyen2k@gmail.com>
  * @since 0.1.0
  * @see https://github.com/aggregateknowledge/java-hll
  */
 public class AkHLL implements IHLL {
 
-    private int log2m = 16, regWidth = 4;
+    /**
+     * Default hash seed, same as {@link PjHLL}'s.
+     * 
+     * @since 0.1.3
+     */
+    public final static int DEFAULT_SEED = Murmur3.DEFAULT_SEED;
+
+    /**
+     * First byte of the serialized form that stores the hash seed. Raw
+     * java-hll data (written by v0.1.2 and older) starts with its schema
+     * version 1 in the high nibble ({@code 0x1?}).
+     */
+    private final static byte SEED_MARKER = (byte) 0xDD;
+
+    /**
+     * java-hll storage types (schema version 1).
+     */
+    private final static int TYPE_EMPTY = 1, TYPE_EXPLICIT = 2, TYPE_SPARSE = 3, TYPE_FULL = 4;
+
+    private int log2m = 16, regWidth = 4, seed = DEFAULT_SEED;
     private HLL hll;
-    private HashFunction hf = Hashing.murmur3_128((int) (System.currentTimeMillis() / 1000));
 
     public AkHLL() {
     }
 
     public AkHLL(int log2m, int regWidth) {
+        this(log2m, regWidth, DEFAULT_SEED);
+    }
+
+    /**
+     * @param log2m
+     * @param regWidth
+     * @param seed
+     * @since 0.1.3
+     */
+    public AkHLL(int log2m, int regWidth, int seed) {
         if (log2m != 0) {
             this.log2m = log2m;
         }
         if (regWidth != 0) {
             this.regWidth = regWidth;
         }
+        this.seed = seed;
     }
 
     /**
@@ -42,7 +81,6 @@ public class AkHLL implements IHLL {
     public AkHLL clone() {
         try {
             AkHLL clone = (AkHLL) super.clone();
-            clone.hf = Hashing.murmur3_128((int) (System.currentTimeMillis() / 1000));
             if (hll != null) {
                 clone.init(this.toBytes());
             }
@@ -98,6 +136,29 @@ public class AkHLL implements IHLL {
         return this;
     }
 
+    /**
+     * Gets the seed of the hash function.
+     * 
+     * @return
+     * @since 0.1.3
+     */
+    public int getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the seed of the hash function. Must be set before items are added,
+     * and must be the same for all {@link AkHLL}s to be merged.
+     * 
+     * @param seed
+     * @return
+     * @since 0.1.3
+     */
+    public AkHLL setSeed(int seed) {
+        this.seed = seed;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -106,7 +167,46 @@ public class AkHLL implements IHLL {
         if (hll == null) {
             throw new IllegalStateException();
         }
-        return hll.toBytes();
+        byte[] hllBytes = hll.toBytes();
+        byte[] result = new byte[hllBytes.length + 5];
+        writeTo(ByteBuffer.wrap(result), hllBytes);
+        return result;
+    }
+
+    private void writeTo(ByteBuffer buffer, byte[] hllBytes) {
+        if (buffer.remaining() < hllBytes.length + 5) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(SEED_MARKER).put((byte) (seed >>> 24)).put((byte) (seed >>> 16))
+                .put((byte) (seed >>> 8)).put((byte) seed).put(hllBytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * java-hll can only serialize to a new byte array: this serializes the
+     * HLL to compute the size.
+     * </p>
+     */
+    @Override
+    public int serializedSize() {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        return hll.toBytes().length + 5;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL writeTo(ByteBuffer buffer) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        writeTo(buffer, hll.toBytes());
+        return this;
     }
 
     /**
@@ -146,10 +246,41 @@ public class AkHLL implements IHLL {
 
     /**
      * {@inheritDoc}
+     * 
+     * <p>
+     * Data serialized by v0.1.2 and older does not contain the hash seed
+     * (which was picked randomly), {@link #DEFAULT_SEED} is assumed.
+     * </p>
      */
     @Override
     public IHLL init(byte[] data) {
-        hll = HLL.fromBytes(data);
+        return readFrom(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Data serialized by v0.1.2 and older does not contain the hash seed
+     * (which was picked randomly), {@link #DEFAULT_SEED} is assumed.
+     * </p>
+     */
+    @Override
+    public IHLL readFrom(ByteBuffer buffer) {
+        if (buffer.hasRemaining() && buffer.get(buffer.position()) == SEED_MARKER) {
+            if (buffer.remaining() < 5) {
+                throw new IllegalArgumentException(
+                        "Invalid data length [" + buffer.remaining() + "]!");
+            }
+            buffer.get();
+            this.seed = ((buffer.get() & 0xFF) << 24) | ((buffer.get() & 0xFF) << 16)
+                    | ((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF);
+        } else {
+            this.seed = DEFAULT_SEED;
+        }
+        byte[] hllBytes = new byte[buffer.remaining()];
+        buffer.get(hllBytes);
+        hll = HLL.fromBytes(hllBytes);
         this.log2m = reflectGetLog2m(hll);
         this.regWidth = reflectGetRegWidth(hll);
         return this;
@@ -166,28 +297,26 @@ public class AkHLL implements IHLL {
         return hll.cardinality();
     }
 
-    private final static Charset UTF8 = Charset.forName("UTF-8");
-
-    private static long hash(HashFunction hf, Object obj) {
+    private static long hash(int seed, Object obj) {
         if (obj == null) {
             return 0;
         }
         if (obj instanceof Long || obj instanceof Integer) {
             long value = ((Number) obj).longValue();
-            return hf.hashLong(value).padToLong();
+            return Murmur3.hash64(value, seed);
         }
         if (obj instanceof Double || obj instanceof Float) {
             double value = ((Number) obj).doubleValue();
-            return hf.hashLong(Double.doubleToRawLongBits(value)).padToLong();
+            return Murmur3.hash64(Double.doubleToRawLongBits(value), seed);
         }
         if (obj instanceof String) {
-            byte[] bytes = ((String) obj).getBytes(UTF8);
-            return hf.hashBytes(bytes).padToLong();
+            return Murmur3.hash64((String) obj, seed);
         }
         if (obj instanceof byte[]) {
-            return hf.hashBytes((byte[]) obj).padToLong();
+            byte[] data = (byte[]) obj;
+            return Murmur3.hash64(data, 0, data.length, seed);
         }
-        return hash(hf, obj.toString());
+        return hash(seed, obj.toString());
     }
 
     /**
@@ -198,11 +327,132 @@ public class AkHLL implements IHLL {
         if (hll == null) {
             throw new IllegalStateException();
         }
-        long value = hash(hf, obj);
+        long value = hash(seed, obj);
         hll.addRaw(value);
         return this;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addLong(long value) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.addRaw(Murmur3.hash64(value, seed));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addInt(int value) {
+        // same as add(Integer): int values are hashed as long
+        return addLong(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addBytes(byte[] data, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        hll.addRaw(Murmur3.hash64(data, offset, length, seed));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addChars(CharSequence value) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        // same as add(String): hash of the UTF-8 bytes
+        hll.addRaw(value != null ? Murmur3.hash64(value, seed) : 0);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addHash(long hash) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.addRaw(hash);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(long[] values, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        final int seed = this.seed;
+        for (int i = offset, n = offset + length; i < n; i++) {
+            hll.addRaw(Murmur3.hash64(values[i], seed));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(byte[][] values, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        final int seed = this.seed;
+        for (int i = offset, n = offset + length; i < n; i++) {
+            byte[] value = values[i];
+            hll.addRaw(value != null ? Murmur3.hash64(value, 0, value.length, seed) : 0);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAllHashes(long[] hashes, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            hll.addRaw(hashes[i]);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(Iterable<?> items) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        final int seed = this.seed;
+        for (Object item : items) {
+            hll.addRaw(hash(seed, item));
+        }
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -218,8 +468,266 @@ public class AkHLL implements IHLL {
         if (other == null) {
             throw new IllegalArgumentException("The supplied object has not been initialized!");
         }
+        if (seed != ((AkHLL) hll).seed) {
+            throw new IllegalArgumentException("Hash seeds mismatch [" + seed + "] vs ["
+                    + ((AkHLL) hll).seed + "]!");
+        }
         this.hll.union(other);
         return this;
     }
 
+    /**
+     * Merges serialized {@link AkHLL}s (see {@link #toBytes()}) without
+     * deserializing them.
+     * 
+     * <p>
+     * The java-hll SPARSE and FULL payloads (and EXPLICIT values, if any of
+     * the others is SPARSE or FULL) are unioned straight into one register
+     * buffer, following the java-hll storage specification (schema version 1);
+     * the result is FULL. It has the same registers, hence the same count, as
+     * the deserialized {@link AkHLL}s merged, though java-hll may keep the
+     * latter SPARSE. {@link AkHLL}s that are all EMPTY or EXPLICIT are merged
+     * by deserializing them.
+     * </p>
+     * 
+     * @param data
+     *            serialized {@link AkHLL}s, each from the buffer's position to
+     *            its limit (the positions are not changed)
+     * @return
+     * @throws IllegalArgumentException
+     *             if there is no data, or the hash seeds, log2m or register
+     *             widths differ
+     * @since 0.1.3
+     */
+    public static byte[] mergeBytes(Iterable<ByteBuffer> data) {
+        List<ByteBuffer> hllData = new ArrayList<ByteBuffer>();
+        Integer seed = null;
+        int log2m = 0, regWidth = 0;
+        byte cutoffs = 0;
+        boolean probabilistic = false;
+        for (ByteBuffer buffer : data) {
+            ByteBuffer hllBytes = buffer.duplicate();
+            int hllSeed = DEFAULT_SEED;
+            if (hllBytes.hasRemaining() && hllBytes.get(hllBytes.position()) == SEED_MARKER) {
+                if (hllBytes.remaining() < 5) {
+                    throw new IllegalArgumentException(
+                            "Invalid data length [" + hllBytes.remaining() + "]!");
+                }
+                hllBytes.get();
+                hllSeed = hllBytes.getInt();
+            }
+            if (hllBytes.remaining() < 3 || (hllBytes.get(hllBytes.position()) & 0xF0) != 0x10) {
+                throw new IllegalArgumentException("Invalid java-hll data!");
+            }
+            int type = hllBytes.get(hllBytes.position()) & 0x0F;
+            int parameters = hllBytes.get(hllBytes.position() + 1) & 0xFF;
+            if (seed == null) {
+                seed = hllSeed;
+                log2m = parameters & 0x1F;
+                regWidth = (parameters >>> 5) + 1;
+                // explicit and sparse cutoffs
+                cutoffs = hllBytes.get(hllBytes.position() + 2);
+            } else if (seed != hllSeed) {
+                throw new IllegalArgumentException(
+                        "Hash seeds mismatch [" + seed + "] vs [" + hllSeed + "]!");
+            } else if (log2m != (parameters & 0x1F) || regWidth != (parameters >>> 5) + 1) {
+                throw new IllegalArgumentException("log2m or register width mismatch!");
+            }
+            probabilistic |= type == TYPE_SPARSE || type == TYPE_FULL;
+            hllData.add(hllBytes);
+        }
+        if (seed == null) {
+            throw new IllegalArgumentException("No data to merge!");
+        }
+
+        if (!probabilistic) {
+            AkHLL result = null;
+            for (ByteBuffer hllBytes : hllData) {
+                // the seed prefix has been consumed
+                AkHLL hll = ((AkHLL) new AkHLL().readFrom(hllBytes)).setSeed(seed);
+                result = result == null ? hll : (AkHLL) result.merge(hll);
+            }
+            return result.toBytes();
+        }
+
+        byte[] register = new byte[1 << log2m];
+        for (ByteBuffer hllBytes : hllData) {
+            unionRegisters(hllBytes, log2m, regWidth, register);
+        }
+        return toBytes(seed, log2m, regWidth, cutoffs, register);
+    }
+
+    /**
+     * Unions java-hll data (without the seed prefix), from the buffer's
+     * position, into registers; the position is advanced.
+     * 
+     * @param hllBytes
+     * @param log2m
+     * @param regWidth
+     * @param register
+     */
+    private static void unionRegisters(ByteBuffer hllBytes, int log2m, int regWidth,
+            byte[] register) {
+        final int m = 1 << log2m, maxValue = (1 << regWidth) - 1;
+        int type = hllBytes.get() & 0x0F;
+        hllBytes.get();
+        hllBytes.get();
+        switch (type) {
+        case TYPE_EMPTY:
+            break;
+        case TYPE_EXPLICIT:
+            while (hllBytes.remaining() >= 8) {
+                // same as java-hll's HLL.addRaw(long)
+                long value = hllBytes.getLong();
+                long substreamValue = value >>> log2m;
+                if (substreamValue != 0) {
+                    int idx = (int) (value & (m - 1));
+                    int rank = Math.min(1 + Long.numberOfTrailingZeros(substreamValue),
+                            maxValue);
+                    if (rank > register[idx]) {
+                        register[idx] = (byte) rank;
+                    }
+                }
+            }
+            break;
+        case TYPE_SPARSE: {
+            // (log2m + regWidth)-bit words of (index << regWidth) | value
+            final int wordLength = log2m + regWidth;
+            long numWords = hllBytes.remaining() * 8L / wordLength;
+            for (long i = 0; i < numWords; i++) {
+                long word = readBits(hllBytes, i * wordLength, wordLength);
+                int idx = (int) (word >>> regWidth);
+                byte value = (byte) (word & maxValue);
+                if (value > register[idx]) {
+                    register[idx] = value;
+                }
+            }
+            break;
+        }
+        case TYPE_FULL: {
+            // m regWidth-bit words
+            byte[] packed = new byte[m / 8 * regWidth];
+            hllBytes.get(packed);
+            byte[] values = HyperLogLogUtils.bitunpack(packed, 0, m, regWidth);
+            for (int i = 0; i < m; i++) {
+                if (values[i] > register[i]) {
+                    register[i] = values[i];
+                }
+            }
+            break;
+        }
+        default:
+            throw new IllegalArgumentException("Unknown java-hll storage type [" + type + "]!");
+        }
+    }
+
+    /**
+     * Serializes registers as java-hll FULL data, with the seed prefix.
+     * 
+     * @param seed
+     * @param log2m
+     * @param regWidth
+     * @param cutoffs
+     *            java-hll explicit and sparse cutoffs byte
+     * @param register
+     * @return
+     */
+    private static byte[] toBytes(int seed, int log2m, int regWidth, byte cutoffs,
+            byte[] register) {
+        byte[] packed = HyperLogLogUtils.bitpack(register, regWidth);
+        byte[] hllBytes = new byte[3 + packed.length];
+        hllBytes[0] = 0x10 | TYPE_FULL;
+        hllBytes[1] = (byte) (((regWidth - 1) << 5) | log2m);
+        hllBytes[2] = cutoffs;
+        System.arraycopy(packed, 0, hllBytes, 3, packed.length);
+
+        AkHLL result = new AkHLL(log2m, regWidth, seed);
+        byte[] out = new byte[hllBytes.length + 5];
+        result.writeTo(ByteBuffer.wrap(out), hllBytes);
+        return out;
+    }
+
+    /**
+     * Gets the registers of serialized data (output from {@link #toBytes()}),
+     * from a buffer's position (the position is not changed).
+     * 
+     * @param buffer
+     * @return
+     * @since 0.1.3
+     */
+    public static HLLRegisters deserializeRegisters(ByteBuffer buffer) {
+        ByteBuffer hllBytes = buffer.duplicate();
+        int seed = DEFAULT_SEED;
+        if (hllBytes.hasRemaining() && hllBytes.get(hllBytes.position()) == SEED_MARKER) {
+            if (hllBytes.remaining() < 5) {
+                throw new IllegalArgumentException(
+                        "Invalid data length [" + hllBytes.remaining() + "]!");
+            }
+            hllBytes.get();
+            seed = hllBytes.getInt();
+        }
+        if (hllBytes.remaining() < 3 || (hllBytes.get(hllBytes.position()) & 0xF0) != 0x10) {
+            throw new IllegalArgumentException("Invalid java-hll data!");
+        }
+        int parameters = hllBytes.get(hllBytes.position() + 1) & 0xFF;
+        int log2m = parameters & 0x1F;
+        byte[] register = new byte[1 << log2m];
+        unionRegisters(hllBytes, log2m, (parameters >>> 5) + 1, register);
+        return new HLLRegisters(HLLRegisters.MURMUR3_64, seed, register);
+    }
+
+    /**
+     * Serializes registers (e.g. of another {@link IHLL} implementation) to
+     * the format of {@link #toBytes()}, as java-hll FULL data. Register values
+     * are capped at {@code 2^regWidth - 1}, as java-hll does.
+     * 
+     * <p>
+     * The hash seed is the registers' one if they come from
+     * {@link HLLRegisters#MURMUR3_64}, {@link #DEFAULT_SEED} otherwise.
+     * </p>
+     * 
+     * @param registers
+     * @param regWidth
+     *            1 to 8
+     * @return
+     * @since 0.1.3
+     */
+    public static byte[] serializeRegisters(HLLRegisters registers, int regWidth) {
+        if (regWidth < 1 || regWidth > 8) {
+            throw new IllegalArgumentException("Invalid register width [" + regWidth + "]!");
+        }
+        final int maxValue = (1 << regWidth) - 1;
+        byte[] register = registers.getRegisters().clone();
+        for (int i = 0; i < register.length; i++) {
+            if ((register[i] & 0xFF) > maxValue) {
+                register[i] = (byte) maxValue;
+            }
+        }
+        int seed = HLLRegisters.MURMUR3_64.equals(registers.getHashFunction())
+                ? registers.getHashSeed() : DEFAULT_SEED;
+        // java-hll's default cutoffs: auto explicit threshold, sparse enabled
+        return toBytes(seed, registers.getNumRegisterIndexBits(), regWidth, (byte) 0x7F,
+                register);
+    }
+
+    /**
+     * Reads a big-endian word of {@code numBits} bits (at most 57), at a bit
+     * offset from the buffer's position.
+     * 
+     * @param buffer
+     * @param bitOffset
+     * @param numBits
+     * @return
+     */
+    private static long readBits(ByteBuffer buffer, long bitOffset, int numBits) {
+        int pos = buffer.position() + (int) (bitOffset >>> 3);
+        int skip = (int) (bitOffset & 7);
+        int numBytes = (skip + numBits + 7) >>> 3;
+        long word = 0;
+        for (int i = 0; i < numBytes; i++) {
+            word = (word << 8) | (buffer.get(pos + i) & 0xFF);
+        }
+        return (word >>> (numBytes * 8 - skip - numBits)) & ((1L << numBits) - 1);
+    }
+
 }
@@ -10,12 +10,55 @@ import com.github.ddth.hll.IHLLFactory;
  */
 public class AkHLLFactory implements IHLLFactory {
 
+    private int log2m, regWidth, seed = AkHLL.DEFAULT_SEED;
+
+    public AkHLLFactory() {
+    }
+
+    /**
+     * @param log2m
+     *            {@code 0} to use {@link AkHLL}'s default value
+     * @param regWidth
+     *            {@code 0} to use {@link AkHLL}'s default value
+     * @param seed
+     *            hash seed, must be the same for all {@link AkHLL}s to be
+     *            merged
+     * @since 0.1.3
+     */
+    public AkHLLFactory(int log2m, int regWidth, int seed) {
+        this.log2m = log2m;
+        this.regWidth = regWidth;
+        this.seed = seed;
+    }
+
+    /**
+     * Gets the hash seed of created {@link AkHLL}s.
+     * 
+     * @return
+     * @since 0.1.3
+     */
+    public int getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the hash seed of created {@link AkHLL}s.
+     * 
+     * @param seed
+     * @return
+     * @since 0.1.3
+     */
+    public AkHLLFactory setSeed(int seed) {
+        this.seed = seed;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public AkHLL createHLL() {
-        return (AkHLL) new AkHLL().init();
+        return (AkHLL) new AkHLL(log2m, regWidth, seed).init();
     }
 
 }
@@ -2,9 +2,14 @@ package com.github.ddth.hll.impl;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+import com.clearspring.analytics.hash.MurmurHash;
 import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
 import com.clearspring.analytics.stream.cardinality.HyperLogLog;
+import com.github.ddth.hll.HLLRegisters;
 import com.github.ddth.hll.IHLL;
 
 /**
@@ -17,6 +22,11 @@ import com.github.ddth.hll.IHLL;
  */
 public class AtsHLL implements IHLL {
 
+    /**
+     * Seed used by {@link MurmurHash#hash(byte[])}.
+     */
+    private final static int MURMUR_SEED = -1;
+
     private int log2m = 16;
     private HyperLogLog hll;
 
@@ -84,6 +94,32 @@ public class AtsHLL implements IHLL {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * stream-lib can only serialize to a new byte array: this serializes the
+     * HLL to compute the size.
+     * </p>
+     */
+    @Override
+    public int serializedSize() {
+        return toBytes().length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL writeTo(ByteBuffer buffer) {
+        byte[] data = toBytes();
+        if (buffer.remaining() < data.length) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(data);
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -120,6 +156,16 @@ public class AtsHLL implements IHLL {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL readFrom(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return init(data);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -143,6 +189,134 @@ public class AtsHLL implements IHLL {
         return this;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addLong(long value) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.offerHashed(MurmurHash.hashLong(value));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addInt(int value) {
+        // same as add(Integer): int values are hashed as long
+        return addLong(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Note: AddThis Stream hashes whole arrays only, a range that does not
+     * start at offset {@code 0} is copied before hashing.
+     * </p>
+     */
+    @Override
+    public IHLL addBytes(byte[] data, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        if (offset == 0) {
+            hll.offerHashed(MurmurHash.hash(data, length, MURMUR_SEED));
+        } else {
+            hll.offerHashed(MurmurHash.hash(Arrays.copyOfRange(data, offset, offset + length)));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Note: AddThis Stream hashes strings as bytes in platform's default
+     * charset, the character sequence is encoded before hashing.
+     * </p>
+     */
+    @Override
+    public IHLL addChars(CharSequence value) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.offerHashed(value != null ? MurmurHash.hash(value.toString().getBytes()) : 0);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addHash(long hash) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.offerHashed(hash);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(long[] values, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            hll.offerHashed(MurmurHash.hashLong(values[i]));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(byte[][] values, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            byte[] value = values[i];
+            hll.offerHashed(value != null ? MurmurHash.hash(value) : 0);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAllHashes(long[] hashes, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            hll.offerHashed(hashes[i]);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(Iterable<?> items) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        for (Object item : items) {
+            hll.offer(item);
+        }
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -166,4 +340,67 @@ public class AtsHLL implements IHLL {
         return this;
     }
 
+    /**
+     * stream-lib packs 5-bit registers, 6 per (big-endian) {@code int}.
+     */
+    private final static int REGISTER_BITS = 5, REGISTERS_PER_WORD = 6;
+
+    /**
+     * Gets the registers of serialized data (output from {@link #toBytes()}),
+     * from a buffer's position (the position is not changed), in canonical
+     * order (see {@link HLLRegisters#MURMUR2_32}).
+     * 
+     * @param buffer
+     * @return
+     * @since 0.1.3
+     */
+    public static HLLRegisters deserializeRegisters(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        if (data.remaining() < 8) {
+            throw new IllegalArgumentException("Invalid data length [" + data.remaining() + "]!");
+        }
+        final int log2m = data.getInt(), numWords = data.getInt() / 4;
+        if (log2m < 1 || log2m > 30 || data.remaining() < numWords * 4) {
+            throw new IllegalArgumentException("Invalid stream-lib HyperLogLog data!");
+        }
+        final int m = 1 << log2m;
+        byte[] register = new byte[m];
+        for (int i = 0; i < numWords; i++) {
+            final int word = data.getInt();
+            for (int j = 0, pos = i * REGISTERS_PER_WORD; j < REGISTERS_PER_WORD
+                    && pos < m; j++, pos++) {
+                register[pos] = (byte) ((word >>> (REGISTER_BITS * j)) & 0x1F);
+            }
+        }
+        return new HLLRegisters(HLLRegisters.MURMUR2_32, MURMUR_SEED,
+                HLLRegisters.reverseIndexBits(register));
+    }
+
+    /**
+     * Serializes registers (e.g. of another {@link IHLL} implementation) to
+     * the format of {@link #toBytes()}. Register values are capped at
+     * {@code 31}, as stream-lib stores 5-bit registers.
+     * 
+     * @param registers
+     * @return
+     * @since 0.1.3
+     */
+    public static byte[] serializeRegisters(HLLRegisters registers) {
+        byte[] register = HLLRegisters.reverseIndexBits(registers.getRegisters());
+        // same number of words as stream-lib's RegisterSet.getSizeForCount()
+        final int words = register.length / REGISTERS_PER_WORD;
+        final int numWords = words == 0 ? 1 : words % Integer.SIZE == 0 ? words : words + 1;
+        ByteBuffer data = ByteBuffer.allocate(8 + numWords * 4);
+        data.putInt(registers.getNumRegisterIndexBits()).putInt(numWords * 4);
+        for (int i = 0; i < numWords; i++) {
+            int word = 0;
+            for (int j = 0, pos = i * REGISTERS_PER_WORD; j < REGISTERS_PER_WORD
+                    && pos < register.length; j++, pos++) {
+                word |= Math.min(register[pos] & 0xFF, 0x1F) << (REGISTER_BITS * j);
+            }
+            data.putInt(word);
+        }
+        return data.array();
+    }
+
 }
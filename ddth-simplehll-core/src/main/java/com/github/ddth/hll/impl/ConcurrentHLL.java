@@ -0,0 +1,484 @@
+package com.github.ddth.hll.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.prasanthj.HLLConstants;
+import com.github.ddth.hll.prasanthj.HLLDenseRegister;
+import com.github.ddth.hll.prasanthj.HyperLogLog;
+import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
+import com.github.ddth.hll.prasanthj.Murmur3;
+
+/**
+ * Thread-safe {@link IHLL}: {@code add*} and {@code merge} can be called
+ * concurrently from many threads, {@link #count()} and {@link #toBytes()} can
+ * be called while writers are active (and see a point-in-time view of each
+ * register).
+ * 
+ * <p>
+ * Registers are packed 8 per {@code long} in an {@link AtomicLongArray} and
+ * updated with a compare-and-set loop that only ever increases a register.
+ * Items are hashed and registers are computed exactly like {@link PjHLL}
+ * (DENSE encoding), so the serialized form is the same as {@link PjHLL}'s.
+ * </p>
+ * 
+ * <p>
+ * {@link #init()} and {@link #init(byte[])} are not thread-safe: the object
+ * must be initialized before it is shared between threads.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class ConcurrentHLL implements IHLL {
+
+    private int numRegisterIndexBits = 15, numHashBits = 128;
+    private AtomicLongArray registers;
+
+    public ConcurrentHLL() {
+    }
+
+    public ConcurrentHLL(int numRegisterIndexBits, int numHashBits) {
+        if (numRegisterIndexBits != 0) {
+            this.numRegisterIndexBits = numRegisterIndexBits;
+        }
+        if (numHashBits != 0) {
+            this.numHashBits = numHashBits;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ConcurrentHLL clone() {
+        try {
+            ConcurrentHLL clone = (ConcurrentHLL) super.clone();
+            if (registers != null) {
+                AtomicLongArray copy = new AtomicLongArray(registers.length());
+                for (int i = 0, n = registers.length(); i < n; i++) {
+                    copy.set(i, registers.get(i));
+                }
+                clone.registers = copy;
+            }
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets the "numRegisterIndexBits" value (number of LSB hashcode bits to be
+     * used as register index). The larger the numRegisterIndexBits the better
+     * the accuracy but also the higher storage required.
+     * 
+     * @return
+     */
+    public int getNumRegisterIndexBits() {
+        return numRegisterIndexBits;
+    }
+
+    /**
+     * Set the "numRegisterIndexBits" value (number of LSB hashcode bits to be
+     * used as register index). The larger the numRegisterIndexBits the better
+     * the accuracy but also the higher storage required.
+     * 
+     * @param numRegisterIndexBits
+     * @return
+     */
+    public ConcurrentHLL setNumRegisterIndexBits(int numRegisterIndexBits) {
+        this.numRegisterIndexBits = numRegisterIndexBits;
+        return this;
+    }
+
+    /**
+     * Gets the number of bits for hashcode (32 or 128).
+     * 
+     * @return
+     */
+    public int getNumHashBits() {
+        return numHashBits;
+    }
+
+    /**
+     * Sets the number of bits for hashcode. Values up to 32 select 32-bit
+     * hashcodes, larger values 128-bit hashcodes.
+     * 
+     * @param numHashBits
+     * @return
+     */
+    public ConcurrentHLL setNumHashBits(int numHashBits) {
+        this.numHashBits = numHashBits;
+        return this;
+    }
+
+    /**
+     * Copies the current register values.
+     * 
+     * @return
+     */
+    private byte[] snapshotRegisters() {
+        byte[] result = new byte[1 << numRegisterIndexBits];
+        for (int i = 0, n = registers.length(); i < n; i++) {
+            long word = registers.get(i);
+            for (int j = 0; j < 8; j++, word >>>= 8) {
+                result[(i << 3) + j] = (byte) word;
+            }
+        }
+        return result;
+    }
+
+    private HyperLogLog newDenseHyperLogLog() {
+        return HyperLogLog.builder().enableBitPacking(true).enableNoBias(true)
+                .setEncoding(HyperLogLog.EncodingType.DENSE).setNumHashBits(numHashBits)
+                .setNumRegisterIndexBits(numRegisterIndexBits).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] toBytes() {
+        HyperLogLog hll = snapshot();
+        byte[] result = new byte[HyperLogLogUtils.getSerializedSize(hll)];
+        HyperLogLogUtils.serializeHLL(ByteBuffer.wrap(result), hll);
+        return result;
+    }
+
+    /**
+     * Copies the registers into a DENSE {@link HyperLogLog}.
+     * 
+     * @return
+     */
+    private HyperLogLog snapshot() {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        HyperLogLog hll = newDenseHyperLogLog();
+        hll.setHLLDenseRegister(snapshotRegisters());
+        return hll;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Registers are packed with the bit width of the largest one, so the size
+     * can grow if items are added before {@link #writeTo(ByteBuffer)} is
+     * called.
+     * </p>
+     */
+    @Override
+    public int serializedSize() {
+        return HyperLogLogUtils.getSerializedSize(snapshot());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL writeTo(ByteBuffer buffer) {
+        HyperLogLogUtils.serializeHLL(buffer, snapshot());
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL init() {
+        if (numRegisterIndexBits < HLLConstants.MIN_P_VALUE
+                || numRegisterIndexBits > HLLConstants.MAX_P_VALUE) {
+            throw new IllegalArgumentException("numRegisterIndexBits should be between "
+                    + HLLConstants.MIN_P_VALUE + " to " + HLLConstants.MAX_P_VALUE);
+        }
+        if (numHashBits <= 0) {
+            throw new IllegalArgumentException("numHashBits must be positive");
+        }
+        numHashBits = numHashBits <= 32 ? 32 : 128;
+        registers = new AtomicLongArray((1 << numRegisterIndexBits) >>> 3);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Accepts data serialized by {@link PjHLL} (DENSE or SPARSE encoding).
+     * </p>
+     */
+    @Override
+    public IHLL init(byte[] data) {
+        return readFrom(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Accepts data serialized by {@link PjHLL} (DENSE or SPARSE encoding),
+     * with the default hash seed.
+     * </p>
+     */
+    @Override
+    public IHLL readFrom(ByteBuffer buffer) {
+        HyperLogLog hll = HyperLogLogUtils.deserializeHLL(buffer,
+                HLLDenseRegister.Layout.BYTES);
+        if (hll.getHashSeed() != Murmur3.DEFAULT_SEED) {
+            throw new IllegalArgumentException("Unsupported hash seed [" + hll.getHashSeed()
+                    + "]!");
+        }
+        buffer.position(buffer.limit());
+        this.numHashBits = hll.getNumHashBits();
+        this.numRegisterIndexBits = hll.getNumRegisterIndexBits();
+        if (hll.getEncoding() != HyperLogLog.EncodingType.DENSE) {
+            HyperLogLog dense = newDenseHyperLogLog();
+            dense.merge(hll);
+            hll = dense;
+        }
+        init();
+        byte[] register = hll.getHLLDenseRegister().getRegister();
+        for (int i = 0, n = registers.length(); i < n; i++) {
+            long word = 0;
+            for (int j = 7; j >= 0; j--) {
+                word = (word << 8) | (register[(i << 3) + j] & 0xFF);
+            }
+            registers.set(i, word);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        final double[] inversePow2 = HLLConstants.inversePow2Data;
+        double sum = 0;
+        long numZeros = 0;
+        for (int i = 0, n = registers.length(); i < n; i++) {
+            long word = registers.get(i);
+            if (word == 0) {
+                sum += 8;
+                numZeros += 8;
+                continue;
+            }
+            for (int j = 0; j < 8; j++, word >>>= 8) {
+                int value = (int) word & 0xFF;
+                sum += inversePow2[value];
+                if (value == 0) {
+                    numZeros++;
+                }
+            }
+        }
+        return HyperLogLog.estimateDenseCount(numRegisterIndexBits, numHashBits, true, sum,
+                numZeros);
+    }
+
+    /**
+     * Sets register {@code idx} to {@code value} if the current value is
+     * smaller.
+     * 
+     * @param idx
+     * @param value
+     */
+    private void setMax(int idx, int value) {
+        final int word = idx >>> 3;
+        final int shift = (idx & 7) << 3;
+        final long mask = 0xFFL << shift;
+        while (true) {
+            long current = registers.get(word);
+            if (((current & mask) >>> shift) >= value) {
+                return;
+            }
+            long update = (current & ~mask) | ((long) value << shift);
+            if (registers.compareAndSet(word, current, update)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds a hashcode computed by the hash function of this HLL (32-bit
+     * hashcodes are sign extended).
+     * 
+     * @param hashcode
+     */
+    private void addHashcode(long hashcode) {
+        final int p = numRegisterIndexBits;
+        final int idx = (int) (hashcode & ((1 << p) - 1));
+        final int value = Long.numberOfTrailingZeros(hashcode >>> p) + 1;
+        setMax(idx, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL add(Object obj) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(PjHashes.hash(obj, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addLong(long value) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(PjHashes.hashLittleEndian(value, 8, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addInt(int value) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(PjHashes.hashLittleEndian(value, 4, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addBytes(byte[] data, int offset, int length) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        addHashcode(PjHashes.hashBytes(data, offset, length, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addChars(CharSequence value) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(value != null ? PjHashes.hashChars(value, numHashBits) : 0);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addHash(long hash) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(PjHashes.hashOf(hash, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(long[] values, int offset, int length) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            addHashcode(PjHashes.hashLittleEndian(values[i], 8, numHashBits));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(byte[][] values, int offset, int length) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            byte[] value = values[i];
+            addHashcode(
+                    value != null ? PjHashes.hashBytes(value, 0, value.length, numHashBits) : 0);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAllHashes(long[] hashes, int offset, int length) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            addHashcode(PjHashes.hashOf(hashes[i], numHashBits));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(Iterable<?> items) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        for (Object item : items) {
+            addHashcode(PjHashes.hash(item, numHashBits));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL merge(IHLL hll) {
+        if (this.registers == null) {
+            throw new IllegalStateException();
+        }
+        if (!(hll instanceof ConcurrentHLL)) {
+            throw new IllegalArgumentException(
+                    "Argument is not of type [" + ConcurrentHLL.class + "]!");
+        }
+        ConcurrentHLL other = (ConcurrentHLL) hll;
+        if (other.registers == null) {
+            throw new IllegalArgumentException("The supplied object has not been initialized!");
+        }
+        if (numRegisterIndexBits != other.numRegisterIndexBits
+                || numHashBits != other.numHashBits) {
+            throw new IllegalArgumentException(
+                    "HLLs cannot be merged as either numRegisterIndexBits or numHashBits are different!");
+        }
+        for (int i = 0, n = registers.length(); i < n; i++) {
+            long word = other.registers.get(i);
+            for (int j = 0; word != 0; j++, word >>>= 8) {
+                int value = (int) word & 0xFF;
+                if (value != 0) {
+                    setMax((i << 3) + j, value);
+                }
+            }
+        }
+        return this;
+    }
+
+}
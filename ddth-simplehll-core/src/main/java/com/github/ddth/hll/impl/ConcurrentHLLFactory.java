@@ -0,0 +1,37 @@
+package com.github.ddth.hll.impl;
+
+import com.github.ddth.hll.IHLLFactory;
+
+/**
+ * Factory to create {@link ConcurrentHLL} objects.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class ConcurrentHLLFactory implements IHLLFactory {
+
+    private int numRegisterIndexBits, numHashBits;
+
+    public ConcurrentHLLFactory() {
+    }
+
+    /**
+     * @param numRegisterIndexBits
+     *            {@code 0} to use {@link ConcurrentHLL}'s default value
+     * @param numHashBits
+     *            {@code 0} to use {@link ConcurrentHLL}'s default value
+     */
+    public ConcurrentHLLFactory(int numRegisterIndexBits, int numHashBits) {
+        this.numRegisterIndexBits = numRegisterIndexBits;
+        this.numHashBits = numHashBits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ConcurrentHLL createHLL() {
+        return (ConcurrentHLL) new ConcurrentHLL(numRegisterIndexBits, numHashBits).init();
+    }
+
+}
@@ -0,0 +1,884 @@
+package com.github.ddth.hll.impl;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.github.ddth.hll.HLLRegisters;
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.prasanthj.HLLConstants;
+import com.github.ddth.hll.prasanthj.HyperLogLog;
+import com.github.ddth.hll.prasanthj.Murmur3;
+
+/**
+ * First-party HyperLogLog++ {@link IHLL}, with no dependency on third-party
+ * libraries (only the allocation-free {@link Murmur3} hash and the HLL++
+ * estimator of {@link HyperLogLog}).
+ * 
+ * <ul>
+ * <li>Items are hashed to 64 bits by {@link Murmur3} with
+ * {@link Murmur3#DEFAULT_SEED}, the same as {@link AkHLL}'s default. The low
+ * {@code numRegisterIndexBits} bits are the register index, the trailing zeros
+ * of the remaining bits give the register value: the same registers as
+ * {@link PjHLL} and {@link AkHLL} (see
+ * {@link com.github.ddth.hll.HLLRegisters}).</li>
+ * <li>SPARSE mode (while few registers are set): sorted {@code int} entries
+ * of a 25-bit register index (the low 25 bits) and its value, so small sets
+ * are counted by
+ * linear counting over {@code 2^25} registers. New entries are buffered and
+ * merged in batches.</li>
+ * <li>DENSE mode: 1 byte per register, with a running sum of
+ * {@code 2^-register} and count of zero registers: {@link #count()} does not
+ * scan the registers, and gives the same estimate as {@link PjHLL}'s from the
+ * same registers.</li>
+ * <li>Adding an item allocates nothing, except when the SPARSE entries grow or
+ * switch to DENSE mode.</li>
+ * </ul>
+ * 
+ * <p>
+ * Serialized form (version 2; version 1 had a different register convention
+ * and is not supported):
+ * </p>
+ * <ul>
+ * <li>First 1 byte: format version (2)</li>
+ * <li>Next 1 byte: numRegisterIndexBits</li>
+ * <li>Next 1 byte: mode (1: SPARSE, 2: DENSE)</li>
+ * <li>Next varlong: estimated count, {@link #count()} at the time of
+ * serialization</li>
+ * <li>SPARSE: varint number of entries, then the entries
+ * ({@code index << 6 | value}, 25-bit index) sorted, each as a varint delta
+ * from the previous one</li>
+ * <li>DENSE: 1 byte base (the smallest register value), 1 byte width
+ * {@code w} (1 to 6, whichever takes the fewest bytes), registers as
+ * {@code w}-bit offsets from the base bit packed MSB first (all ones: an
+ * exception), then 1 byte register value for each exception, in register
+ * order</li>
+ * </ul>
+ * 
+ * <p>
+ * Varints are unsigned LEB128. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class DdthHLL implements IHLL {
+
+    private final static byte VERSION = 2;
+    private final static byte MODE_SPARSE = 1, MODE_DENSE = 2;
+
+    // register index bits of SPARSE entries, register value bits of entries
+    private final static int SPARSE_P = 25, VALUE_BITS = 6;
+    private final static int VALUE_MASK = (1 << VALUE_BITS) - 1;
+
+    // pending SPARSE entries; small enough for Arrays.sort not to allocate
+    private final static int PENDING_SIZE = 256;
+
+    private int numRegisterIndexBits = 15;
+
+    // SPARSE mode: sorted entries and pending entries; null in DENSE mode
+    private int[] sparse, pending;
+    private int sparseSize, numPending;
+
+    // DENSE mode: registers; null in SPARSE mode
+    private byte[] registers;
+    private double sumInversePow2;
+    private int numZeroes;
+
+    private long cachedCount = -1;
+
+    public DdthHLL() {
+    }
+
+    /**
+     * @param numRegisterIndexBits
+     *            {@code 0} to use the default value
+     */
+    public DdthHLL(int numRegisterIndexBits) {
+        if (numRegisterIndexBits != 0) {
+            this.numRegisterIndexBits = numRegisterIndexBits;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DdthHLL clone() {
+        try {
+            DdthHLL clone = (DdthHLL) super.clone();
+            if (sparse != null) {
+                clone.sparse = sparse.clone();
+                clone.pending = pending.clone();
+            }
+            if (registers != null) {
+                clone.registers = registers.clone();
+            }
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets the "numRegisterIndexBits" value (number of low hashcode bits to be
+     * used as register index). The larger the numRegisterIndexBits the better
+     * the accuracy but also the higher storage required.
+     * 
+     * @return
+     */
+    public int getNumRegisterIndexBits() {
+        return numRegisterIndexBits;
+    }
+
+    /**
+     * Set the "numRegisterIndexBits" value (number of low hashcode bits to be
+     * used as register index). The larger the numRegisterIndexBits the better
+     * the accuracy but also the higher storage required.
+     * 
+     * @param numRegisterIndexBits
+     * @return
+     */
+    public DdthHLL setNumRegisterIndexBits(int numRegisterIndexBits) {
+        this.numRegisterIndexBits = numRegisterIndexBits;
+        return this;
+    }
+
+    /**
+     * Number of SPARSE entries above which DENSE mode takes less space: an
+     * entry takes about 3 bytes serialized, a DENSE register 1 or 2 bits while
+     * most registers are zero.
+     * 
+     * @return
+     */
+    private int sparseThreshold() {
+        return (1 << numRegisterIndexBits) / 16;
+    }
+
+    private void ensureInitialized() {
+        if (sparse == null && registers == null) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL init() {
+        if (numRegisterIndexBits < HLLConstants.MIN_P_VALUE
+                || numRegisterIndexBits > HLLConstants.MAX_P_VALUE) {
+            throw new IllegalArgumentException("numRegisterIndexBits should be between "
+                    + HLLConstants.MIN_P_VALUE + " to " + HLLConstants.MAX_P_VALUE);
+        }
+        sparse = new int[64];
+        pending = new int[PENDING_SIZE];
+        sparseSize = 0;
+        numPending = 0;
+        registers = null;
+        cachedCount = -1;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Register value of the bits of a hashcode above its {@code indexBits} low
+     * bits.
+     * 
+     * @param hashcode
+     * @param indexBits
+     * @return
+     */
+    private static int registerValue(long hashcode, int indexBits) {
+        // the marker bit past the end caps the value at 65 - indexBits
+        return Long.numberOfTrailingZeros((hashcode >>> indexBits) | (1L << (64 - indexBits)))
+                + 1;
+    }
+
+    /**
+     * Sets DENSE register {@code idx} to {@code value} if the current value is
+     * smaller.
+     * 
+     * @param idx
+     * @param value
+     */
+    private void setMax(int idx, int value) {
+        final int current = registers[idx];
+        if (value > current) {
+            registers[idx] = (byte) value;
+            sumInversePow2 += HLLConstants.inversePow2Data[value]
+                    - HLLConstants.inversePow2Data[current];
+            if (current == 0) {
+                numZeroes--;
+            }
+            cachedCount = -1;
+        }
+    }
+
+    /**
+     * Applies a SPARSE entry to the DENSE registers.
+     * 
+     * @param entry
+     */
+    private void setMaxEntry(int entry) {
+        final int sparseIdx = entry >>> VALUE_BITS;
+        final int extra = sparseIdx >>> numRegisterIndexBits;
+        // the index bits above numRegisterIndexBits are the first bits
+        // counted by the DENSE register value
+        final int value = extra != 0 ? Integer.numberOfTrailingZeros(extra) + 1
+                : SPARSE_P - numRegisterIndexBits + (entry & VALUE_MASK);
+        setMax(sparseIdx & ((1 << numRegisterIndexBits) - 1), value);
+    }
+
+    private void addEntry(int entry) {
+        if (registers != null) {
+            setMaxEntry(entry);
+        } else {
+            pending[numPending++] = entry;
+            cachedCount = -1;
+            if (numPending == PENDING_SIZE) {
+                flushPending();
+            }
+        }
+    }
+
+    private void addHashcode(long hashcode) {
+        if (registers != null) {
+            setMax((int) hashcode & ((1 << numRegisterIndexBits) - 1),
+                    registerValue(hashcode, numRegisterIndexBits));
+        } else {
+            addEntry((((int) hashcode & ((1 << SPARSE_P) - 1)) << VALUE_BITS)
+                    | registerValue(hashcode, SPARSE_P));
+        }
+    }
+
+    /**
+     * Merges the pending entries into the sorted SPARSE entries, switching to
+     * DENSE mode if there are too many.
+     */
+    private void flushPending() {
+        if (numPending == 0) {
+            return;
+        }
+        // sorted by index then value: keep the last entry of each index
+        Arrays.sort(pending, 0, numPending);
+        int n = 0;
+        for (int i = 0; i < numPending; i++) {
+            if (i + 1 < numPending
+                    && (pending[i] >>> VALUE_BITS) == (pending[i + 1] >>> VALUE_BITS)) {
+                continue;
+            }
+            pending[n++] = pending[i];
+        }
+        numPending = 0;
+        mergeSorted(pending, n);
+    }
+
+    /**
+     * Merges sorted entries (one per index) into the SPARSE entries, retaining
+     * the largest value for an index, switching to DENSE mode if there are too
+     * many.
+     * 
+     * @param entries
+     * @param n
+     */
+    private void mergeSorted(int[] entries, int n) {
+        if (sparseSize + n > sparse.length) {
+            sparse = Arrays.copyOf(sparse,
+                    Math.max(sparseSize + n, sparse.length + (sparse.length >> 1)));
+        }
+        // from the back, in place
+        final int[] result = sparse;
+        int i = sparseSize - 1, j = n - 1, k = sparseSize + n - 1;
+        while (j >= 0) {
+            final int keyIn = i >= 0 ? result[i] >>> VALUE_BITS : -1;
+            final int keyOut = entries[j] >>> VALUE_BITS;
+            if (keyIn > keyOut) {
+                result[k--] = result[i--];
+            } else if (keyIn == keyOut) {
+                result[k--] = Math.max(result[i--], entries[j--]);
+            } else {
+                result[k--] = entries[j--];
+            }
+        }
+        // indices present in both leave a gap between the untouched head
+        // [0, i] and the merged tail (k, sparseSize + n)
+        final int tail = sparseSize + n - 1 - k;
+        if (k > i) {
+            System.arraycopy(result, k + 1, result, i + 1, tail);
+        }
+        sparseSize = i + 1 + tail;
+        if (sparseSize > sparseThreshold()) {
+            toDense();
+        }
+    }
+
+    /**
+     * Switches from SPARSE to DENSE mode. Pending entries must have been
+     * flushed.
+     */
+    private void toDense() {
+        final int m = 1 << numRegisterIndexBits;
+        registers = new byte[m];
+        sumInversePow2 = m;
+        numZeroes = m;
+        for (int i = 0; i < sparseSize; i++) {
+            setMaxEntry(sparse[i]);
+        }
+        sparse = pending = null;
+        sparseSize = numPending = 0;
+        cachedCount = -1;
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * In DENSE mode, the estimate is computed from the running sum (and is
+     * cached until a register changes).
+     * </p>
+     */
+    @Override
+    public long count() {
+        ensureInitialized();
+        if (cachedCount < 0) {
+            if (registers == null) {
+                flushPending();
+            }
+            if (registers == null) {
+                // linear counting over the SPARSE registers
+                final double m = 1 << SPARSE_P;
+                cachedCount = Math.round(m * Math.log(m / (m - sparseSize)));
+            } else {
+                // same estimate as PjHLL's (64-bit hashing) from the same
+                // registers
+                cachedCount = HyperLogLog.estimateDenseCount(numRegisterIndexBits, 128, true,
+                        sumInversePow2, numZeroes);
+            }
+        }
+        return cachedCount;
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Same hashing as {@link AkHLL}: {@code Integer}s are hashed as
+     * {@code long}s, other objects by their string form.
+     * 
+     * @param obj
+     * @return
+     */
+    private static long hashOf(Object obj) {
+        if (obj == null) {
+            return 0;
+        }
+        if (obj instanceof Long || obj instanceof Integer) {
+            return Murmur3.hash64(((Number) obj).longValue(), Murmur3.DEFAULT_SEED);
+        }
+        if (obj instanceof Double || obj instanceof Float) {
+            double value = ((Number) obj).doubleValue();
+            return Murmur3.hash64(Double.doubleToRawLongBits(value), Murmur3.DEFAULT_SEED);
+        }
+        if (obj instanceof String) {
+            return Murmur3.hash64((String) obj, Murmur3.DEFAULT_SEED);
+        }
+        if (obj instanceof byte[]) {
+            byte[] data = (byte[]) obj;
+            return Murmur3.hash64(data, 0, data.length, Murmur3.DEFAULT_SEED);
+        }
+        return hashOf(obj.toString());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL add(Object obj) {
+        ensureInitialized();
+        addHashcode(hashOf(obj));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addLong(long value) {
+        ensureInitialized();
+        addHashcode(Murmur3.hash64(value, Murmur3.DEFAULT_SEED));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addInt(int value) {
+        // same as add(Integer): int values are hashed as long
+        return addLong(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addBytes(byte[] data, int offset, int length) {
+        ensureInitialized();
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        addHashcode(Murmur3.hash64(data, offset, length, Murmur3.DEFAULT_SEED));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addChars(CharSequence value) {
+        ensureInitialized();
+        // same as add(String): hash of the UTF-8 bytes
+        addHashcode(value != null ? Murmur3.hash64(value, Murmur3.DEFAULT_SEED) : 0);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addHash(long hash) {
+        ensureInitialized();
+        addHashcode(hash);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(long[] values, int offset, int length) {
+        ensureInitialized();
+        for (int i = offset, n = offset + length; i < n; i++) {
+            addHashcode(Murmur3.hash64(values[i], Murmur3.DEFAULT_SEED));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(byte[][] values, int offset, int length) {
+        ensureInitialized();
+        for (int i = offset, n = offset + length; i < n; i++) {
+            byte[] value = values[i];
+            addHashcode(
+                    value != null ? Murmur3.hash64(value, 0, value.length, Murmur3.DEFAULT_SEED)
+                            : 0);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAllHashes(long[] hashes, int offset, int length) {
+        ensureInitialized();
+        for (int i = offset, n = offset + length; i < n; i++) {
+            addHashcode(hashes[i]);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(Iterable<?> items) {
+        ensureInitialized();
+        for (Object item : items) {
+            addHashcode(hashOf(item));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL merge(IHLL hll) {
+        ensureInitialized();
+        if (!(hll instanceof DdthHLL)) {
+            throw new IllegalArgumentException("Argument is not of type [" + DdthHLL.class + "]!");
+        }
+        DdthHLL other = (DdthHLL) hll;
+        if (other.sparse == null && other.registers == null) {
+            throw new IllegalArgumentException("The supplied object has not been initialized!");
+        }
+        if (numRegisterIndexBits != other.numRegisterIndexBits) {
+            throw new IllegalArgumentException(
+                    "HLLs cannot be merged as numRegisterIndexBits are different!");
+        }
+        if (other == this) {
+            return this;
+        }
+
+        if (other.registers != null) {
+            if (registers == null) {
+                flushPending();
+                if (registers == null) {
+                    toDense();
+                }
+            }
+            mergeDense(other.registers);
+        } else if (registers != null) {
+            for (int i = 0; i < other.sparseSize; i++) {
+                setMaxEntry(other.sparse[i]);
+            }
+            for (int i = 0; i < other.numPending; i++) {
+                setMaxEntry(other.pending[i]);
+            }
+        } else {
+            flushPending();
+            if (registers == null) {
+                mergeSorted(other.sparse, other.sparseSize);
+            } else {
+                for (int i = 0; i < other.sparseSize; i++) {
+                    setMaxEntry(other.sparse[i]);
+                }
+            }
+            for (int i = 0; i < other.numPending; i++) {
+                addEntry(other.pending[i]);
+            }
+            cachedCount = -1;
+        }
+        return this;
+    }
+
+    private void mergeDense(byte[] in) {
+        final double[] inversePow2 = HLLConstants.inversePow2Data;
+        for (int idx = 0; idx < registers.length; idx++) {
+            final int a = registers[idx], b = in[idx];
+            if (b > a) {
+                registers[idx] = (byte) b;
+                sumInversePow2 += inversePow2[b] - inversePow2[a];
+                if (a == 0) {
+                    numZeroes--;
+                }
+                cachedCount = -1;
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Number of DENSE registers of each value.
+     * 
+     * @return
+     */
+    private int[] histogram() {
+        final int[] histogram = new int[VALUE_MASK + 1];
+        for (byte value : registers) {
+            histogram[value]++;
+        }
+        return histogram;
+    }
+
+    /**
+     * Serialized layout of DENSE registers: the base (smallest register
+     * value), and the width of offsets from the base that takes the fewest
+     * bytes.
+     * 
+     * @param histogram
+     * @return {@code {base, width, number of bytes}}
+     */
+    private int[] denseLayout(int[] histogram) {
+        final int m = 1 << numRegisterIndexBits;
+        int base = 0;
+        while (histogram[base] == 0) {
+            base++;
+        }
+        int bestWidth = 0, bestSize = Integer.MAX_VALUE;
+        for (int width = 1; width <= VALUE_BITS; width++) {
+            int numExceptions = 0;
+            for (int v = base + (1 << width) - 1; v <= VALUE_MASK; v++) {
+                numExceptions += histogram[v];
+            }
+            final int size = m / 8 * width + numExceptions;
+            if (size < bestSize) {
+                bestWidth = width;
+                bestSize = size;
+            }
+        }
+        return new int[] { base, bestWidth, 2 + bestSize };
+    }
+
+    /**
+     * @param estCount
+     * @param denseLayout
+     *            {@code null} in SPARSE mode
+     * @return
+     */
+    private int serializedSize(long estCount, int[] denseLayout) {
+        int size = 3 + varLongSize(estCount);
+        if (denseLayout != null) {
+            return size + denseLayout[2];
+        }
+        size += varLongSize(sparseSize);
+        for (int i = 0, prev = 0; i < sparseSize; prev = sparse[i++]) {
+            size += varLongSize(sparse[i] - prev);
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int serializedSize() {
+        final long estCount = count();
+        return serializedSize(estCount, registers != null ? denseLayout(histogram()) : null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] toBytes() {
+        final long estCount = count();
+        final int[] layout = registers != null ? denseLayout(histogram()) : null;
+        byte[] result = new byte[serializedSize(estCount, layout)];
+        writeTo(ByteBuffer.wrap(result), estCount, layout);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL writeTo(ByteBuffer buffer) {
+        final long estCount = count();
+        final int[] layout = registers != null ? denseLayout(histogram()) : null;
+        if (buffer.remaining() < serializedSize(estCount, layout)) {
+            throw new BufferOverflowException();
+        }
+        writeTo(buffer, estCount, layout);
+        return this;
+    }
+
+    /**
+     * @param buffer
+     * @param estCount
+     * @param layout
+     *            {@code null} in SPARSE mode
+     */
+    private void writeTo(ByteBuffer buffer, long estCount, int[] layout) {
+        buffer.put(VERSION).put((byte) numRegisterIndexBits);
+        buffer.put(registers == null ? MODE_SPARSE : MODE_DENSE);
+        writeVarLong(buffer, estCount);
+        if (registers == null) {
+            writeVarLong(buffer, sparseSize);
+            for (int i = 0, prev = 0; i < sparseSize; prev = sparse[i++]) {
+                writeVarLong(buffer, sparse[i] - prev);
+            }
+            return;
+        }
+
+        final int m = 1 << numRegisterIndexBits;
+        final int base = layout[0], width = layout[1], exception = (1 << width) - 1;
+        buffer.put((byte) base).put((byte) width);
+        // offsets, bit packed MSB first
+        long bits = 0;
+        int numBits = 0, numExceptions = 0;
+        for (int idx = 0; idx < m; idx++) {
+            final int offset = registers[idx] - base;
+            if (offset >= exception) {
+                numExceptions++;
+            }
+            bits = (bits << width) | Math.min(offset, exception);
+            numBits += width;
+            if (numBits >= 8) {
+                numBits -= 8;
+                buffer.put((byte) (bits >>> numBits));
+            }
+        }
+        // exceptions, register values in register order
+        for (int idx = 0; numExceptions > 0; idx++) {
+            if (registers[idx] - base >= exception) {
+                buffer.put(registers[idx]);
+                numExceptions--;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL init(byte[] data) {
+        return readFrom(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL readFrom(ByteBuffer buffer) {
+        if (buffer.remaining() < 3) {
+            throw new IllegalArgumentException("Invalid data length [" + buffer.remaining() + "]!");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported format version [" + version + "]!");
+        }
+        this.numRegisterIndexBits = buffer.get();
+        byte mode = buffer.get();
+        init();
+        readVarLong(buffer);
+        if (mode == MODE_SPARSE) {
+            int n = (int) readVarLong(buffer);
+            sparse = new int[Math.max(n, sparse.length)];
+            for (int i = 0, prev = 0; i < n; i++) {
+                prev += (int) readVarLong(buffer);
+                sparse[i] = prev;
+            }
+            sparseSize = n;
+        } else if (mode == MODE_DENSE) {
+            toDense();
+            final int m = 1 << numRegisterIndexBits;
+            final int base = buffer.get(), width = buffer.get(), exception = (1 << width) - 1;
+            if (width < 1 || width > VALUE_BITS) {
+                throw new IllegalArgumentException("Invalid register width [" + width + "]!");
+            }
+            long bits = 0;
+            int numBits = 0, numExceptions = 0;
+            for (int idx = 0; idx < m; idx++) {
+                if (numBits < width) {
+                    bits = (bits << 8) | (buffer.get() & 0xFF);
+                    numBits += 8;
+                }
+                numBits -= width;
+                final int offset = (int) (bits >>> numBits) & exception;
+                if (offset == exception) {
+                    numExceptions++;
+                }
+                // exceptions are set to base + exception until read below
+                setMax(idx, base + offset);
+            }
+            final int mark = base + exception;
+            for (int idx = 0; numExceptions > 0; idx++) {
+                if (registers[idx] == mark) {
+                    setMax(idx, buffer.get());
+                    numExceptions--;
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown mode [" + mode + "]!");
+        }
+        buffer.position(buffer.limit());
+        return this;
+    }
+
+    /**
+     * Gets the estimated count stored in serialized data (output from
+     * {@link #toBytes()}), from a buffer's position (the position is not
+     * changed), without deserializing it.
+     * 
+     * @param buffer
+     * @return
+     */
+    public static long peekCount(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        if (data.remaining() < 4) {
+            throw new IllegalArgumentException("Invalid data length [" + data.remaining() + "]!");
+        }
+        byte version = data.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported format version [" + version + "]!");
+        }
+        data.position(data.position() + 2);
+        return readVarLong(data);
+    }
+
+    /**
+     * Gets the registers of serialized data (output from {@link #toBytes()}),
+     * from a buffer's position (the position is not changed). SPARSE entries
+     * are applied to DENSE registers.
+     * 
+     * @param buffer
+     * @return
+     * @since 0.1.3
+     */
+    public static HLLRegisters deserializeRegisters(ByteBuffer buffer) {
+        DdthHLL hll = new DdthHLL();
+        hll.readFrom(buffer.duplicate());
+        if (hll.registers == null) {
+            hll.flushPending();
+            if (hll.registers == null) {
+                hll.toDense();
+            }
+        }
+        return new HLLRegisters(HLLRegisters.MURMUR3_64, Murmur3.DEFAULT_SEED, hll.registers);
+    }
+
+    /**
+     * Serializes registers (e.g. of another {@link IHLL} implementation) to
+     * the format of {@link #toBytes()}, in DENSE mode. Register values are
+     * capped at {@code 65 - numRegisterIndexBits}, the largest value of a
+     * 64-bit hashcode.
+     * 
+     * @param registers
+     * @return
+     * @throws IllegalArgumentException
+     *             if the number of registers is out of range
+     * @since 0.1.3
+     */
+    public static byte[] serializeRegisters(HLLRegisters registers) {
+        final int p = registers.getNumRegisterIndexBits();
+        DdthHLL hll = new DdthHLL(p);
+        hll.init();
+        hll.toDense();
+        final byte[] values = registers.getRegisters();
+        final int max = 65 - p;
+        for (int idx = 0; idx < values.length; idx++) {
+            if (values[idx] != 0) {
+                hll.setMax(idx, Math.min(values[idx] & 0xFF, max));
+            }
+        }
+        return hll.toBytes();
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (0x80 | (value & 0x7F)));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0;; shift += 7) {
+            final int b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.github.ddth.hll.impl;
+
+import com.github.ddth.hll.IHLLFactory;
+
+/**
+ * Factory to create {@link DdthHLL} objects.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class DdthHLLFactory implements IHLLFactory {
+
+    private int numRegisterIndexBits;
+
+    public DdthHLLFactory() {
+    }
+
+    /**
+     * @param numRegisterIndexBits
+     *            {@code 0} to use {@link DdthHLL}'s default value
+     */
+    public DdthHLLFactory(int numRegisterIndexBits) {
+        this.numRegisterIndexBits = numRegisterIndexBits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DdthHLL createHLL() {
+        return (DdthHLL) new DdthHLL(numRegisterIndexBits).init();
+    }
+
+}
@@ -0,0 +1,325 @@
+package com.github.ddth.hll.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.prasanthj.HLLConstants;
+
+/**
+ * A fixed number of HLLs ("slots", keyed {@code 0..numSlots-1}) stored in a
+ * memory-mapped file. Items are added directly to the mapped registers, so the
+ * OS page cache persists them and re-opening the file after a restart is
+ * instant.
+ * 
+ * <p>
+ * Each slot holds the registers of an {@link OffHeapHLL}: 6 bits each, in the
+ * dense layout of {@link PjHLL}'s serialized form. Hashing is the same as
+ * {@link PjHLL}'s. Slots are mapped in chunks of less than 2GB each, so a
+ * store can be larger than 2GB.
+ * </p>
+ * 
+ * <p>
+ * File format:
+ * </p>
+ * <ul>
+ * <li>First 2 bytes: magic number (0x1981)</li>
+ * <li>Next 1 byte: format version (1)</li>
+ * <li>Next 1 byte: numRegisterIndexBits</li>
+ * <li>Next 1 byte: numHashBits</li>
+ * <li>Next 3 bytes: reserved</li>
+ * <li>Next 8 bytes: number of slots</li>
+ * <li>Next {@code numSlots * registerBytes} bytes: the slots' registers</li>
+ * </ul>
+ * 
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class MappedHLLStore implements Closeable {
+
+    private final static byte[] MAGIC_BYTES = { 19, 81 };
+    private final static byte VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+
+    private File file;
+    private long numSlots;
+    private int numRegisterIndexBits = 15, numHashBits = 128;
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer[] chunks;
+    private int slotSize, slotsPerChunk;
+
+    /**
+     * Opens the store in {@code file} as-is if it exists (its settings must
+     * match), or creates it.
+     * 
+     * @param file
+     * @param numSlots
+     * @param numRegisterIndexBits
+     *            {@code 0} to use the default value
+     * @param numHashBits
+     *            {@code 0} to use the default value
+     */
+    public MappedHLLStore(File file, long numSlots, int numRegisterIndexBits, int numHashBits) {
+        this.file = file;
+        this.numSlots = numSlots;
+        if (numRegisterIndexBits != 0) {
+            this.numRegisterIndexBits = numRegisterIndexBits;
+        }
+        if (numHashBits != 0) {
+            this.numHashBits = numHashBits;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getNumSlots() {
+        return numSlots;
+    }
+
+    public int getNumRegisterIndexBits() {
+        return numRegisterIndexBits;
+    }
+
+    public int getNumHashBits() {
+        return numHashBits;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of file [" + position + "]!");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Opens or creates the file, and maps the slots.
+     * 
+     * @return
+     */
+    public MappedHLLStore init() {
+        if (numRegisterIndexBits < HLLConstants.MIN_P_VALUE
+                || numRegisterIndexBits > HLLConstants.MAX_P_VALUE) {
+            throw new IllegalArgumentException("numRegisterIndexBits should be between "
+                    + HLLConstants.MIN_P_VALUE + " to " + HLLConstants.MAX_P_VALUE);
+        }
+        if (numHashBits <= 0) {
+            throw new IllegalArgumentException("numHashBits must be positive");
+        }
+        if (numSlots <= 0) {
+            throw new IllegalArgumentException("numSlots must be positive");
+        }
+        numHashBits = numHashBits <= 32 ? 32 : 128;
+        close();
+
+        slotSize = OffHeapHLL.registerBytes(numRegisterIndexBits);
+        slotsPerChunk = (int) Math.min(numSlots, Integer.MAX_VALUE / slotSize);
+        long fileSize = HEADER_SIZE + numSlots * slotSize;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (raf.length() == 0) {
+                header.put(MAGIC_BYTES).put(VERSION).put((byte) numRegisterIndexBits)
+                        .put((byte) numHashBits).put(new byte[3]).putLong(numSlots).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                raf.setLength(fileSize);
+            } else {
+                readFully(channel, header, 0);
+                if (header.get(0) != MAGIC_BYTES[0] || header.get(1) != MAGIC_BYTES[1]
+                        || header.get(2) != VERSION) {
+                    throw new IllegalArgumentException(
+                            "Invalid data signature [" + header.get(0) + "," + header.get(1)
+                                    + "," + header.get(2) + "] in file [" + file + "]!");
+                }
+                if (header.get(3) != numRegisterIndexBits
+                        || (header.get(4) & 0xFF) != numHashBits
+                        || header.getLong(8) != numSlots) {
+                    throw new IllegalArgumentException("File [" + file
+                            + "] has different numRegisterIndexBits, numHashBits or numSlots!");
+                }
+                if (raf.length() < fileSize) {
+                    throw new IllegalArgumentException("File [" + file + "] is truncated!");
+                }
+            }
+
+            int numChunks = (int) ((numSlots + slotsPerChunk - 1) / slotsPerChunk);
+            chunks = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long firstSlot = (long) i * slotsPerChunk;
+                long size = Math.min(slotsPerChunk, numSlots - firstSlot) * slotSize;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_SIZE + firstSlot * slotSize, size);
+            }
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Writes changes to the file now, rather than when the OS decides to.
+     */
+    public void flush() {
+        if (chunks == null) {
+            throw new IllegalStateException();
+        }
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Closes the file. Changes are left to the OS to write, call
+     * {@link #flush()} first to write them now.
+     * 
+     * <p>
+     * The slots are not unmapped right away, as views from {@link #get(long)}
+     * may still use them: the mapping is released when the views are garbage
+     * collected.
+     * </p>
+     */
+    @Override
+    public void close() {
+        chunks = null;
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                raf = null;
+            }
+        }
+    }
+
+    private ByteBuffer chunk(long key) {
+        if (chunks == null) {
+            throw new IllegalStateException();
+        }
+        if (key < 0 || key >= numSlots) {
+            throw new IndexOutOfBoundsException(
+                    "Key [" + key + "] is out of range [0," + numSlots + ")!");
+        }
+        return chunks[(int) (key / slotsPerChunk)];
+    }
+
+    private int offset(long key) {
+        return (int) (key % slotsPerChunk) * slotSize;
+    }
+
+    private void addHashcode(long key, long hashcode) {
+        OffHeapHLL.setMax(chunk(key), offset(key), slotSize,
+                OffHeapHLL.registerIndex(hashcode, numRegisterIndexBits),
+                OffHeapHLL.registerValue(hashcode, numRegisterIndexBits));
+    }
+
+    /**
+     * Adds an item to slot {@code key}, see {@link IHLL#add(Object)}.
+     * 
+     * @param key
+     * @param obj
+     * @return
+     */
+    public MappedHLLStore add(long key, Object obj) {
+        addHashcode(key, PjHashes.hash(obj, numHashBits));
+        return this;
+    }
+
+    /**
+     * Adds a {@code long} item to slot {@code key}, see
+     * {@link IHLL#addLong(long)}.
+     * 
+     * @param key
+     * @param value
+     * @return
+     */
+    public MappedHLLStore addLong(long key, long value) {
+        addHashcode(key, PjHashes.hashLittleEndian(value, 8, numHashBits));
+        return this;
+    }
+
+    /**
+     * Adds an item by its pre-computed hash to slot {@code key}, see
+     * {@link IHLL#addHash(long)}.
+     * 
+     * @param key
+     * @param hash
+     * @return
+     */
+    public MappedHLLStore addHash(long key, long hash) {
+        addHashcode(key, PjHashes.hashOf(hash, numHashBits));
+        return this;
+    }
+
+    /**
+     * Gets slot {@code key} as an {@link OffHeapHLL} over the mapped
+     * registers: items added to, or HLLs merged into, it go straight to the
+     * file, even after this store is closed.
+     * 
+     * @param key
+     * @return
+     */
+    public OffHeapHLL get(long key) {
+        ByteBuffer slot = chunk(key).duplicate();
+        slot.position(offset(key));
+        return OffHeapHLL.view(numRegisterIndexBits, numHashBits, slot);
+    }
+
+    /**
+     * Counts the distinct items of slot {@code key}.
+     * 
+     * @param key
+     * @return
+     */
+    public long count(long key) {
+        return get(key).count();
+    }
+
+    /**
+     * Serializes slot {@code key}, in {@link PjHLL}'s serialized form.
+     * 
+     * @param key
+     * @return
+     */
+    public byte[] toBytes(long key) {
+        return get(key).toBytes();
+    }
+
+    /**
+     * Merges slots into a new {@link OffHeapHLL}; the slots are not changed.
+     * 
+     * @param keys
+     * @return
+     */
+    public OffHeapHLL merge(long... keys) {
+        OffHeapHLL result = (OffHeapHLL) new OffHeapHLL(numRegisterIndexBits, numHashBits)
+                .init();
+        for (long key : keys) {
+            result.merge(get(key));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,623 @@
+package com.github.ddth.hll.impl;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.prasanthj.HLLConstants;
+import com.github.ddth.hll.prasanthj.HLLDenseRegister;
+import com.github.ddth.hll.prasanthj.HyperLogLog;
+import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
+import com.github.ddth.hll.prasanthj.Murmur3;
+import com.github.ddth.hll.utils.BufferUtils;
+
+/**
+ * {@link IHLL} whose registers live off the Java heap, in a direct
+ * {@link ByteBuffer} (or in a region of a caller-supplied buffer, e.g. a slice
+ * of a larger shared buffer), so that large numbers of resident sketches do not
+ * weigh on the garbage collector.
+ * 
+ * <p>
+ * Registers are packed 6 bits each, in the layout of {@link PjHLL}'s
+ * serialized form (DENSE encoding). Items are hashed and registers are
+ * computed exactly like {@link PjHLL}, so counts are the same and
+ * {@link #toBytes()} is {@link PjHLL}'s serialized form, written straight from
+ * the buffer. Only the running sum used for counting is kept on-heap.
+ * </p>
+ * 
+ * <p>
+ * Call {@link #close()} to free the off-heap memory as soon as the object is
+ * no longer needed; a closed object throws {@link IllegalStateException} like
+ * an uninitialized one. A buffer supplied by the caller is not freed. This
+ * class is not thread-safe.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class OffHeapHLL implements IHLL, Closeable {
+
+    private final static int MAX_VALUE = HLLDenseRegister.PACKED_MAX_VALUE;
+
+    private int numRegisterIndexBits = 15, numHashBits = 128;
+
+    // caller-supplied buffer to allocate registers from, null to allocate
+    // a direct buffer
+    private ByteBuffer sharedBuffer;
+
+    // registers, packed 6 bits each; null if not initialized or closed
+    private ByteBuffer registers;
+    private boolean ownsRegisters;
+
+    // running sum of 2^-register and number of zero registers
+    private double sumInversePow2;
+    private int numZeroes;
+
+    /**
+     * Number of bytes of registers for a given "numRegisterIndexBits", e.g. to
+     * size a shared buffer.
+     * 
+     * @param numRegisterIndexBits
+     * @return
+     */
+    public static int registerBytes(int numRegisterIndexBits) {
+        return (1 << numRegisterIndexBits) * HLLConstants.PACKED_BIT_WIDTH / 8;
+    }
+
+    public OffHeapHLL() {
+    }
+
+    public OffHeapHLL(int numRegisterIndexBits, int numHashBits) {
+        if (numRegisterIndexBits != 0) {
+            this.numRegisterIndexBits = numRegisterIndexBits;
+        }
+        if (numHashBits != 0) {
+            this.numHashBits = numHashBits;
+        }
+    }
+
+    /**
+     * Stores registers in {@code buffer}, from its current position:
+     * {@link #registerBytes(int)} bytes are used. The buffer is not freed by
+     * {@link #close()}.
+     * 
+     * @param numRegisterIndexBits
+     *            {@code 0} to use the default value
+     * @param numHashBits
+     *            {@code 0} to use the default value
+     * @param buffer
+     */
+    public OffHeapHLL(int numRegisterIndexBits, int numHashBits, ByteBuffer buffer) {
+        this(numRegisterIndexBits, numHashBits);
+        this.sharedBuffer = buffer;
+    }
+
+    /**
+     * Creates an initialized {@link OffHeapHLL} over registers that are
+     * already in {@code buffer} (from its current position), e.g. a slot of a
+     * {@link MappedHLLStore}. Registers are not reset; updates go straight to
+     * {@code buffer}, which is not freed by {@link #close()}.
+     * 
+     * @param numRegisterIndexBits
+     * @param numHashBits
+     * @param buffer
+     * @return
+     */
+    static OffHeapHLL view(int numRegisterIndexBits, int numHashBits, ByteBuffer buffer) {
+        OffHeapHLL hll = new OffHeapHLL(numRegisterIndexBits, numHashBits);
+        ByteBuffer region = buffer.duplicate();
+        region.limit(region.position() + registerBytes(numRegisterIndexBits));
+        hll.registers = region.slice();
+        hll.ownsRegisters = false;
+        hll.computeStats();
+        return hll;
+    }
+
+    /**
+     * Computes the running sum and number of zero registers from the
+     * registers.
+     */
+    private void computeStats() {
+        final double[] inversePow2 = HLLConstants.inversePow2Data;
+        double sum = 0;
+        int zeroes = 0;
+        // 4 registers (3 bytes) at a time
+        for (int i = 0, n = registers.capacity(); i < n; i += 3) {
+            final int word = ((registers.get(i) & 0xFF) << 16)
+                    | ((registers.get(i + 1) & 0xFF) << 8) | (registers.get(i + 2) & 0xFF);
+            for (int shift = 18; shift >= 0; shift -= 6) {
+                final int value = (word >>> shift) & MAX_VALUE;
+                if (value == 0) {
+                    zeroes++;
+                }
+                sum += inversePow2[value];
+            }
+        }
+        sumInversePow2 = sum;
+        numZeroes = zeroes;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The clone has its registers in a new direct buffer.
+     * </p>
+     */
+    @Override
+    public OffHeapHLL clone() {
+        try {
+            OffHeapHLL clone = (OffHeapHLL) super.clone();
+            clone.sharedBuffer = null;
+            if (registers != null) {
+                clone.registers = ByteBuffer.allocateDirect(registers.capacity());
+                clone.registers.put(registers.duplicate()).clear();
+                clone.ownsRegisters = true;
+            }
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets the "numRegisterIndexBits" value (number of LSB hashcode bits to be
+     * used as register index). The larger the numRegisterIndexBits the better
+     * the accuracy but also the higher storage required.
+     * 
+     * @return
+     */
+    public int getNumRegisterIndexBits() {
+        return numRegisterIndexBits;
+    }
+
+    /**
+     * Set the "numRegisterIndexBits" value (number of LSB hashcode bits to be
+     * used as register index). The larger the numRegisterIndexBits the better
+     * the accuracy but also the higher storage required.
+     * 
+     * @param numRegisterIndexBits
+     * @return
+     */
+    public OffHeapHLL setNumRegisterIndexBits(int numRegisterIndexBits) {
+        this.numRegisterIndexBits = numRegisterIndexBits;
+        return this;
+    }
+
+    /**
+     * Gets the number of bits for hashcode (32 or 128).
+     * 
+     * @return
+     */
+    public int getNumHashBits() {
+        return numHashBits;
+    }
+
+    /**
+     * Sets the number of bits for hashcode. Values up to 32 select 32-bit
+     * hashcodes, larger values 128-bit hashcodes.
+     * 
+     * @param numHashBits
+     * @return
+     */
+    public OffHeapHLL setNumHashBits(int numHashBits) {
+        this.numHashBits = numHashBits;
+        return this;
+    }
+
+    /**
+     * Frees the off-heap registers (unless they are in a caller-supplied
+     * buffer). The object can be initialized again afterwards.
+     */
+    @Override
+    public void close() {
+        ByteBuffer registers = this.registers;
+        this.registers = null;
+        if (registers != null && ownsRegisters) {
+            BufferUtils.free(registers);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] toBytes() {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        return HyperLogLogUtils.serializePackedDenseHLL(numRegisterIndexBits, numHashBits,
+                count(), registers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int serializedSize() {
+        return HyperLogLogUtils.getPackedDenseSerializedSize(numRegisterIndexBits, count());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL writeTo(ByteBuffer buffer) {
+        HyperLogLogUtils.serializePackedDenseHLL(buffer, numRegisterIndexBits, numHashBits,
+                count(), registers);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL init() {
+        if (numRegisterIndexBits < HLLConstants.MIN_P_VALUE
+                || numRegisterIndexBits > HLLConstants.MAX_P_VALUE) {
+            throw new IllegalArgumentException("numRegisterIndexBits should be between "
+                    + HLLConstants.MIN_P_VALUE + " to " + HLLConstants.MAX_P_VALUE);
+        }
+        if (numHashBits <= 0) {
+            throw new IllegalArgumentException("numHashBits must be positive");
+        }
+        numHashBits = numHashBits <= 32 ? 32 : 128;
+        close();
+        int size = registerBytes(numRegisterIndexBits);
+        if (sharedBuffer != null) {
+            ByteBuffer region = sharedBuffer.duplicate();
+            region.limit(region.position() + size);
+            registers = region.slice();
+            for (int i = 0; i < size; i++) {
+                registers.put(i, (byte) 0);
+            }
+            ownsRegisters = false;
+        } else {
+            registers = ByteBuffer.allocateDirect(size);
+            ownsRegisters = true;
+        }
+        sumInversePow2 = 1 << numRegisterIndexBits;
+        numZeroes = 1 << numRegisterIndexBits;
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Accepts data serialized by {@link PjHLL} (DENSE or SPARSE encoding).
+     * </p>
+     */
+    @Override
+    public IHLL init(byte[] data) {
+        return readFrom(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Accepts data serialized by {@link PjHLL} (DENSE or SPARSE encoding),
+     * with the default hash seed.
+     * </p>
+     */
+    @Override
+    public IHLL readFrom(ByteBuffer buffer) {
+        HyperLogLog hll = HyperLogLogUtils.deserializeHLL(buffer,
+                HLLDenseRegister.Layout.PACKED);
+        if (hll.getHashSeed() != Murmur3.DEFAULT_SEED) {
+            throw new IllegalArgumentException("Unsupported hash seed [" + hll.getHashSeed()
+                    + "]!");
+        }
+        buffer.position(buffer.limit());
+        this.numHashBits = hll.getNumHashBits();
+        this.numRegisterIndexBits = hll.getNumRegisterIndexBits();
+        if (hll.getEncoding() != HyperLogLog.EncodingType.DENSE
+                || !hll.getHLLDenseRegister().isPacked()) {
+            HyperLogLog dense = HyperLogLog.builder().enableBitPacking(true).enableNoBias(true)
+                    .setDenseLayout(HLLDenseRegister.Layout.PACKED)
+                    .setEncoding(HyperLogLog.EncodingType.DENSE).setNumHashBits(numHashBits)
+                    .setNumRegisterIndexBits(numRegisterIndexBits).build();
+            dense.merge(hll);
+            hll = dense;
+        }
+        init();
+        HLLDenseRegister register = hll.getHLLDenseRegister();
+        registers.duplicate().put(register.getPackedRegister());
+        sumInversePow2 = register.getSumInversePow2();
+        numZeroes = register.getNumZeroes();
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        return HyperLogLog.estimateDenseCount(numRegisterIndexBits, numHashBits, true,
+                sumInversePow2, numZeroes);
+    }
+
+    /**
+     * Sets register {@code idx} of the packed registers in
+     * {@code buffer[offset, offset + size)} to {@code value} if the current
+     * value is smaller.
+     * 
+     * @param buffer
+     * @param offset
+     * @param size
+     * @param idx
+     * @param value
+     *            capped at {@link HLLDenseRegister#PACKED_MAX_VALUE}
+     * @return the value of the register before the update
+     */
+    static int setMax(ByteBuffer buffer, int offset, int size, int idx, int value) {
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        // a 6 bit value spans at most 2 bytes, read them as a big endian 16
+        // bit word
+        final int bit = idx * HLLConstants.PACKED_BIT_WIDTH;
+        final int i = offset + (bit >>> 3);
+        final boolean hasNext = i + 1 < offset + size;
+        final int shift = 10 - (bit & 7);
+        int word = (buffer.get(i) & 0xFF) << 8;
+        if (hasNext) {
+            word |= buffer.get(i + 1) & 0xFF;
+        }
+        final int current = (word >>> shift) & MAX_VALUE;
+        if (current < value) {
+            final int update = (word & ~(MAX_VALUE << shift)) | (value << shift);
+            buffer.put(i, (byte) (update >>> 8));
+            if (hasNext) {
+                buffer.put(i + 1, (byte) update);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Computes the register index of a hashcode.
+     * 
+     * @param hashcode
+     * @param numRegisterIndexBits
+     * @return
+     */
+    static int registerIndex(long hashcode, int numRegisterIndexBits) {
+        return (int) (hashcode & ((1 << numRegisterIndexBits) - 1));
+    }
+
+    /**
+     * Computes the register value of a hashcode.
+     * 
+     * @param hashcode
+     * @param numRegisterIndexBits
+     * @return
+     */
+    static int registerValue(long hashcode, int numRegisterIndexBits) {
+        return Long.numberOfTrailingZeros(hashcode >>> numRegisterIndexBits) + 1;
+    }
+
+    /**
+     * Sets register {@code idx} to {@code value} if the current value is
+     * smaller.
+     * 
+     * @param idx
+     * @param value
+     */
+    private void setMax(int idx, int value) {
+        final int current = setMax(registers, 0, registers.capacity(), idx, value);
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        if (current < value) {
+            if (current == 0) {
+                numZeroes--;
+            }
+            sumInversePow2 += HLLConstants.inversePow2Data[value]
+                    - HLLConstants.inversePow2Data[current];
+        }
+    }
+
+    /**
+     * Adds a hashcode computed by the hash function of this HLL (32-bit
+     * hashcodes are sign extended).
+     * 
+     * @param hashcode
+     */
+    private void addHashcode(long hashcode) {
+        setMax(registerIndex(hashcode, numRegisterIndexBits),
+                registerValue(hashcode, numRegisterIndexBits));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL add(Object obj) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(PjHashes.hash(obj, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addLong(long value) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(PjHashes.hashLittleEndian(value, 8, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addInt(int value) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(PjHashes.hashLittleEndian(value, 4, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addBytes(byte[] data, int offset, int length) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        addHashcode(PjHashes.hashBytes(data, offset, length, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addChars(CharSequence value) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(value != null ? PjHashes.hashChars(value, numHashBits) : 0);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addHash(long hash) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        addHashcode(PjHashes.hashOf(hash, numHashBits));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(long[] values, int offset, int length) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            addHashcode(PjHashes.hashLittleEndian(values[i], 8, numHashBits));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(byte[][] values, int offset, int length) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            byte[] value = values[i];
+            addHashcode(
+                    value != null ? PjHashes.hashBytes(value, 0, value.length, numHashBits) : 0);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAllHashes(long[] hashes, int offset, int length) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            addHashcode(PjHashes.hashOf(hashes[i], numHashBits));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(Iterable<?> items) {
+        if (registers == null) {
+            throw new IllegalStateException();
+        }
+        for (Object item : items) {
+            addHashcode(PjHashes.hash(item, numHashBits));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL merge(IHLL hll) {
+        if (this.registers == null) {
+            throw new IllegalStateException();
+        }
+        if (!(hll instanceof OffHeapHLL)) {
+            throw new IllegalArgumentException(
+                    "Argument is not of type [" + OffHeapHLL.class + "]!");
+        }
+        OffHeapHLL other = (OffHeapHLL) hll;
+        if (other.registers == null) {
+            throw new IllegalArgumentException("The supplied object has not been initialized!");
+        }
+        if (numRegisterIndexBits != other.numRegisterIndexBits
+                || numHashBits != other.numHashBits) {
+            throw new IllegalArgumentException(
+                    "HLLs cannot be merged as either numRegisterIndexBits or numHashBits are different!");
+        }
+
+        // 4 registers (3 bytes) at a time
+        final double[] inversePow2 = HLLConstants.inversePow2Data;
+        final ByteBuffer in = other.registers;
+        for (int i = 0, n = registers.capacity(); i < n; i += 3) {
+            final int a = ((registers.get(i) & 0xFF) << 16) | ((registers.get(i + 1) & 0xFF) << 8)
+                    | (registers.get(i + 2) & 0xFF);
+            final int b = ((in.get(i) & 0xFF) << 16) | ((in.get(i + 1) & 0xFF) << 8)
+                    | (in.get(i + 2) & 0xFF);
+            if (a == b) {
+                continue;
+            }
+            int merged = a;
+            for (int shift = 18; shift >= 0; shift -= 6) {
+                final int va = (a >>> shift) & MAX_VALUE;
+                final int vb = (b >>> shift) & MAX_VALUE;
+                if (vb > va) {
+                    if (va == 0) {
+                        numZeroes--;
+                    }
+                    sumInversePow2 += inversePow2[vb] - inversePow2[va];
+                    merged = (merged & ~(MAX_VALUE << shift)) | (vb << shift);
+                }
+            }
+            if (merged != a) {
+                registers.put(i, (byte) (merged >>> 16));
+                registers.put(i + 1, (byte) (merged >>> 8));
+                registers.put(i + 2, (byte) merged);
+            }
+        }
+        return this;
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.github.ddth.hll.impl;
+
+import com.github.ddth.hll.IHLLFactory;
+
+/**
+ * Factory to create {@link OffHeapHLL} objects.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class OffHeapHLLFactory implements IHLLFactory {
+
+    private int numRegisterIndexBits, numHashBits;
+
+    public OffHeapHLLFactory() {
+    }
+
+    /**
+     * @param numRegisterIndexBits
+     *            {@code 0} to use {@link OffHeapHLL}'s default value
+     * @param numHashBits
+     *            {@code 0} to use {@link OffHeapHLL}'s default value
+     */
+    public OffHeapHLLFactory(int numRegisterIndexBits, int numHashBits) {
+        this.numRegisterIndexBits = numRegisterIndexBits;
+        this.numHashBits = numHashBits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OffHeapHLL createHLL() {
+        return (OffHeapHLL) new OffHeapHLL(numRegisterIndexBits, numHashBits).init();
+    }
+
+}
@@ -1,11 +1,10 @@
 package com.github.ddth.hll.impl;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.prasanthj.HLLDenseRegister;
 import com.github.ddth.hll.prasanthj.HyperLogLog;
 import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
 
@@ -20,6 +19,7 @@ import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
 public class PjHLL implements IHLL {
 
     private int numRegisterIndexBits = 15, numHashBits = 128;
+    private HLLDenseRegister.Layout denseLayout = HLLDenseRegister.Layout.BYTES;
     private HyperLogLog hll;
 
     public PjHLL() {
@@ -96,21 +96,87 @@ public class PjHLL implements IHLL {
         return this;
     }
 
+    /**
+     * Are registers kept packed (6 bits each) in memory?
+     * 
+     * @return
+     * @since 0.1.3
+     */
+    public boolean isPackedRegister() {
+        return denseLayout == HLLDenseRegister.Layout.PACKED;
+    }
+
+    /**
+     * Keeps registers packed (6 bits each) in memory: 3/4 of the heap of one
+     * byte per register, and {@link #toBytes()} copies the packed registers as
+     * is. Takes effect on the next {@link #init()} or {@link #init(byte[])}.
+     * 
+     * @param packedRegister
+     * @return
+     * @since 0.1.3
+     */
+    public PjHLL setPackedRegister(boolean packedRegister) {
+        this.denseLayout = packedRegister ? HLLDenseRegister.Layout.PACKED
+                : HLLDenseRegister.Layout.BYTES;
+        return this;
+    }
+
+    /**
+     * Gets the in-memory layout of registers.
+     * 
+     * @return
+     * @since 0.1.3
+     */
+    public HLLDenseRegister.Layout getDenseLayout() {
+        return denseLayout;
+    }
+
+    /**
+     * Sets the in-memory layout of registers, e.g.
+     * {@link HLLDenseRegister.Layout#HLL_4} for about half the heap of one byte
+     * per register. The serialized form does not depend on the layout. Takes
+     * effect on the next {@link #init()} or {@link #init(byte[])}.
+     * 
+     * @param denseLayout
+     * @return
+     * @since 0.1.3
+     */
+    public PjHLL setDenseLayout(HLLDenseRegister.Layout denseLayout) {
+        this.denseLayout = denseLayout;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public byte[] toBytes() {
+        byte[] result = new byte[serializedSize()];
+        writeTo(ByteBuffer.wrap(result));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int serializedSize() {
         if (hll == null) {
             throw new IllegalStateException();
         }
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            HyperLogLogUtils.serializeHLL(baos, hll);
-            baos.flush();
-            return baos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        return HyperLogLogUtils.getSerializedSize(hll);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL writeTo(ByteBuffer buffer) {
+        if (hll == null) {
+            throw new IllegalStateException();
         }
+        HyperLogLogUtils.serializeHLL(buffer, hll);
+        return this;
     }
 
     /**
@@ -119,7 +185,7 @@ public class PjHLL implements IHLL {
     @Override
     public IHLL init() {
         HyperLogLog.HyperLogLogBuilder builder = new HyperLogLog.HyperLogLogBuilder()
-                .enableBitPacking(true).enableNoBias(true)
+                .enableBitPacking(true).setDenseLayout(denseLayout).enableNoBias(true)
                 .setEncoding(HyperLogLog.EncodingType.DENSE).setNumHashBits(numHashBits)
                 .setNumRegisterIndexBits(numRegisterIndexBits);
         hll = builder.build();
@@ -131,11 +197,16 @@ public class PjHLL implements IHLL {
      */
     @Override
     public IHLL init(byte[] data) {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(data)) {
-            hll = HyperLogLogUtils.deserializeHLL(bais);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return readFrom(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL readFrom(ByteBuffer buffer) {
+        hll = HyperLogLogUtils.deserializeHLL(buffer, denseLayout);
+        buffer.position(buffer.limit());
         this.numHashBits = hll.getNumHashBits();
         this.numRegisterIndexBits = hll.getNumRegisterIndexBits();
         return this;
@@ -162,6 +233,11 @@ public class PjHLL implements IHLL {
         if (hll == null) {
             throw new IllegalStateException();
         }
+        add(hll, obj);
+        return this;
+    }
+
+    private static void add(HyperLogLog hll, Object obj) {
         if (obj == null) {
             hll.add(0);
         } else if (obj instanceof Boolean) {
@@ -185,7 +261,127 @@ public class PjHLL implements IHLL {
         } else if (obj instanceof String) {
             hll.addString((String) obj, UTF8);
         } else {
-            add(obj.toString());
+            add(hll, obj.toString());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addLong(long value) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.addLong(value);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addInt(int value) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.addInt(value);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addBytes(byte[] data, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.addBytes(data, offset, length);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addChars(CharSequence value) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        if (value == null) {
+            hll.add(0);
+        } else {
+            hll.addString(value, UTF8);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addHash(long hash) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.addHash(hash);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(long[] values, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.addLongs(values, offset, length);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(byte[][] values, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        for (int i = offset, n = offset + length; i < n; i++) {
+            byte[] value = values[i];
+            if (value == null) {
+                hll.add(0);
+            } else {
+                hll.addBytes(value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAllHashes(long[] hashes, int offset, int length) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        hll.addHashes(hashes, offset, length);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(Iterable<?> items) {
+        if (hll == null) {
+            throw new IllegalStateException();
+        }
+        for (Object item : items) {
+            add(hll, item);
         }
         return this;
     }
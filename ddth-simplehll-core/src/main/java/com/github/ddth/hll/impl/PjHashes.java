@@ -0,0 +1,75 @@
+package com.github.ddth.hll.impl;
+
+import com.github.ddth.hll.prasanthj.Murmur3;
+
+/**
+ * Hashes items exactly like {@link PjHLL} does, for
+ * {@link com.github.ddth.hll.IHLL}s that keep their own {@link PjHLL}
+ * compatible registers. 32-bit hashcodes are sign extended.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+final class PjHashes {
+
+    private PjHashes() {
+    }
+
+    static long hashLittleEndian(long value, int numBytes, int numHashBits) {
+        return numHashBits < 64 ? Murmur3.hashLittleEndian32(value, numBytes, Murmur3.DEFAULT_SEED)
+                : Murmur3.hashLittleEndian64(value, numBytes, Murmur3.DEFAULT_SEED);
+    }
+
+    static long hashBytes(byte[] data, int offset, int length, int numHashBits) {
+        return numHashBits < 64 ? Murmur3.hash32(data, offset, length, Murmur3.DEFAULT_SEED)
+                : Murmur3.hash64(data, offset, length, Murmur3.DEFAULT_SEED);
+    }
+
+    static long hashChars(CharSequence value, int numHashBits) {
+        return numHashBits < 64 ? Murmur3.hash32(value, Murmur3.DEFAULT_SEED)
+                : Murmur3.hash64(value, Murmur3.DEFAULT_SEED);
+    }
+
+    /**
+     * Truncates a pre-computed hash to the hash width, as
+     * {@link PjHLL#addHash(long)} does.
+     */
+    static long hashOf(long hash, int numHashBits) {
+        return numHashBits < 64 ? (int) hash : hash;
+    }
+
+    /**
+     * Hashes an item the same way {@link PjHLL#add(Object)} does.
+     * 
+     * @param obj
+     * @param numHashBits
+     * @return
+     */
+    static long hash(Object obj, int numHashBits) {
+        if (obj == null) {
+            return 0;
+        } else if (obj instanceof Boolean) {
+            return hashLittleEndian(((Boolean) obj).booleanValue() ? 1 : 0, 1, numHashBits);
+        } else if (obj instanceof Byte) {
+            return hashLittleEndian((Byte) obj, 1, numHashBits);
+        } else if (obj instanceof Short) {
+            return hashLittleEndian((Short) obj, 2, numHashBits);
+        } else if (obj instanceof Integer) {
+            return hashLittleEndian((Integer) obj, 4, numHashBits);
+        } else if (obj instanceof Long) {
+            return hashLittleEndian((Long) obj, 8, numHashBits);
+        } else if (obj instanceof Double || obj instanceof Float) {
+            double value = ((Number) obj).doubleValue();
+            return hashLittleEndian(Double.doubleToRawLongBits(value), 8, numHashBits);
+        } else if (obj instanceof Character) {
+            return hashLittleEndian((Character) obj, 2, numHashBits);
+        } else if (obj instanceof byte[]) {
+            byte[] data = (byte[]) obj;
+            return hashBytes(data, 0, data.length, numHashBits);
+        } else if (obj instanceof String) {
+            return hashChars((String) obj, numHashBits);
+        } else {
+            return hashChars(obj.toString(), numHashBits);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.github.ddth.hll.impl;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.IHLLFactory;
+import com.github.ddth.hll.utils.HLLUtils;
+
+/**
+ * {@link IHLL} for many writer threads that are not read mid-stream: each
+ * writer thread adds items to its own shard (an {@link IHLL} created by an
+ * {@link IHLLFactory}), without any synchronization.
+ * 
+ * <p>
+ * {@link #count()}, {@link #toBytes()} and {@link #snapshot()} merge the
+ * shards on demand into a cached view; only shards written since the last
+ * read are merged again.
+ * </p>
+ * 
+ * <p>
+ * Reads must not run concurrently with writes: call them after the writers
+ * are done (e.g. after {@link Thread#join()} or
+ * {@link java.util.concurrent.ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)}).
+ * Use {@link ConcurrentHLL} for counters that are read while being written.
+ * {@link HLLUtils#toBytes(IHLL)} serializes the merged view, so the
+ * deserialized object is of the shards' type.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class ShardedHLL implements IHLL {
+
+    private static class Shard {
+        private final IHLL hll;
+        // written by the owner thread only, read and cleared by readers
+        private boolean dirty;
+
+        private Shard(IHLL hll) {
+            this.hll = hll;
+        }
+    }
+
+    private IHLLFactory factory;
+    private List<Shard> shards;
+    private ThreadLocal<Shard> localShard;
+    private IHLL mergedView;
+
+    public ShardedHLL(IHLLFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The clone has a single shard, a copy of the merged view.
+     * </p>
+     */
+    @Override
+    public ShardedHLL clone() {
+        try {
+            ShardedHLL clone = (ShardedHLL) super.clone();
+            if (shards != null) {
+                clone.reset(snapshot());
+            }
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets the factory that creates the shards.
+     * 
+     * @return
+     */
+    public IHLLFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Gets the number of shards (one per writer thread, plus one for data
+     * loaded by {@link #init(byte[])}).
+     * 
+     * @return
+     */
+    public int getNumShards() {
+        if (shards == null) {
+            throw new IllegalStateException();
+        }
+        return shards.size();
+    }
+
+    private void reset(IHLL baseShard) {
+        final List<Shard> shards = new CopyOnWriteArrayList<Shard>();
+        if (baseShard != null) {
+            Shard shard = new Shard(baseShard);
+            shard.dirty = true;
+            shards.add(shard);
+        }
+        this.shards = shards;
+        this.localShard = new ThreadLocal<Shard>() {
+            @Override
+            protected Shard initialValue() {
+                Shard shard = new Shard(factory.createHLL());
+                shards.add(shard);
+                return shard;
+            }
+        };
+        this.mergedView = null;
+    }
+
+    /**
+     * Gets the calling thread's shard, marked as written.
+     * 
+     * @return
+     */
+    private IHLL writeShard() {
+        if (shards == null) {
+            throw new IllegalStateException();
+        }
+        Shard shard = localShard.get();
+        // written only when it changes, so that adds do not keep storing to
+        // the shard's cache line between merges
+        if (!shard.dirty) {
+            shard.dirty = true;
+        }
+        return shard.hll;
+    }
+
+    /**
+     * Merges the shards written since the last call into the cached view.
+     * 
+     * @return
+     */
+    private synchronized IHLL mergedView() {
+        if (shards == null) {
+            throw new IllegalStateException();
+        }
+        if (mergedView == null) {
+            mergedView = factory.createHLL();
+        }
+        for (Shard shard : shards) {
+            if (shard.dirty) {
+                shard.dirty = false;
+                mergedView.merge(shard.hll);
+            }
+        }
+        return mergedView;
+    }
+
+    /**
+     * Gets a copy of the merged view of all shards.
+     * 
+     * @return
+     */
+    public IHLL snapshot() {
+        return mergedView().clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] toBytes() {
+        return mergedView().toBytes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int serializedSize() {
+        return mergedView().serializedSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL writeTo(ByteBuffer buffer) {
+        mergedView().writeTo(buffer);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Drops all existing shards.
+     * </p>
+     */
+    @Override
+    public IHLL init() {
+        reset(null);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Drops all existing shards. {@code data} must have been serialized by an
+     * {@link IHLL} of the factory's type (e.g. by {@link #toBytes()}).
+     * </p>
+     */
+    @Override
+    public IHLL init(byte[] data) {
+        reset(factory.createHLL().init(data));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Drops all existing shards. The data must have been serialized by an
+     * {@link IHLL} of the factory's type.
+     * </p>
+     */
+    @Override
+    public IHLL readFrom(ByteBuffer buffer) {
+        reset(factory.createHLL().readFrom(buffer));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        return mergedView().count();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL add(Object obj) {
+        writeShard().add(obj);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addLong(long value) {
+        writeShard().addLong(value);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addInt(int value) {
+        writeShard().addInt(value);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addBytes(byte[] data, int offset, int length) {
+        writeShard().addBytes(data, offset, length);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addChars(CharSequence value) {
+        writeShard().addChars(value);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addHash(long hash) {
+        writeShard().addHash(hash);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(long[] values, int offset, int length) {
+        writeShard().addAll(values, offset, length);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(byte[][] values, int offset, int length) {
+        writeShard().addAll(values, offset, length);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAllHashes(long[] hashes, int offset, int length) {
+        writeShard().addAllHashes(hashes, offset, length);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IHLL addAll(Iterable<?> items) {
+        writeShard().addAll(items);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Merges into the calling thread's shard, i.e. this is a write. A
+     * {@link ShardedHLL} argument is merged via its merged view.
+     * </p>
+     */
+    @Override
+    public IHLL merge(IHLL hll) {
+        if (hll instanceof ShardedHLL) {
+            hll = ((ShardedHLL) hll).mergedView();
+        }
+        writeShard().merge(hll);
+        return this;
+    }
+
+}
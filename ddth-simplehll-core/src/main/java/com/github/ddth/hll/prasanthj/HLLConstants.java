@@ -31,6 +31,19 @@ public class HLLConstants {
 	public static final int P_PRIME_VALUE = 25;
 	public static final int Q_PRIME_VALUE = 6;
 
+	// bits per register of in-memory packed dense registers
+	public static final int PACKED_BIT_WIDTH = 6;
+
+	// 2^-v for every register value v, indexed by (v & 0xff). Registers are
+	// signed bytes, so entries 128..255 hold 2^-(v - 256)
+	public static final double[] inversePow2Data = new double[256];
+
+	static {
+		for (int i = 0; i < inversePow2Data.length; i++) {
+			inversePow2Data[i] = Math.pow(2, -(byte) i);
+		}
+	}
+
 	// data for HLL++ bias correction
 	public static final int K_NEAREST_NEIGHBOR = 6;
 
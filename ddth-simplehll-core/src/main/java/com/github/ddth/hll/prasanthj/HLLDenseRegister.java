@@ -18,13 +18,59 @@
 
 package com.github.ddth.hll.prasanthj;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 public class HLLDenseRegister implements HLLRegister {
 
-	// 2^p number of bytes for register
+	/**
+	 * In-memory layout of registers.
+	 */
+	public static enum Layout {
+		/** One byte per register. */
+		BYTES,
+		/** 6 bits per register, laid out as the bitpacked serialized form. */
+		PACKED,
+		/**
+		 * 4 bit offsets from a base value shared by all registers (the minimum
+		 * register value), with an exception table for the rare values that do
+		 * not fit, as HLL_4 of DataSketches.
+		 */
+		HLL_4
+	}
+
+	// high bit of every byte in a long
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	// max register value that fits in a packed register
+	public static final int PACKED_MAX_VALUE = (1 << HLLConstants.PACKED_BIT_WIDTH) - 1;
+
+	// 4 bit offset marking a register whose value is in the exception table
+	private static final int HLL4_EXCEPTION = 15;
+
+	// 2^p number of bytes for register, null if not in BYTES layout
 	private byte[] register;
 
+	// registers packed 6 bits each, in the same bit order as the bitpacked
+	// serialized form, null if not in PACKED layout
+	private byte[] packedRegister;
+
+	// HLL_4 layout: 4 bit offsets from hll4Base, 2 registers per byte (low
+	// nibble first), null if not in HLL_4 layout
+	private byte[] hll4Register;
+	private int hll4Base;
+
+	// number of registers whose value is hll4Base; the base moves up when it
+	// drops to 0
+	private int hll4NumAtBase;
+
+	// exception table of HLL_4 layout, open addressing with linear probing:
+	// register index + 1 (0 = empty slot) and register value
+	private int[] exceptionKeys;
+	private byte[] exceptionValues;
+	private int numExceptions;
+
 	// max value stored in registered is cached to determine the bit width for
 	// bit packing
 	private int maxRegisterValue;
@@ -32,8 +78,9 @@ public class HLLDenseRegister implements HLLRegister {
 	// keep count of number of zeroes in registers
 	private int numZeroes;
 
-	// compute and cache inverse power of 2 for register values
-	private double[] invPow2Register;
+	// running sum of inverse power of 2 of register values, updated whenever a
+	// register changes so that the harmonic mean does not need a full scan
+	private double sumInversePow2;
 
 	// number of register bits
 	private int p;
@@ -41,18 +88,55 @@ public class HLLDenseRegister implements HLLRegister {
 	// m = 2^p
 	private int m;
 
+	// bit packing enabled or not
+	private boolean bitPack;
+
 	public HLLDenseRegister(int p) {
 		this(p, true);
 	}
 
 	public HLLDenseRegister(int p, boolean bitPack) {
+		this(p, bitPack, false);
+	}
+
+	/**
+	 * @param p
+	 *          - number of register bits
+	 * @param bitPack
+	 *          - bit packing enabled or not (on serialization)
+	 * @param packed
+	 *          - keep registers packed 6 bits each in memory. Register values
+	 *          are capped at {@link #PACKED_MAX_VALUE}, which is more than
+	 *          enough for 64 bit hashes.
+	 */
+	public HLLDenseRegister(int p, boolean bitPack, boolean packed) {
+		this(p, bitPack, packed ? Layout.PACKED : Layout.BYTES);
+	}
+
+	/**
+	 * @param p
+	 *          - number of register bits
+	 * @param bitPack
+	 *          - bit packing enabled or not (on serialization)
+	 * @param layout
+	 *          - in-memory layout of registers
+	 */
+	public HLLDenseRegister(int p, boolean bitPack, Layout layout) {
 		this.p = p;
 		this.m = 1 << p;
-		this.register = new byte[m];
-		this.invPow2Register = new double[m];
-		Arrays.fill(invPow2Register, 1.0);
+		if (layout == Layout.PACKED) {
+			this.packedRegister = new byte[m * HLLConstants.PACKED_BIT_WIDTH / 8];
+		} else if (layout == Layout.HLL_4) {
+			this.hll4Register = new byte[m / 2];
+			this.hll4Base = 0;
+			this.hll4NumAtBase = m;
+		} else {
+			this.register = new byte[m];
+		}
+		this.sumInversePow2 = m;
 		this.maxRegisterValue = 0;
 		this.numZeroes = m;
+		this.bitPack = bitPack;
 		if (bitPack == false) {
 			this.maxRegisterValue = 0xff;
 		}
@@ -73,30 +157,185 @@ public class HLLDenseRegister implements HLLRegister {
 
 	public boolean set(int idx, byte value) {
 		boolean updated = false;
-		if (idx < register.length && value > register[idx]) {
+		if (packedRegister != null && value > PACKED_MAX_VALUE) {
+			value = PACKED_MAX_VALUE;
+		}
+		if (idx < m && value > get(idx)) {
 
 			// update max register value
 			if (value > maxRegisterValue) {
 				maxRegisterValue = value;
 			}
 
-			// update number of zeros
-			if (register[idx] == 0 && value > 0) {
-				numZeroes--;
-			}
-
-			// set register value and compute inverse pow of 2 for register
+			// update number of zeros, sum of inverse pow of 2 and set register
 			// value
-			register[idx] = value;
-			invPow2Register[idx] = Math.pow(2, -value);
+			update(idx, value);
 
 			updated = true;
 		}
 		return updated;
 	}
 
+	/**
+	 * Gets the value of a register.
+	 */
+	public byte get(int idx) {
+		if (register != null) {
+			return register[idx];
+		}
+		if (hll4Register != null) {
+			final int offset = (hll4Register[idx >>> 1] >>> ((idx & 1) << 2)) & 0xf;
+			return offset == HLL4_EXCEPTION ? getException(idx) : (byte) (hll4Base + offset);
+		}
+		final int bit = idx * HLLConstants.PACKED_BIT_WIDTH;
+		return (byte) ((readPacked(bit >>> 3) >>> (10 - (bit & 7))) & PACKED_MAX_VALUE);
+	}
+
+	private void put(int idx, byte value) {
+		if (register != null) {
+			register[idx] = value;
+			return;
+		}
+		if (hll4Register != null) {
+			putHll4(idx, value);
+			return;
+		}
+		final int bit = idx * HLLConstants.PACKED_BIT_WIDTH;
+		final int i = bit >>> 3;
+		final int shift = 10 - (bit & 7);
+		final int word = (readPacked(i) & ~(PACKED_MAX_VALUE << shift)) | ((value & PACKED_MAX_VALUE) << shift);
+		packedRegister[i] = (byte) (word >>> 8);
+		if (i + 1 < packedRegister.length) {
+			packedRegister[i + 1] = (byte) word;
+		}
+	}
+
+	// a 6 bit value spans at most 2 bytes, read them as a big endian 16 bit word
+	private int readPacked(int i) {
+		int word = (packedRegister[i] & 0xff) << 8;
+		if (i + 1 < packedRegister.length) {
+			word |= packedRegister[i + 1] & 0xff;
+		}
+		return word;
+	}
+
+	/**
+	 * Sets a register of HLL_4 layout. Register values only grow, except when
+	 * loaded by {@link #loadHll4(byte[])}.
+	 */
+	private void putHll4(int idx, byte value) {
+		final byte current = get(idx);
+		final int offset = value - hll4Base;
+		if (offset < 0) {
+			// below the base, rebuild with a lower base
+			byte[] values = getRegister();
+			values[idx] = value;
+			loadHll4(values);
+			return;
+		}
+		if (offset >= HLL4_EXCEPTION) {
+			putException(idx, value);
+			writeNibble(idx, HLL4_EXCEPTION);
+		} else {
+			writeNibble(idx, offset);
+		}
+		if (current == hll4Base && value != hll4Base && --hll4NumAtBase == 0) {
+			// no register is at the base anymore, move the base up
+			loadHll4(getRegister());
+		}
+	}
+
+	private void writeNibble(int idx, int offset) {
+		final int shift = (idx & 1) << 2;
+		final int i = idx >>> 1;
+		hll4Register[i] = (byte) ((hll4Register[i] & ~(0xf << shift)) | (offset << shift));
+	}
+
+	/**
+	 * Rebuilds HLL_4 layout from register values, with the minimum value as
+	 * the base.
+	 */
+	private void loadHll4(byte[] values) {
+		int min = Integer.MAX_VALUE;
+		for (byte value : values) {
+			if (value < min) {
+				min = value;
+			}
+		}
+		hll4Base = min;
+		hll4NumAtBase = 0;
+		exceptionKeys = null;
+		exceptionValues = null;
+		numExceptions = 0;
+		Arrays.fill(hll4Register, (byte) 0);
+		for (int i = 0; i < values.length; i++) {
+			final int offset = values[i] - min;
+			if (offset == 0) {
+				hll4NumAtBase++;
+			} else if (offset >= HLL4_EXCEPTION) {
+				putException(i, values[i]);
+				writeNibble(i, HLL4_EXCEPTION);
+			} else {
+				writeNibble(i, offset);
+			}
+		}
+	}
+
+	private static int exceptionSlot(int idx, int mask) {
+		final int h = idx * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private byte getException(int idx) {
+		final int mask = exceptionKeys.length - 1;
+		int slot = exceptionSlot(idx, mask);
+		while (exceptionKeys[slot] != idx + 1) {
+			slot = (slot + 1) & mask;
+		}
+		return exceptionValues[slot];
+	}
+
+	private void putException(int idx, byte value) {
+		if (exceptionKeys == null) {
+			exceptionKeys = new int[8];
+			exceptionValues = new byte[8];
+		}
+		final int mask = exceptionKeys.length - 1;
+		int slot = exceptionSlot(idx, mask);
+		while (exceptionKeys[slot] != 0 && exceptionKeys[slot] != idx + 1) {
+			slot = (slot + 1) & mask;
+		}
+		if (exceptionKeys[slot] == 0) {
+			exceptionKeys[slot] = idx + 1;
+			numExceptions++;
+		}
+		exceptionValues[slot] = value;
+
+		// keep the load factor below 3/4
+		if (numExceptions * 4 > exceptionKeys.length * 3) {
+			int[] keys = exceptionKeys;
+			byte[] values = exceptionValues;
+			exceptionKeys = new int[keys.length * 2];
+			exceptionValues = new byte[keys.length * 2];
+			numExceptions = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != 0) {
+					putException(keys[i] - 1, values[i]);
+				}
+			}
+		}
+	}
+
 	public int size() {
-		return register.length;
+		return m;
+	}
+
+	public boolean isPacked() {
+		return packedRegister != null;
+	}
+
+	public Layout getLayout() {
+		return register != null ? Layout.BYTES : packedRegister != null ? Layout.PACKED : Layout.HLL_4;
 	}
 
 	public int getNumZeroes() {
@@ -106,22 +345,26 @@ public class HLLDenseRegister implements HLLRegister {
 	public void merge(HLLRegister hllRegister) {
 		if (hllRegister instanceof HLLDenseRegister) {
 			HLLDenseRegister hdr = (HLLDenseRegister) hllRegister;
-			byte[] inRegister = hdr.getRegister();
 
 			// merge only if the register length matches
-			if (register.length != inRegister.length) {
+			if (m != hdr.m) {
 				throw new IllegalArgumentException(
 						"The size of register sets of HyperLogLogs to be merged does not match.");
 			}
 
-			// compare register values and store the max register value
-			for (int i = 0; i < inRegister.length; i++) {
-				if (inRegister[i] > register[i]) {
-					if (register[i] == 0) {
-						numZeroes--;
+			if (register != null && hdr.register != null) {
+				mergeRegister(hdr.register);
+			} else if (packedRegister != null && hdr.packedRegister != null) {
+				mergePackedRegister(hdr.packedRegister);
+			} else {
+				for (int i = 0; i < m; i++) {
+					byte value = hdr.get(i);
+					if (packedRegister != null && value > PACKED_MAX_VALUE) {
+						value = PACKED_MAX_VALUE;
+					}
+					if (value > get(i)) {
+						update(i, value);
 					}
-					register[i] = inRegister[i];
-					invPow2Register[i] = Math.pow(2, -inRegister[i]);
 				}
 			}
 
@@ -134,12 +377,201 @@ public class HLLDenseRegister implements HLLRegister {
 		}
 	}
 
+	/**
+	 * Stores the max of register values and the specified values, 8 registers
+	 * (one long) at a time: for words whose bytes are all below 128 (always
+	 * true for register values) the per-byte max is computed with SWAR
+	 * arithmetic, other words fall back to byte comparisons. Only the changed
+	 * registers are written, and the sum of inverse powers of 2 and number of
+	 * zeroes are updated in the same pass.
+	 */
+	private void mergeRegister(byte[] inRegister) {
+		final ByteBuffer thisWords = ByteBuffer.wrap(register).order(ByteOrder.LITTLE_ENDIAN);
+		final ByteBuffer inWords = ByteBuffer.wrap(inRegister).order(ByteOrder.LITTLE_ENDIAN);
+		final int numWords = register.length >>> 3;
+		final double[] inversePow2 = HLLConstants.inversePow2Data;
+		double sum = 0;
+		int zeroesSet = 0;
+		for (int w = 0; w < numWords; w++) {
+			final int offset = w << 3;
+			final long a = thisWords.getLong(offset);
+			final long b = inWords.getLong(offset);
+			if (a == b) {
+				continue;
+			}
+			if (((a | b) & HIGH_BITS) != 0) {
+				mergeRegister(inRegister, offset, offset + 8);
+				continue;
+			}
+
+			// high bit of a byte in ge is set iff the byte of a >= the byte of b:
+			// (a | 0x80) - b never borrows across bytes as all bytes are < 0x80
+			final long ge = ((a | HIGH_BITS) - b) & HIGH_BITS;
+			// 0xff in the bytes where b > a
+			long gt = ~((ge >>> 7) * 0xff);
+			while (gt != 0) {
+				final int shift = Long.numberOfTrailingZeros(gt) & ~7;
+				final int i = offset + (shift >>> 3);
+				if (register[i] == 0) {
+					zeroesSet++;
+				}
+				sum += inversePow2[inRegister[i]] - inversePow2[register[i]];
+				register[i] = inRegister[i];
+				gt &= ~(0xffL << shift);
+			}
+		}
+		sumInversePow2 += sum;
+		numZeroes -= zeroesSet;
+
+		// remaining registers, if the register length is not a multiple of 8
+		mergeRegister(inRegister, numWords << 3, register.length);
+	}
+
+	/**
+	 * Stores the max of packed register values and the specified packed values,
+	 * 4 registers (3 bytes) at a time.
+	 */
+	private void mergePackedRegister(byte[] inPacked) {
+		final double[] inversePow2 = HLLConstants.inversePow2Data;
+		double sum = 0;
+		int zeroesSet = 0;
+		for (int i = 0; i < packedRegister.length; i += 3) {
+			final int a = ((packedRegister[i] & 0xff) << 16) | ((packedRegister[i + 1] & 0xff) << 8)
+					| (packedRegister[i + 2] & 0xff);
+			final int b = ((inPacked[i] & 0xff) << 16) | ((inPacked[i + 1] & 0xff) << 8)
+					| (inPacked[i + 2] & 0xff);
+			if (a == b) {
+				continue;
+			}
+			int merged = a;
+			for (int shift = 18; shift >= 0; shift -= 6) {
+				final int va = (a >>> shift) & PACKED_MAX_VALUE;
+				final int vb = (b >>> shift) & PACKED_MAX_VALUE;
+				if (vb > va) {
+					if (va == 0) {
+						zeroesSet++;
+					}
+					sum += inversePow2[vb] - inversePow2[va];
+					merged = (merged & ~(PACKED_MAX_VALUE << shift)) | (vb << shift);
+				}
+			}
+			if (merged != a) {
+				packedRegister[i] = (byte) (merged >>> 16);
+				packedRegister[i + 1] = (byte) (merged >>> 8);
+				packedRegister[i + 2] = (byte) merged;
+			}
+		}
+		sumInversePow2 += sum;
+		numZeroes -= zeroesSet;
+	}
+
+	private void mergeRegister(byte[] inRegister, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (inRegister[i] > register[i]) {
+				update(i, inRegister[i]);
+			}
+		}
+	}
+
+	/**
+	 * Sets a register to a larger value, updating the number of zeroes and sum
+	 * of inverse powers of 2.
+	 */
+	private void update(int idx, byte value) {
+		final byte current = get(idx);
+		if (current == 0) {
+			numZeroes--;
+		} else if (value == 0) {
+			// a negative (out of range) value raised to 0
+			numZeroes++;
+		}
+		sumInversePow2 += HLLConstants.inversePow2Data[value & 0xff]
+				- HLLConstants.inversePow2Data[current & 0xff];
+		put(idx, value);
+	}
+
+	/**
+	 * Gets the register values, one byte per register. If registers are not
+	 * in {@link Layout#BYTES} layout, this is an unpacked copy.
+	 */
 	public byte[] getRegister() {
-		return register;
+		if (register != null) {
+			return register;
+		}
+		byte[] result = new byte[m];
+		for (int i = 0; i < m; i++) {
+			result[i] = get(i);
+		}
+		return result;
 	}
 
+	/**
+	 * Sets the register values, one byte per register. If registers are not
+	 * in {@link Layout#BYTES} layout, the values are copied (and, if packed,
+	 * capped at {@link #PACKED_MAX_VALUE}).
+	 */
 	public void setRegister(byte[] register) {
-		this.register = register;
+		if (this.register != null) {
+			this.register = register;
+		} else {
+			if (register.length != m) {
+				throw new IllegalArgumentException("Register size " + register.length + " does not match " + m);
+			}
+			if (hll4Register != null) {
+				loadHll4(register);
+			} else {
+				for (int i = 0; i < m; i++) {
+					put(i, (byte) Math.min(register[i], PACKED_MAX_VALUE));
+				}
+			}
+		}
+		computeStats();
+	}
+
+	/**
+	 * Gets the packed register values, laid out as the 6 bit bitpacked
+	 * serialized form. {@code null} if registers are not packed.
+	 */
+	public byte[] getPackedRegister() {
+		return packedRegister;
+	}
+
+	/**
+	 * Sets the packed register values, laid out as the 6 bit bitpacked
+	 * serialized form.
+	 * @throws IllegalStateException
+	 *           if registers are not packed
+	 */
+	public void setPackedRegister(byte[] packedRegister) {
+		if (this.packedRegister == null) {
+			throw new IllegalStateException("Registers are not packed");
+		}
+		if (packedRegister.length != this.packedRegister.length) {
+			throw new IllegalArgumentException("Packed register size " + packedRegister.length
+					+ " does not match " + this.packedRegister.length);
+		}
+		this.packedRegister = packedRegister;
+		computeStats();
+	}
+
+	// recompute cached statistics of the register values
+	private void computeStats() {
+		int zeroes = 0;
+		int max = bitPack ? 0 : 0xff;
+		double sum = 0;
+		for (int i = 0; i < m; i++) {
+			byte value = get(i);
+			if (value == 0) {
+				zeroes++;
+			}
+			if (value > max) {
+				max = value;
+			}
+			sum += HLLConstants.inversePow2Data[value & 0xff];
+		}
+		this.numZeroes = zeroes;
+		this.maxRegisterValue = max;
+		this.sumInversePow2 = sum;
 	}
 
 	public int getMaxRegisterValue() {
@@ -147,11 +579,7 @@ public class HLLDenseRegister implements HLLRegister {
 	}
 
 	public double getSumInversePow2() {
-		double sum = 0;
-		for (double d : invPow2Register) {
-			sum += d;
-		}
-		return sum;
+		return sumInversePow2;
 	}
 
 	@Override
@@ -168,7 +596,7 @@ public class HLLDenseRegister implements HLLRegister {
 	}
 
 	public String toExtendedString() {
-		return toString() + " register: " + Arrays.toString(register);
+		return toString() + " register: " + Arrays.toString(getRegister());
 	}
 
 	@Override
@@ -177,8 +605,21 @@ public class HLLDenseRegister implements HLLRegister {
 			return false;
 		}
 		HLLDenseRegister other = (HLLDenseRegister) obj;
-		return numZeroes == other.numZeroes && maxRegisterValue == other.maxRegisterValue
-				&& Arrays.equals(register, other.register);
+		if (numZeroes != other.numZeroes || maxRegisterValue != other.maxRegisterValue || m != other.m) {
+			return false;
+		}
+		if (register != null && other.register != null) {
+			return Arrays.equals(register, other.register);
+		}
+		if (packedRegister != null && other.packedRegister != null) {
+			return Arrays.equals(packedRegister, other.packedRegister);
+		}
+		for (int i = 0; i < m; i++) {
+			if (get(i) != other.get(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
@@ -186,7 +627,16 @@ public class HLLDenseRegister implements HLLRegister {
 		int hashcode = 0;
 		hashcode += 31 * numZeroes;
 		hashcode += 31 * maxRegisterValue;
-		hashcode += Arrays.hashCode(register);
+		if (register != null) {
+			hashcode += Arrays.hashCode(register);
+		} else {
+			// same as Arrays.hashCode of the byte per register layout
+			int h = 1;
+			for (int i = 0; i < m; i++) {
+				h = 31 * h + get(i);
+			}
+			hashcode += h;
+		}
 		return hashcode;
 	}
 
@@ -18,21 +18,27 @@
 
 package com.github.ddth.hll.prasanthj;
 
-import java.util.Map;
-
-import it.unimi.dsi.fastutil.ints.Int2ByteAVLTreeMap;
-import it.unimi.dsi.fastutil.ints.Int2ByteSortedMap;
+import java.util.Arrays;
 
 public class HLLSparseRegister implements HLLRegister {
 
-  // maintains sorted list of register indices and its corresponding values.
-  // Its easier to use primitive sorted map as opposed to int[] used in this
-  // paper
+  private static final int[] EMPTY_ENTRIES = new int[0];
+
+  // initial size of temp list, grown up to TEMP_LIST_DEFAULT_SIZE so that
+  // small registers stay small
+  private static final int TEMP_LIST_INITIAL_SIZE = 16;
+
+  // maintains sorted list of register indices and their corresponding values,
+  // as the int[] used in this paper
   // http://static.googleusercontent.com/media/research.google.com/en//pubs/archive/40671.pdf
-  private Int2ByteSortedMap sparseMap;
+  // Each entry is encoded as (index << qPrime) | value, which is also the
+  // integer that gets delta encoded on serialization. Only the first
+  // sparseSize entries are in use.
+  private int[] sparseEntries;
+  private int sparseSize;
 
   // for a better insertion performance values are added to temporary unsorted
-  // list which will be merged to sparse map after a threshold
+  // list which will be sorted and merged to sparse entries after a threshold
   private int[] tempList;
   private int tempListIdx;
 
@@ -51,9 +57,13 @@ public class HLLSparseRegister implements HLLRegister {
   private final int qPrimeMask;
 
   public HLLSparseRegister(int p, int pp, int qp) {
+    if (pp + qp > 31) {
+      throw new IllegalArgumentException("pPrime + qPrime must not exceed 31 bits.");
+    }
     this.p = p;
-    this.sparseMap = new Int2ByteAVLTreeMap();
-    this.tempList = new int[HLLConstants.TEMP_LIST_DEFAULT_SIZE];
+    this.sparseEntries = EMPTY_ENTRIES;
+    this.sparseSize = 0;
+    this.tempList = new int[Math.min(TEMP_LIST_INITIAL_SIZE, HLLConstants.TEMP_LIST_DEFAULT_SIZE)];
     this.tempListIdx = 0;
     this.pPrime = pp;
     this.qPrime = qp;
@@ -63,49 +73,140 @@ public class HLLSparseRegister implements HLLRegister {
   }
 
   public boolean add(long hashcode) {
-    boolean updated = false;
-
-    // fill the temp list before merging to sparse map
-    if (tempListIdx < tempList.length) {
-      int encodedHash = encodeHash(hashcode);
-      tempList[tempListIdx++] = encodedHash;
-      updated = true;
-    } else {
-      updated = mergeTempListToSparseMap();
+    // fill the temp list before merging to sparse entries
+    if (tempListIdx == tempList.length) {
+      if (tempList.length < HLLConstants.TEMP_LIST_DEFAULT_SIZE) {
+        tempList = Arrays.copyOf(tempList,
+            Math.min(tempList.length << 1, HLLConstants.TEMP_LIST_DEFAULT_SIZE));
+      } else {
+        mergeTempListToSparseMap();
+      }
     }
-
-    return updated;
+    tempList[tempListIdx++] = encodeHash(hashcode);
+    return true;
   }
 
   /**
-   * Adds temp list to sparse map. The key for sparse map entry is the register
-   * index determined by pPrime and value is the number of trailing zeroes.
+   * Adds temp list to sparse entries. The register index of an entry is
+   * determined by pPrime and value is the number of trailing zeroes. The temp
+   * list is decoded and sorted in place, then merged to sparse entries in a
+   * single pass.
    * @return
    */
   private boolean mergeTempListToSparseMap() {
-    boolean updated = false;
-    for (int i = 0; i < tempListIdx; i++) {
+    final int n = tempListIdx;
+
+    // reset temp list index
+    tempListIdx = 0;
+    if (n == 0) {
+      return false;
+    }
+
+    for (int i = 0; i < n; i++) {
       int encodedHash = tempList[i];
       int key = encodedHash & pPrimeMask;
-      byte value = (byte) (encodedHash >>> pPrime);
-      byte nr = 0;
+      int nr;
       // if MSB is set to 1 then next qPrime MSB bits contains the value of
       // number of zeroes.
       // if MSB is set to 0 then number of zeroes is contained within pPrime - p
       // bits.
       if (encodedHash < 0) {
-        nr = (byte) (value & qPrimeMask);
+        nr = (encodedHash >>> pPrime) & qPrimeMask;
       } else {
-        nr = (byte) (Integer.numberOfTrailingZeros(encodedHash >>> p) + 1);
+        nr = Integer.numberOfTrailingZeros(encodedHash >>> p) + 1;
       }
-      updated = set(key, nr);
+      tempList[i] = (key << qPrime) | nr;
     }
+    Arrays.sort(tempList, 0, n);
+
+    // entries are sorted by index then value, so the last entry of an index
+    // holds its largest value
+    int unique = 0;
+    for (int i = 0; i < n; i++) {
+      int entry = tempList[i];
+      if (unique > 0 && (tempList[unique - 1] >>> qPrime) == (entry >>> qPrime)) {
+        tempList[unique - 1] = entry;
+      } else {
+        tempList[unique++] = entry;
+      }
+    }
+    return mergeSortedEntries(tempList, unique);
+  }
 
-    // reset temp list index
-    tempListIdx = 0;
+  /**
+   * Merges sorted entries (unique register indices) to sparse entries,
+   * retaining only the largest value for a register index. The merge runs
+   * backward in place, so no temporary array is needed unless sparse entries
+   * must grow.
+   * @param entries
+   *          - sorted entries, must not be sparseEntries itself
+   * @param n
+   *          - number of entries to merge
+   * @return true if any register was updated
+   */
+  private boolean mergeSortedEntries(int[] entries, int n) {
+    ensureCapacity(sparseSize + n);
+    final int[] result = sparseEntries;
+    boolean updated = false;
+    int i = sparseSize - 1, j = n - 1, k = sparseSize + n - 1;
+    while (j >= 0) {
+      int keyOut = entries[j] >>> qPrime;
+      int keyIn = i >= 0 ? result[i] >>> qPrime : -1;
+      if (keyIn > keyOut) {
+        result[k--] = result[i--];
+      } else if (keyIn == keyOut) {
+        if (entries[j] > result[i]) {
+          result[k--] = entries[j];
+          updated = true;
+        } else {
+          result[k--] = result[i];
+        }
+        i--;
+        j--;
+      } else {
+        result[k--] = entries[j--];
+        updated = true;
+      }
+    }
+
+    // entries with indices present in both leave a gap between the untouched
+    // head [0, i] and the merged tail (k, sparseSize + n)
+    int tail = sparseSize + n - 1 - k;
+    if (k > i) {
+      System.arraycopy(result, k + 1, result, i + 1, tail);
+    }
+    sparseSize = i + 1 + tail;
     return updated;
   }
 
+  private void ensureCapacity(int capacity) {
+    if (capacity > sparseEntries.length) {
+      int newCapacity = Math.max(capacity, sparseEntries.length + (sparseEntries.length >> 1));
+      sparseEntries = Arrays.copyOf(sparseEntries, newCapacity);
+    }
+  }
+
+  /**
+   * Binary searches sparse entries for a register index.
+   * @param key
+   * @return position of the entry if found, otherwise (-(insertion point) - 1)
+   */
+  private int indexOf(int key) {
+    int low = 0, high = sparseSize - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midKey = sparseEntries[mid] >>> qPrime;
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
   /**
    * <pre>
    * <b>Input:</b> 64 bit hashcode
@@ -155,54 +256,71 @@ public class HLLSparseRegister implements HLLRegister {
 
   public int getSize() {
 
-    // merge temp list before getting the size of sparse map
+    // merge temp list before getting the size of sparse entries
     if (tempListIdx != 0) {
       mergeTempListToSparseMap();
     }
-    return sparseMap.size();
+    return sparseSize;
+  }
+
+  /**
+   * Upper bound of {@link #getSize()} that does not merge the temp list.
+   * @return
+   */
+  public int getSizeUpperBound() {
+    return sparseSize + tempListIdx;
   }
 
   public void merge(HLLRegister hllRegister) {
     if (hllRegister instanceof HLLSparseRegister) {
       HLLSparseRegister hsr = (HLLSparseRegister) hllRegister;
+      if (hsr == this) {
+        return;
+      }
+      if (hsr.qPrime != qPrime) {
+        throw new IllegalArgumentException("The qPrime of sparse registers to be merged does not match.");
+      }
 
       // retain only the largest value for a register index
-      for (Map.Entry<Integer, Byte> entry : hsr.getSparseMap().entrySet()) {
-        int key = entry.getKey();
-        byte value = entry.getValue();
-        set(key, value);
-      }
+      int size = hsr.getSize();
+      mergeSortedEntries(hsr.sparseEntries, size);
     } else {
       throw new IllegalArgumentException("Specified register not instance of HLLSparseRegister");
     }
   }
 
   public boolean set(int key, byte value) {
-    boolean updated = false;
+    final int entry = (key << qPrime) | (value & qPrimeMask);
+    int idx = indexOf(key);
 
     // retain only the largest value for a register index
-    if (sparseMap.containsKey(key)) {
-      byte containedVal = sparseMap.get(key);
-      if (value > containedVal) {
-        sparseMap.put(key, value);
-        updated = true;
+    if (idx >= 0) {
+      if (entry > sparseEntries[idx]) {
+        sparseEntries[idx] = entry;
+        return true;
       }
-    } else {
-      sparseMap.put(key, value);
-      updated = true;
+      return false;
     }
-    return updated;
+    idx = -(idx + 1);
+    ensureCapacity(sparseSize + 1);
+    System.arraycopy(sparseEntries, idx, sparseEntries, idx + 1, sparseSize - idx);
+    sparseEntries[idx] = entry;
+    sparseSize++;
+    return true;
   }
 
-  public Int2ByteSortedMap getSparseMap() {
-    return sparseMap;
-  }
-
-  public Int2ByteSortedMap getMergedSparseMap() {
+  /**
+   * Gets the sparse entries, sorted by register index, after merging the temp
+   * list. Each entry is encoded as (index << qPrime) | value. The returned
+   * array is the internal one: only the first {@link #getSize()} entries are
+   * valid and it must not be modified.
+   * @return
+   */
+  public int[] getSparseEntries() {
     if (tempListIdx != 0) {
       mergeTempListToSparseMap();
     }
-    return sparseMap;
+    return sparseEntries;
   }
 
   public int getP() {
@@ -213,6 +331,10 @@ public class HLLSparseRegister implements HLLRegister {
     return pPrime;
   }
 
+  public int getQPrime() {
+    return qPrime;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -227,7 +349,19 @@ public class HLLSparseRegister implements HLLRegister {
   }
 
   public String toExtendedString() {
-    return toString() + " register: " + sparseMap.toString();
+    StringBuilder sb = new StringBuilder();
+    sb.append(toString());
+    sb.append(" register: {");
+    for (int i = 0; i < sparseSize; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(sparseEntries[i] >>> qPrime);
+      sb.append("=>");
+      sb.append(sparseEntries[i] & qPrimeMask);
+    }
+    sb.append("}");
+    return sb.toString();
   }
 
   @Override
@@ -237,15 +371,18 @@ public class HLLSparseRegister implements HLLRegister {
     }
     HLLSparseRegister other = (HLLSparseRegister) obj;
     boolean result = p == other.p && pPrime == other.pPrime && qPrime == other.qPrime
-        && tempListIdx == other.tempListIdx;
+        && tempListIdx == other.tempListIdx && sparseSize == other.sparseSize;
     if (result) {
       for (int i = 0; i < tempListIdx; i++) {
         if (tempList[i] != other.tempList[i]) {
           return false;
         }
       }
-
-      result = result && sparseMap.equals(other.sparseMap);
+      for (int i = 0; i < sparseSize; i++) {
+        if (sparseEntries[i] != other.sparseEntries[i]) {
+          return false;
+        }
+      }
     }
     return result;
   }
@@ -257,9 +394,11 @@ public class HLLSparseRegister implements HLLRegister {
     hashcode += 31 * pPrime;
     hashcode += 31 * qPrime;
     for (int i = 0; i < tempListIdx; i++) {
-      hashcode += 31 * tempList[tempListIdx];
+      hashcode += 31 * tempList[i];
+    }
+    for (int i = 0; i < sparseSize; i++) {
+      hashcode = 31 * hashcode + sparseEntries[i];
     }
-    hashcode += sparseMap.hashCode();
     return hashcode;
   }
 
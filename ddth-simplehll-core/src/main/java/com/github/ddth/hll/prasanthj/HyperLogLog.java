@@ -18,13 +18,11 @@
 
 package com.github.ddth.hll.prasanthj;
 
-import it.unimi.dsi.fastutil.doubles.Double2IntAVLTreeMap;
-import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
-
+import java.lang.reflect.Field;
 import java.nio.charset.Charset;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Comparator;
 
-import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 
@@ -51,6 +49,11 @@ import com.google.common.hash.Hashing;
  * <b>noBias</b> - Use Google's bias table lookup for short range bias correction.
  *          Enabling this will highly improve the estimation accuracy for short
  *          range values. <i>Default: true</i>
+ * <b>hashSeed</b> - seed of the MurmurHash3 function used to hash items. <i>Default: 0</i>
+ * <b>guavaCompatibleHash</b> - hash items exactly like Guava's Hashing.goodFastHash
+ *          (used up to v0.1.2). Guava picks the seed of goodFastHash randomly once per JVM,
+ *          so such hashcodes can only be merged with hashcodes computed in the same JVM.
+ *          Overrides <b>hashSeed</b>. <i>Default: false</i>
  * 
  * </pre>
  */
@@ -66,9 +69,6 @@ public class HyperLogLog {
   // number of registers - 2^p
   private final int m;
 
-  // refer paper
-  private float alphaMM;
-
   // number of bits of hash function suggested by Guava library
   private final int chosenHashBits;
 
@@ -77,14 +77,14 @@ public class HyperLogLog {
 
   // enable/disable bitpacking
   private final boolean bitPacking;
+  private final HLLDenseRegister.Layout denseLayout;
 
   private HLLDenseRegister denseRegister;
   private HLLSparseRegister sparseRegister;
 
-  // Good fast hash function suggested by Guava hashing for the specified bits
-  // Default is MurmurHash3_128
-  private final HashFunction hf;
-  private HashCode hc;
+  // seed of the MurmurHash3 function (x86_32 if chosenHashBits is 32,
+  // x64_128 otherwise) used to hash items
+  private final int hashSeed;
 
   // counts are cached to avoid repeated complex computation. If register value
   // is updated the count will be computed again.
@@ -106,30 +106,20 @@ public class HyperLogLog {
     this.m = 1 << p;
     this.noBias = hllBuilder.noBias;
     this.bitPacking = hllBuilder.bitPacking;
+    // packed registers are in the bitpacked serialized layout
+    this.denseLayout = hllBuilder.denseLayout == HLLDenseRegister.Layout.PACKED && !bitPacking
+        ? HLLDenseRegister.Layout.BYTES : hllBuilder.denseLayout;
 
-    // the threshold should be less than 12K bytes for p = 14.
-    // The reason to divide by 5 is, in sparse mode after serialization the
-    // entriesin sparse map are compressed, and delta encoded as varints. The
-    // worst case size of varints are 5 bytes. Hence, 12K/5 ~= 2400 entries in
-    // sparse map.
-    if (bitPacking) {
-      this.encodingSwitchThreshold = ((m * 6) / 8) / 5;
-    } else {
-      // if bitpacking is disabled, all register values takes 8 bits and hence
-      // we can be more flexible with the threshold. For p=14, 16K/5 = 3200
-      // entries in sparse map can be allowed.
-      this.encodingSwitchThreshold = m / 3;
-    }
+    this.encodingSwitchThreshold = encodingSwitchThreshold(m, bitPacking);
 
     // we won't need hash functions beyond 128 bits.. in fact 64 bits itself is
     // more than sufficient
-    if (hllBuilder.numHashBits > 128) {
-      this.hf = Hashing.goodFastHash(128);
-    } else {
-      this.hf = Hashing.goodFastHash(hllBuilder.numHashBits);
+    if (hllBuilder.numHashBits <= 0) {
+      throw new IllegalArgumentException("Number of hash bits must be positive");
     }
-    this.chosenHashBits = hf.bits();
-    initializeAlpha();
+    this.chosenHashBits = hllBuilder.numHashBits <= 32 ? 32 : 128;
+    this.hashSeed = hllBuilder.guavaCompatibleHash ? goodFastHashSeed(chosenHashBits)
+        : hllBuilder.hashSeed;
     this.cachedCount = -1;
     this.invalidateCount = false;
     this.encoding = hllBuilder.encoding;
@@ -139,7 +129,7 @@ public class HyperLogLog {
       this.denseRegister = null;
     } else {
       this.sparseRegister = null;
-      this.denseRegister = new HLLDenseRegister(p, bitPacking);
+      this.denseRegister = new HLLDenseRegister(p, bitPacking, denseLayout);
     }
   }
 
@@ -152,7 +142,10 @@ public class HyperLogLog {
     private int numHashBits = 64;
     private EncodingType encoding = EncodingType.SPARSE;
     private boolean bitPacking = true;
+    private HLLDenseRegister.Layout denseLayout = HLLDenseRegister.Layout.BYTES;
     private boolean noBias = true;
+    private int hashSeed = Murmur3.DEFAULT_SEED;
+    private boolean guavaCompatibleHash = false;
 
     public HyperLogLogBuilder() {
     }
@@ -177,18 +170,70 @@ public class HyperLogLog {
       return this;
     }
 
+    /**
+     * Keeps dense registers packed 6 bits each in memory (3/4 of the heap of
+     * one byte per register), laid out as the bitpacked serialized form so
+     * that serialization copies them as is. Requires bit packing.
+     * @param b
+     * @return
+     */
+    public HyperLogLogBuilder enablePackedRegister(boolean b) {
+      this.denseLayout = b ? HLLDenseRegister.Layout.PACKED : HLLDenseRegister.Layout.BYTES;
+      return this;
+    }
+
+    /**
+     * Sets the in-memory layout of dense registers. {@link HLLDenseRegister.Layout#HLL_4}
+     * takes about half the heap of one byte per register.
+     * @param layout
+     * @return
+     */
+    public HyperLogLogBuilder setDenseLayout(HLLDenseRegister.Layout layout) {
+      this.denseLayout = layout;
+      return this;
+    }
+
     public HyperLogLogBuilder enableNoBias(boolean nb) {
       this.noBias = nb;
       return this;
     }
 
+    public HyperLogLogBuilder setHashSeed(int seed) {
+      this.hashSeed = seed;
+      return this;
+    }
+
+    public HyperLogLogBuilder enableGuavaCompatibleHash(boolean b) {
+      this.guavaCompatibleHash = b;
+      return this;
+    }
+
     public HyperLogLog build() {
       return new HyperLogLog(this);
     }
   }
 
+  /**
+   * Reads the seed Guava picked for {@code Hashing.goodFastHash(bits)} in this
+   * JVM.
+   * @param bits
+   *          - 32 or 128
+   * @return seed of the murmur3 function returned by goodFastHash
+   */
+  private static int goodFastHashSeed(int bits) {
+    HashFunction hf = Hashing.goodFastHash(bits);
+    try {
+      Field field = hf.getClass().getDeclaredField("seed");
+      field.setAccessible(true);
+      return field.getInt(hf);
+    } catch (Exception e) {
+      throw new IllegalStateException("Cannot read seed of " + hf, e);
+    }
+  }
+
   // see paper for alpha initialization.
-  private void initializeAlpha() {
+  private static float computeAlphaMM(int chosenHashBits, int m) {
+    float alphaMM;
     if (chosenHashBits <= 16) {
       alphaMM = 0.673f;
     } else if (chosenHashBits <= 32) {
@@ -200,57 +245,51 @@ public class HyperLogLog {
     }
 
     // For efficiency alpha is multiplied by m^2
-    alphaMM = alphaMM * m * m;
+    return alphaMM * m * m;
   }
 
   public void addBoolean(boolean val) {
-    hc = hf.newHasher().putBoolean(val).hash();
-    add(getHashCode());
+    add(hashLittleEndian(val ? 1 : 0, 1));
   }
 
   public void addByte(byte val) {
-    hc = hf.newHasher().putByte(val).hash();
-    add(getHashCode());
+    add(hashLittleEndian(val, 1));
   }
 
   public void addBytes(byte[] val) {
-    hc = hf.newHasher().putBytes(val).hash();
-    add(getHashCode());
+    addBytes(val, 0, val.length);
   }
 
   public void addBytes(byte[] val, int offset, int len) {
-    hc = hf.newHasher().putBytes(val, offset, len).hash();
-    add(getHashCode());
+    if (offset < 0 || len < 0 || offset + len > val.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    add(chosenHashBits < 64 ? Murmur3.hash32(val, offset, len, hashSeed)
+        : Murmur3.hash64(val, offset, len, hashSeed));
   }
 
   public void addShort(short val) {
-    hc = hf.newHasher().putShort(val).hash();
-    add(getHashCode());
+    add(hashLittleEndian(val, 2));
   }
 
   public void addInt(int val) {
-    hc = hf.newHasher().putInt(val).hash();
-    add(getHashCode());
+    add(hashLittleEndian(val, 4));
   }
 
   public void addLong(long val) {
-    hc = hf.newHasher().putLong(val).hash();
-    add(getHashCode());
+    add(hashLittleEndian(val, 8));
   }
 
   public void addFloat(float val) {
-    hc = hf.newHasher().putFloat(val).hash();
-    add(getHashCode());
+    add(hashLittleEndian(Float.floatToRawIntBits(val), 4));
   }
 
   public void addDouble(double val) {
-    hc = hf.newHasher().putDouble(val).hash();
-    add(getHashCode());
+    add(hashLittleEndian(Double.doubleToRawLongBits(val), 8));
   }
 
   public void addChar(char val) {
-    hc = hf.newHasher().putChar(val).hash();
-    add(getHashCode());
+    add(hashLittleEndian(val, 2));
   }
 
   /**
@@ -259,23 +298,115 @@ public class HyperLogLog {
    *          - input string
    */
   public void addString(String val) {
-    hc = hf.newHasher().putString(val, Charset.defaultCharset()).hash();
-    add(getHashCode());
+    addString(val, Charset.defaultCharset());
   }
 
   public void addString(String val, Charset charset) {
-    hc = hf.newHasher().putString(val, charset).hash();
-    add(getHashCode());
+    addString((CharSequence) val, charset);
   }
 
-  private long getHashCode() {
-    long hashcode = 0;
-    if (chosenHashBits < 64) {
-      hashcode = hc.asInt();
+  /**
+   * Same as {@link #addString(String, Charset)}, without converting the
+   * character sequence to a string first.
+   * @param val
+   *          - input character sequence
+   * @param charset
+   *          - charset to encode the characters
+   */
+  public void addString(CharSequence val, Charset charset) {
+    if (UTF8.equals(charset)) {
+      add(chosenHashBits < 64 ? Murmur3.hash32(val, hashSeed) : Murmur3.hash64(val, hashSeed));
     } else {
-      hashcode = hc.asLong();
+      byte[] data = val.toString().getBytes(charset);
+      addBytes(data, 0, data.length);
+    }
+  }
+
+  private final static Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Hashes the low {@code numBytes} bytes (little-endian) of a primitive
+   * value, same as Guava's {@code Hasher.putXXX(val).hash()}.
+   */
+  private long hashLittleEndian(long val, int numBytes) {
+    // 32 bit hashcodes are sign extended
+    return chosenHashBits < 64 ? Murmur3.hashLittleEndian32(val, numBytes, hashSeed)
+        : Murmur3.hashLittleEndian64(val, numBytes, hashSeed);
+  }
+
+  /**
+   * Adds a pre-computed 64 bit hashcode. Same as {@link #add(long)}, except
+   * that only the low 32 bits are used when this hyperloglog uses 32 bit
+   * hashcodes (like the hashcodes computed by the add* methods).
+   * @param hashcode
+   *          - 64 bit hashcode
+   */
+  public void addHash(long hashcode) {
+    add(chosenHashBits < 64 ? (int) hashcode : hashcode);
+  }
+
+  /**
+   * Batch version of {@link #addLong(long)}.
+   * @param vals
+   *          - input values
+   * @param offset
+   *          - index of the first value to add
+   * @param len
+   *          - number of values to add
+   */
+  public void addLongs(long[] vals, int offset, int len) {
+    final int end = offset + len;
+    int i = offset;
+
+    // SPARSE encoding may switch to DENSE in between, add one by one
+    for (; i < end && encoding == EncodingType.SPARSE; i++) {
+      addLong(vals[i]);
+    }
+    if (i < end) {
+      final HLLDenseRegister register = denseRegister;
+      boolean updated = false;
+      for (; i < end; i++) {
+        updated |= register.add(hashLittleEndian(vals[i], 8));
+      }
+      if (updated) {
+        invalidateCount = true;
+      }
+    }
+  }
+
+  /**
+   * Batch version of {@link #addHash(long)}.
+   * @param hashcodes
+   *          - pre-computed 64 bit hashcodes
+   * @param offset
+   *          - index of the first hashcode to add
+   * @param len
+   *          - number of hashcodes to add
+   */
+  public void addHashes(long[] hashcodes, int offset, int len) {
+    final int end = offset + len;
+    int i = offset;
+
+    // SPARSE encoding may switch to DENSE in between, add one by one
+    for (; i < end && encoding == EncodingType.SPARSE; i++) {
+      addHash(hashcodes[i]);
+    }
+    if (i < end) {
+      final HLLDenseRegister register = denseRegister;
+      boolean updated = false;
+      if (chosenHashBits < 64) {
+        for (; i < end; i++) {
+          updated |= register.add((int) hashcodes[i]);
+        }
+      } else {
+        for (; i < end; i++) {
+          updated |= register.add(hashcodes[i]);
+        }
+      }
+      if (updated) {
+        invalidateCount = true;
+      }
     }
-    return hashcode;
   }
 
   public void add(long hashcode) {
@@ -285,8 +416,10 @@ public class HyperLogLog {
       }
 
       // if size of sparse map excess the threshold convert the sparse map to
-      // dense register and switch to DENSE encoding
-      if (sparseRegister.getSize() > encodingSwitchThreshold) {
+      // dense register and switch to DENSE encoding. The temp list is merged
+      // (to get the exact size) only when it may exceed the threshold.
+      if (sparseRegister.getSizeUpperBound() > encodingSwitchThreshold
+          && sparseRegister.getSize() > encodingSwitchThreshold) {
         encoding = EncodingType.DENSE;
         denseRegister = sparseToDenseRegister(sparseRegister);
         sparseRegister = null;
@@ -308,55 +441,10 @@ public class HyperLogLog {
 
         // if encoding is still SPARSE use linear counting with increase
         // accuracy (as we use pPrime bits for register index)
-        int mPrime = 1 << sparseRegister.getPPrime();
-        cachedCount = linearCount(mPrime, mPrime - sparseRegister.getSize());
+        cachedCount = estimateSparseCount(sparseRegister.getSize());
       } else {
-
-        // for DENSE encoding, use bias table lookup for HLLNoBias algorithm
-        // else fallback to HLLOriginal algorithm
-        double sum = denseRegister.getSumInversePow2();
-        long numZeros = denseRegister.getNumZeroes();
-
-        // cardinality estimate from normalized bias corrected harmonic mean on
-        // the registers
-        cachedCount = (long) (alphaMM * (1.0 / sum));
-        long pow = (long) Math.pow(2, chosenHashBits);
-
-        // when bias correction is enabled
-        if (noBias) {
-          cachedCount = cachedCount <= 5 * m ? (cachedCount - estimateBias(cachedCount))
-              : cachedCount;
-          long h = cachedCount;
-          if (numZeros != 0) {
-            h = linearCount(m, numZeros);
-          }
-
-          if (h < getThreshold()) {
-            cachedCount = h;
-          }
-        } else {
-          // HLL algorithm shows stronger bias for values in (2.5 * m) range.
-          // To compensate for this short range bias, linear counting is used
-          // for values before this short range. The original paper also says
-          // similar bias is seen for long range values due to hash collisions
-          // in range >1/30*(2^32). For the default case, we do not have to
-          // worry about this long range bias as the paper used 32-bit hashing
-          // and we use 64-bit hashing as default. 2^64 values are too high to
-          // observe long range bias (hash collisions).
-          if (cachedCount <= 2.5 * m) {
-
-            // for short range use linear counting
-            if (numZeros != 0) {
-              cachedCount = linearCount(m, numZeros);
-            }
-          } else if (chosenHashBits < 64 && cachedCount > (0.033333 * pow)) {
-
-            // long range bias for 32-bit hashcodes
-            if (cachedCount > (1 / 30) * pow) {
-              cachedCount = (long) (-pow * Math.log(1.0 - (double) cachedCount / (double) pow));
-            }
-          }
-        }
+        cachedCount = estimateDenseCount(p, chosenHashBits, noBias,
+            denseRegister.getSumInversePow2(), denseRegister.getNumZeroes());
       }
       invalidateCount = false;
     }
@@ -364,43 +452,149 @@ public class HyperLogLog {
     return cachedCount;
   }
 
-  private long getThreshold() {
+  /**
+   * Estimates the cardinality of DENSE registers (same estimate as
+   * {@link #count()}), for register implementations other than
+   * {@link HLLDenseRegister}.
+   * @param p
+   *          - number of register index bits
+   * @param chosenHashBits
+   *          - number of hashcode bits, 32 or 128
+   * @param noBias
+   *          - use bias table lookup for short range bias correction
+   * @param sum
+   *          - sum of 2^-r over all register values r
+   * @param numZeros
+   *          - number of registers with value 0
+   * @return estimated cardinality
+   */
+  public static long estimateDenseCount(int p, int chosenHashBits, boolean noBias, double sum,
+      long numZeros) {
+    final int m = 1 << p;
+
+    // use bias table lookup for HLLNoBias algorithm else fallback to
+    // HLLOriginal algorithm. Cardinality estimate from normalized bias
+    // corrected harmonic mean on the registers
+    long count = (long) (computeAlphaMM(chosenHashBits, m) * (1.0 / sum));
+    long pow = (long) Math.pow(2, chosenHashBits);
+
+    // when bias correction is enabled
+    if (noBias) {
+      count = count <= 5 * m ? (count - estimateBias(p, count)) : count;
+      long h = count;
+      if (numZeros != 0) {
+        h = linearCount(m, numZeros);
+      }
+
+      if (h < getThreshold(p)) {
+        count = h;
+      }
+    } else {
+      // HLL algorithm shows stronger bias for values in (2.5 * m) range.
+      // To compensate for this short range bias, linear counting is used
+      // for values before this short range. The original paper also says
+      // similar bias is seen for long range values due to hash collisions
+      // in range >1/30*(2^32). For the default case, we do not have to
+      // worry about this long range bias as the paper used 32-bit hashing
+      // and we use 64-bit hashing as default. 2^64 values are too high to
+      // observe long range bias (hash collisions).
+      if (count <= 2.5 * m) {
+
+        // for short range use linear counting
+        if (numZeros != 0) {
+          count = linearCount(m, numZeros);
+        }
+      } else if (chosenHashBits < 64 && count > (0.033333 * pow)) {
+
+        // long range bias for 32-bit hashcodes
+        if (count > (1 / 30) * pow) {
+          count = (long) (-pow * Math.log(1.0 - (double) count / (double) pow));
+        }
+      }
+    }
+
+    return count;
+  }
+
+  private static long getThreshold(int p) {
     return (long) (HLLConstants.thresholdData[p - 4] + 0.5);
   }
 
+  // raw estimate and bias tables for each p, sorted by raw estimate (the
+  // tables of some p values are not strictly sorted)
+  private static final double[][] sortedRawEstimateData;
+  private static final double[][] sortedBiasData;
+
+  static {
+    int numTables = HLLConstants.rawEstimateData.length;
+    sortedRawEstimateData = new double[numTables][];
+    sortedBiasData = new double[numTables][];
+    for (int t = 0; t < numTables; t++) {
+      final double[] rawEst = HLLConstants.rawEstimateData[t];
+      final double[] bias = HLLConstants.biasData[t];
+      Integer[] order = new Integer[rawEst.length];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      // stable sort, entries with equal raw estimates keep their order
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Double.compare(rawEst[a], rawEst[b]);
+        }
+      });
+      sortedRawEstimateData[t] = new double[order.length];
+      sortedBiasData[t] = new double[order.length];
+      for (int i = 0; i < order.length; i++) {
+        sortedRawEstimateData[t][i] = rawEst[order[i]];
+        sortedBiasData[t][i] = bias[order[i]];
+      }
+    }
+  }
+
   /**
-   * Estimate bias from lookup table
+   * Estimate bias from lookup table. Averages the bias of the k raw estimates
+   * nearest to the count, found by binary search in the sorted table.
    * @param count
    *          - cardinality before bias correction
    * @return cardinality after bias correction
    */
-  private long estimateBias(long count) {
-    double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
+  private static long estimateBias(int p, long count) {
+    return estimateBias(sortedRawEstimateData[p - 4], sortedBiasData[p - 4], count);
+  }
 
-    // compute distance and store it in sorted map
-    Double2IntSortedMap estIndexMap = new Double2IntAVLTreeMap();
-    double distance = 0;
-    for (int i = 0; i < rawEstForP.length; i++) {
-      distance = Math.pow(count - rawEstForP[i], 2);
-      estIndexMap.put(distance, i);
+  /**
+   * Averages the bias of the k raw estimates nearest to the count.
+   * @param rawEstForP
+   *          - raw estimates, sorted
+   * @param biasForP
+   *          - bias of each raw estimate
+   * @param count
+   *          - cardinality before bias correction
+   * @return bias
+   */
+  private static long estimateBias(double[] rawEstForP, double[] biasForP, long count) {
+    final int n = rawEstForP.length;
+
+    // [left + 1, right) is the window of nearest neighbors, grown from the
+    // insertion point of count towards the closer side (left side on ties)
+    int right = Arrays.binarySearch(rawEstForP, count);
+    if (right < 0) {
+      right = -right - 1;
     }
-
-    // take top-k closest neighbors and compute the bias corrected cardinality
-    long result = 0;
-    double[] biasForP = HLLConstants.biasData[p - 4];
+    int left = right - 1;
     double biasSum = 0;
-    int kNeighbors = HLLConstants.K_NEAREST_NEIGHBOR;
-    for (Map.Entry<Double, Integer> entry : estIndexMap.entrySet()) {
-      biasSum += biasForP[entry.getValue()];
-      kNeighbors--;
-      if (kNeighbors <= 0) {
-        break;
+    int kNeighbors = Math.min(HLLConstants.K_NEAREST_NEIGHBOR, n);
+    for (; kNeighbors > 0; kNeighbors--) {
+      if (right >= n || (left >= 0 && count - rawEstForP[left] <= rawEstForP[right] - count)) {
+        biasSum += biasForP[left--];
+      } else {
+        biasSum += biasForP[right++];
       }
     }
 
     // 0.5 added for rounding off
-    result = (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
-    return result;
+    return (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
   }
 
   public void setCount(long count) {
@@ -408,7 +602,42 @@ public class HyperLogLog {
     this.invalidateCount = true;
   }
 
-  private long linearCount(int mVal, long numZeros) {
+  /**
+   * Number of SPARSE entries above which the encoding switches to DENSE.
+   * @param m
+   *          - number of registers
+   * @param bitPacking
+   *          - whether DENSE registers are bit packed when serialized
+   * @return the threshold
+   */
+  static int encodingSwitchThreshold(int m, boolean bitPacking) {
+    // the threshold should be less than 12K bytes for p = 14.
+    // The reason to divide by 5 is, in sparse mode after serialization the
+    // entriesin sparse map are compressed, and delta encoded as varints. The
+    // worst case size of varints are 5 bytes. Hence, 12K/5 ~= 2400 entries in
+    // sparse map.
+    if (bitPacking) {
+      return ((m * 6) / 8) / 5;
+    }
+    // if bitpacking is disabled, all register values takes 8 bits and hence
+    // we can be more flexible with the threshold. For p=14, 16K/5 = 3200
+    // entries in sparse map can be allowed.
+    return m / 3;
+  }
+
+  /**
+   * Estimates the cardinality of SPARSE registers (same estimate as
+   * {@link #count()}).
+   * @param numEntries
+   *          - number of SPARSE entries
+   * @return estimated cardinality
+   */
+  static long estimateSparseCount(int numEntries) {
+    int mPrime = 1 << HLLConstants.P_PRIME_VALUE;
+    return linearCount(mPrime, mPrime - numEntries);
+  }
+
+  private static long linearCount(int mVal, long numZeros) {
     return (long) (Math.round(mVal * Math.log(mVal / ((double) numZeros))));
   }
 
@@ -459,10 +688,10 @@ public class HyperLogLog {
    * @throws IllegalArgumentException
    */
   public void merge(HyperLogLog hll) {
-    if (p != hll.p || chosenHashBits != hll.chosenHashBits) {
+    if (p != hll.p || chosenHashBits != hll.chosenHashBits || hashSeed != hll.hashSeed) {
       throw new IllegalArgumentException(
-          "HyperLogLog cannot be merged as either p or hashbits are different. Current: "
-              + toString() + " Provided: " + hll.toString());
+          "HyperLogLog cannot be merged as either p, hashbits or hash seed are different."
+              + " Current: " + toString() + " Provided: " + hll.toString());
     }
 
     EncodingType otherEncoding = hll.getEncoding();
@@ -479,13 +708,16 @@ public class HyperLogLog {
     } else if (encoding.equals(EncodingType.DENSE) && otherEncoding.equals(EncodingType.DENSE)) {
       denseRegister.merge(hll.getHLLDenseRegister());
     } else if (encoding.equals(EncodingType.SPARSE) && otherEncoding.equals(EncodingType.DENSE)) {
-      denseRegister = sparseToDenseRegister(sparseRegister);
-      denseRegister.merge(hll.getHLLDenseRegister());
+      // start from a copy of the other dense register and apply the sparse
+      // entries on top of it
+      HLLDenseRegister result = new HLLDenseRegister(p, bitPacking, denseLayout);
+      result.merge(hll.getHLLDenseRegister());
+      mergeSparseToDenseRegister(sparseRegister, result);
+      denseRegister = result;
       sparseRegister = null;
       encoding = EncodingType.DENSE;
     } else if (encoding.equals(EncodingType.DENSE) && otherEncoding.equals(EncodingType.SPARSE)) {
-      HLLDenseRegister otherDenseRegister = sparseToDenseRegister(hll.getHLLSparseRegister());
-      denseRegister.merge(otherDenseRegister);
+      mergeSparseToDenseRegister(hll.getHLLSparseRegister(), denseRegister);
     }
 
     invalidateCount = true;
@@ -501,17 +733,31 @@ public class HyperLogLog {
     if (sparseRegister == null) {
       return null;
     }
-    int p = sparseRegister.getP();
-    int pMask = (1 << p) - 1;
-    HLLDenseRegister result = new HLLDenseRegister(p, bitPacking);
-    for (Map.Entry<Integer, Byte> entry : sparseRegister.getSparseMap().entrySet()) {
-      int key = entry.getKey();
-      int idx = key & pMask;
-      result.set(idx, entry.getValue());
-    }
+    HLLDenseRegister result = new HLLDenseRegister(sparseRegister.getP(), bitPacking, denseLayout);
+    mergeSparseToDenseRegister(sparseRegister, result);
     return result;
   }
 
+  /**
+   * Applies the entries of a sparse register directly to a dense register,
+   * retaining the largest value for a register index
+   * @param sparseRegister
+   *          - sparse register to be merged
+   * @param denseRegister
+   *          - dense register to merge to
+   */
+  private static void mergeSparseToDenseRegister(HLLSparseRegister sparseRegister,
+      HLLDenseRegister denseRegister) {
+    int pMask = (1 << sparseRegister.getP()) - 1;
+    int qPrime = sparseRegister.getQPrime();
+    int qPrimeMask = (1 << qPrime) - 1;
+    int[] entries = sparseRegister.getSparseEntries();
+    for (int i = 0, n = sparseRegister.getSize(); i < n; i++) {
+      int entry = entries[i];
+      denseRegister.set((entry >>> qPrime) & pMask, (byte) (entry & qPrimeMask));
+    }
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -521,6 +767,8 @@ public class HyperLogLog {
     sb.append(p);
     sb.append(", chosenHashBits: ");
     sb.append(chosenHashBits);
+    sb.append(", hashSeed: ");
+    sb.append(hashSeed);
     sb.append(", estimatedCardinality: ");
     sb.append(count());
     return sb.toString();
@@ -544,6 +792,10 @@ public class HyperLogLog {
     return chosenHashBits;
   }
 
+  public int getHashSeed() {
+    return hashSeed;
+  }
+
   public EncodingType getEncoding() {
     return encoding;
   }
@@ -22,13 +22,12 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Map;
 
 import com.github.ddth.hll.prasanthj.HyperLogLog.EncodingType;
 
-import it.unimi.dsi.fastutil.ints.Int2ByteSortedMap;
-
 /**
  * HyperLogLog serialization utilities.
  */
@@ -36,6 +35,12 @@ public class HyperLogLogUtils {
 
     public static final byte[] MAGIC = new byte[] { 'H', 'L', 'L' };
 
+    /**
+     * Magic string of hyperloglogs whose hash seed is not
+     * {@link Murmur3#DEFAULT_SEED}, followed by the seed.
+     */
+    public static final byte[] SEEDED_MAGIC = new byte[] { 'H', 'L', 'S' };
+
     /**
      * HyperLogLog is serialized using the following format
      * 
@@ -51,10 +56,15 @@ public class HyperLogLogUtils {
      * 1 bit   - hash function (0 - MurmurHash3_32, 1 - MurmurHash3_128)
      * 3 bits  - encoding (000 - sparse, 001..110 - n bit packing, 111 - no bit packing)
      * 
+     * If the hash seed is not the default one, the magic string is HLS instead,
+     * followed by the 4-byte (big-endian) seed before the fourth byte.
+     * 
      * Followed by header are 3 fields that are required for reconstruction
      * of hyperloglog
      * Estimated count - variable length long to store last computed estimated count.
      *                   This is just for quick lookup without deserializing registers
+     *                   (see getEstimatedCountFromSerializedHLL()). It is always
+     *                   hll.count() at the time of serialization
      * Register length - number of entries in the register (required only for 
      *                   for sparse representation. For bit-packing, the register
      *                   length can be found from p)
@@ -69,40 +79,12 @@ public class HyperLogLogUtils {
     public static void serializeHLL(OutputStream out, HyperLogLog hll) throws IOException {
 
         // write header
-        out.write(MAGIC);
-        int fourthByte = 0;
-        int p = hll.getNumRegisterIndexBits();
-        fourthByte = (p & 0xff) << 4;
-        int hb = hll.getNumHashBits();
-        if (hb > 32) {
-            fourthByte |= 1 << 3;
-        }
-
-        int bitWidth = 0;
+        writeMagicString(out, hll.getHashSeed());
         EncodingType enc = hll.getEncoding();
         long estCount = hll.count();
-
-        // determine bit width for bitpacking and encode it in header
-        if (enc.equals(EncodingType.DENSE)) {
-            int lzr = hll.getHLLDenseRegister().getMaxRegisterValue();
-            /*
-             * btnguyen2k: fix special case when the HLL is empty
-             */
-            if (lzr == 0 && estCount == 0) {
-                lzr = 1;
-            }
-            bitWidth = getBitWidth(lzr);
-
-            // the max value of number of zeroes for 64 bit hash can be encoded
-            // using
-            // only 6 bits. So we will disable bit packing for any values >6
-            if (bitWidth > 6) {
-                fourthByte |= 7;
-                bitWidth = 8;
-            } else {
-                fourthByte |= (bitWidth & 7);
-            }
-        }
+        int bitWidth = getSerializedBitWidth(hll);
+        int fourthByte = getFourthByte(hll.getNumRegisterIndexBits(), hll.getNumHashBits(),
+                bitWidth);
 
         // write fourth byte of header
         out.write(fourthByte);
@@ -113,32 +95,200 @@ public class HyperLogLogUtils {
         // serialize dense/sparse registers. Dense registers are bitpacked
         // whereas
         // sparse registers are delta and variable length encoded
-        if (enc.equals(EncodingType.DENSE)) {
+        if (enc.equals(EncodingType.DENSE) && hll.getHLLDenseRegister().isPacked()) {
+            out.write(hll.getHLLDenseRegister().getPackedRegister());
+        } else if (enc.equals(EncodingType.DENSE)) {
             byte[] register = hll.getHLLDenseRegister().getRegister();
             bitpackHLLRegister(out, register, bitWidth);
         } else if (enc.equals(EncodingType.SPARSE)) {
-            Int2ByteSortedMap sparseMap = hll.getHLLSparseRegister().getSparseMap();
+            HLLSparseRegister sparseRegister = hll.getHLLSparseRegister();
+            int[] entries = sparseRegister.getSparseEntries();
+            int size = sparseRegister.getSize();
 
             // write the number of elements in sparse map (required for
             // reconstruction)
-            writeVulong(out, sparseMap.size());
+            writeVulong(out, size);
 
-            // compute deltas and write the values as varints
+            // compute deltas and write the values as varints. Sparse entries
+            // are already encoded as (index << Q_PRIME_VALUE) | value
             int prev = 0;
-            for (Map.Entry<Integer, Byte> entry : sparseMap.entrySet()) {
-                if (prev == 0) {
-                    prev = (entry.getKey() << HLLConstants.Q_PRIME_VALUE) | entry.getValue();
-                    writeVulong(out, prev);
-                } else {
-                    int curr = (entry.getKey() << HLLConstants.Q_PRIME_VALUE) | entry.getValue();
-                    int delta = curr - prev;
-                    writeVulong(out, delta);
-                    prev = curr;
-                }
+            for (int i = 0; i < size; i++) {
+                int curr = entries[i];
+                writeVulong(out, curr - prev);
+                prev = curr;
             }
         }
     }
 
+    /**
+     * Serializes a hyperloglog into a buffer, at its position, in the format
+     * of serializeHLL(). The position is advanced by
+     * getSerializedSize(hll) bytes.
+     * 
+     * @param out
+     *            - buffer to write to
+     * @param hll
+     *            - hyperloglog that needs to be serialized
+     * @throws java.nio.BufferOverflowException
+     *             if the buffer has not enough space remaining (the buffer
+     *             is then partially written)
+     */
+    public static void serializeHLL(ByteBuffer out, HyperLogLog hll) {
+        try {
+            serializeHLL(new ByteBufferOutputStream(out), hll);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Number of bytes serializeHLL() writes for a hyperloglog.
+     * 
+     * @param hll
+     *            - hyperloglog
+     * @return serialized size
+     */
+    public static int getSerializedSize(HyperLogLog hll) {
+        int size = getMagicStringSize(hll.getHashSeed()) + 1 + getVulongSize(hll.count());
+        if (hll.getEncoding().equals(EncodingType.DENSE)) {
+            int m = 1 << hll.getNumRegisterIndexBits();
+            size += m / 8 * getSerializedBitWidth(hll);
+        } else {
+            HLLSparseRegister sparseRegister = hll.getHLLSparseRegister();
+            int[] entries = sparseRegister.getSparseEntries();
+            int numEntries = sparseRegister.getSize();
+            size += getVulongSize(numEntries);
+            int prev = 0;
+            for (int i = 0; i < numEntries; i++) {
+                int curr = entries[i];
+                size += getVulongSize(curr - prev);
+                prev = curr;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Bit width of serialized registers: 0 for SPARSE encoding, 8 if bit
+     * packing is disabled.
+     * 
+     * @param hll
+     * @return
+     */
+    private static int getSerializedBitWidth(HyperLogLog hll) {
+        if (!hll.getEncoding().equals(EncodingType.DENSE)) {
+            return 0;
+        }
+        if (hll.getHLLDenseRegister().isPacked()) {
+            // packed registers are written as is
+            return HLLConstants.PACKED_BIT_WIDTH;
+        }
+        return getSerializedBitWidth(hll.getHLLDenseRegister().getMaxRegisterValue(), hll.count());
+    }
+
+    /**
+     * Bit width of serialized DENSE registers, 8 if bit packing is disabled.
+     * 
+     * @param maxRegisterValue
+     * @param estCount
+     * @return
+     */
+    private static int getSerializedBitWidth(int maxRegisterValue, long estCount) {
+        int lzr = maxRegisterValue;
+        /*
+         * btnguyen2k: fix special case when the HLL is empty
+         */
+        if (lzr == 0 && estCount == 0) {
+            lzr = 1;
+        }
+        int bitWidth = getBitWidth(lzr);
+
+        // the max value of number of zeroes for 64 bit hash can be encoded
+        // using
+        // only 6 bits. So we will disable bit packing for any values >6
+        return bitWidth > 6 ? 8 : bitWidth;
+    }
+
+    private static int getFourthByte(int p, int numHashBits, int bitWidth) {
+        int fourthByte = (p & 0xff) << 4;
+        if (numHashBits > 32) {
+            fourthByte |= 1 << 3;
+        }
+        // determine bit width for bitpacking and encode it in header
+        return fourthByte | (bitWidth == 8 ? 7 : bitWidth);
+    }
+
+    /**
+     * Serializes a DENSE hyperloglog whose registers are packed 6 bits each
+     * (see {@link HLLDenseRegister#getPackedRegister()}) to the format of
+     * serializeHLL(), copying the packed registers as is.
+     * 
+     * @param p
+     *            - number of register index bits
+     * @param numHashBits
+     *            - number of hash bits
+     * @param estCount
+     *            - estimated count
+     * @param packedRegister
+     *            - packed registers, from position to limit (the position is
+     *            not changed)
+     * @return serialized hyperloglog
+     */
+    public static byte[] serializePackedDenseHLL(int p, int numHashBits, long estCount,
+            ByteBuffer packedRegister) {
+        byte[] result = new byte[getPackedDenseSerializedSize(p, estCount)];
+        serializePackedDenseHLL(ByteBuffer.wrap(result), p, numHashBits, estCount, packedRegister);
+        return result;
+    }
+
+    /**
+     * Same as serializePackedDenseHLL(int, int, long, ByteBuffer) but writes
+     * to a buffer, at its position. The position is advanced by
+     * getPackedDenseSerializedSize(p, estCount) bytes.
+     * 
+     * @param out
+     *            - buffer to write to
+     * @param p
+     *            - number of register index bits
+     * @param numHashBits
+     *            - number of hash bits
+     * @param estCount
+     *            - estimated count
+     * @param packedRegister
+     *            - packed registers, from position to limit (the position is
+     *            not changed)
+     * @throws java.nio.BufferOverflowException
+     *             if the buffer has not enough space remaining
+     */
+    public static void serializePackedDenseHLL(ByteBuffer out, int p, int numHashBits,
+            long estCount, ByteBuffer packedRegister) {
+        if (out.remaining() < getPackedDenseSerializedSize(p, estCount)) {
+            throw new BufferOverflowException();
+        }
+        out.put(MAGIC);
+        out.put((byte) getFourthByte(p, numHashBits, HLLConstants.PACKED_BIT_WIDTH));
+        try {
+            writeVulong(new ByteBufferOutputStream(out), estCount);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        out.put(packedRegister.duplicate());
+    }
+
+    /**
+     * Number of bytes serializePackedDenseHLL() writes.
+     * 
+     * @param p
+     *            - number of register index bits
+     * @param estCount
+     *            - estimated count
+     * @return serialized size
+     */
+    public static int getPackedDenseSerializedSize(int p, long estCount) {
+        return MAGIC.length + 1 + getVulongSize(estCount)
+                + (1 << p) / 8 * HLLConstants.PACKED_BIT_WIDTH;
+    }
+
     /**
      * Refer serializeHLL() for format of serialization. This funtions
      * deserializes the serialized hyperloglogs
@@ -149,7 +299,42 @@ public class HyperLogLogUtils {
      * @throws IOException
      */
     public static HyperLogLog deserializeHLL(InputStream in) throws IOException {
-        checkMagicString(in);
+        return deserializeHLL(in, false);
+    }
+
+    /**
+     * Refer serializeHLL() for format of serialization. This funtions
+     * deserializes the serialized hyperloglogs
+     * 
+     * @param in
+     *            - input stream
+     * @param packedRegister
+     *            - keep dense registers packed in memory (see
+     *            {@link HyperLogLog.HyperLogLogBuilder#enablePackedRegister(boolean)})
+     * @return deserialized hyperloglog
+     * @throws IOException
+     */
+    public static HyperLogLog deserializeHLL(InputStream in, boolean packedRegister)
+            throws IOException {
+        return deserializeHLL(in,
+                packedRegister ? HLLDenseRegister.Layout.PACKED : HLLDenseRegister.Layout.BYTES);
+    }
+
+    /**
+     * Refer serializeHLL() for format of serialization. This funtions
+     * deserializes the serialized hyperloglogs
+     * 
+     * @param in
+     *            - input stream
+     * @param denseLayout
+     *            - in-memory layout of dense registers (see
+     *            {@link HyperLogLog.HyperLogLogBuilder#setDenseLayout(HLLDenseRegister.Layout)})
+     * @return deserialized hyperloglog
+     * @throws IOException
+     */
+    public static HyperLogLog deserializeHLL(InputStream in, HLLDenseRegister.Layout denseLayout)
+            throws IOException {
+        int hashSeed = readMagicString(in);
         int fourthByte = in.read() & 0xff;
         int p = fourthByte >>> 4;
         int hb = (fourthByte >>> 3) & 1;
@@ -180,7 +365,8 @@ public class HyperLogLogUtils {
         HyperLogLog result = null;
         if (encoding.equals(EncodingType.SPARSE)) {
             result = HyperLogLog.builder().setNumHashBits(hb).setNumRegisterIndexBits(p)
-                    .setEncoding(EncodingType.SPARSE).build();
+                    .setHashSeed(hashSeed).setEncoding(EncodingType.SPARSE)
+                    .setDenseLayout(denseLayout).build();
             int numRegisterEntries = (int) readVulong(in);
             int[] reg = new int[numRegisterEntries];
             int prev = 0;
@@ -205,14 +391,24 @@ public class HyperLogLogUtils {
             // explicitly disable bit packing
             if (bitSize == 8) {
                 result = HyperLogLog.builder().setNumHashBits(hb).setNumRegisterIndexBits(p)
-                        .setEncoding(EncodingType.DENSE).enableBitPacking(false).build();
+                        .setHashSeed(hashSeed).setEncoding(EncodingType.DENSE)
+                        .enableBitPacking(false).setDenseLayout(denseLayout).build();
             } else {
                 result = HyperLogLog.builder().setNumHashBits(hb).setNumRegisterIndexBits(p)
-                        .setEncoding(EncodingType.DENSE).enableBitPacking(true).build();
+                        .setHashSeed(hashSeed).setEncoding(EncodingType.DENSE)
+                        .enableBitPacking(true).setDenseLayout(denseLayout).build();
             }
             int m = 1 << p;
-            byte[] register = unpackHLLRegister(in, m, bitSize);
-            result.setHLLDenseRegister(register);
+            if (bitSize == HLLConstants.PACKED_BIT_WIDTH
+                    && result.getHLLDenseRegister().isPacked()) {
+                // same layout as packed registers, read as is
+                byte[] packed = new byte[m * HLLConstants.PACKED_BIT_WIDTH / 8];
+                readFully(in, packed);
+                result.getHLLDenseRegister().setPackedRegister(packed);
+            } else {
+                byte[] register = unpackHLLRegister(in, m, bitSize);
+                result.setHLLDenseRegister(register);
+            }
         }
 
         result.setCount(estCount);
@@ -220,46 +416,279 @@ public class HyperLogLogUtils {
         return result;
     }
 
-    private static void bitpackHLLRegister(OutputStream out, byte[] register, int bitWidth)
+    /**
+     * Refer serializeHLL() for format of serialization. This funtions
+     * deserializes a hyperloglog from a buffer, at its position. The position
+     * is advanced past the serialized hyperloglog.
+     * 
+     * @param in
+     *            - buffer to read from
+     * @param denseLayout
+     *            - in-memory layout of dense registers (see
+     *            {@link HyperLogLog.HyperLogLogBuilder#setDenseLayout(HLLDenseRegister.Layout)})
+     * @return deserialized hyperloglog
+     */
+    public static HyperLogLog deserializeHLL(ByteBuffer in, HLLDenseRegister.Layout denseLayout) {
+        try {
+            return deserializeHLL(new ByteBufferInputStream(in), denseLayout);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Merges serialized hyperloglogs (see serializeHLL()) without
+     * deserializing them: SPARSE entries and bit-packed DENSE registers are
+     * unioned straight into one register buffer, which is then serialized to
+     * the output. The output is the same as serializing the hyperloglogs
+     * deserialized and merged into the first one, including the encoding
+     * switch once SPARSE entries exceed the threshold.
+     * 
+     * @param out
+     *            - output stream to write to
+     * @param in
+     *            - serialized hyperloglogs, each from the buffer's position to
+     *            its limit (the positions are not changed)
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             if there is no hyperloglog, or their p, hash bits or hash
+     *             seeds differ
+     */
+    public static void mergeSerializedHLL(OutputStream out, Iterable<ByteBuffer> in)
             throws IOException {
-        int bitsLeft = 8;
-        byte current = 0;
+        final int qPrime = HLLConstants.Q_PRIME_VALUE;
+        int p = -1, numHashBits = 0, hashSeed = 0, m = 0;
+        int[] sparseEntries = null;
+        byte[] register = null, packed = null, values = null;
+        boolean bitPacking = true;
+        for (ByteBuffer buffer : in) {
+            InputStream input = new ByteBufferInputStream(buffer.duplicate());
+            int seed = readMagicString(input);
+            int fourthByte = input.read() & 0xff;
+            int hb = (fourthByte & 8) != 0 ? 128 : 32;
+            if (p < 0) {
+                p = fourthByte >>> 4;
+                numHashBits = hb;
+                hashSeed = seed;
+                m = 1 << p;
+            } else if (p != fourthByte >>> 4 || numHashBits != hb || hashSeed != seed) {
+                throw new IllegalArgumentException("HyperLogLog cannot be merged as either p, "
+                        + "hashbits or hash seed are different.");
+            }
 
-        if (bitWidth == 8) {
-            fastPathWrite(out, register);
-            return;
+            // estimated count, not needed
+            readVulong(input);
+
+            int enc = fourthByte & 7;
+            if (enc == 0) {
+                int numEntries = (int) readVulong(input);
+                int[] entries = new int[numEntries];
+                int prev = 0;
+                for (int i = 0; i < numEntries; i++) {
+                    prev += (int) readVulong(input);
+                    entries[i] = prev;
+                }
+                if (register != null) {
+                    mergeSparseToDenseRegister(p, entries, register);
+                } else if (sparseEntries == null) {
+                    sparseEntries = entries;
+                } else {
+                    sparseEntries = mergeSparseEntries(sparseEntries, entries, qPrime);
+                    // same encoding switch as HyperLogLog.merge()
+                    if (sparseEntries.length > HyperLogLog.encodingSwitchThreshold(m, true)) {
+                        register = new byte[m];
+                        mergeSparseToDenseRegister(p, sparseEntries, register);
+                        sparseEntries = null;
+                    }
+                }
+            } else {
+                if (register == null) {
+                    register = new byte[m];
+                    if (sparseEntries != null) {
+                        mergeSparseToDenseRegister(p, sparseEntries, register);
+                        sparseEntries = null;
+                    }
+                }
+                int bitWidth = enc == 7 ? 8 : enc;
+                // as HyperLogLog.merge(): registers deserialized from 8-bit
+                // ones have bit packing disabled, which HLLDenseRegister.merge()
+                // passes on to the registers merged into (whichever is first)
+                bitPacking &= enc != 7;
+                if (packed == null || packed.length != m / 8 * bitWidth) {
+                    packed = new byte[m / 8 * bitWidth];
+                }
+                readFully(input, packed);
+                if (values == null) {
+                    values = new byte[m];
+                }
+                bitunpack(packed, 0, values, bitWidth);
+                for (int i = 0; i < m; i++) {
+                    register[i] = (byte) Math.max(register[i], values[i]);
+                }
+            }
+        }
+        if (p < 0) {
+            throw new IllegalArgumentException("No HyperLogLog to merge.");
+        }
+
+        writeMagicString(out, hashSeed);
+        if (register == null) {
+            long estCount = HyperLogLog.estimateSparseCount(sparseEntries.length);
+            out.write(getFourthByte(p, numHashBits, 0));
+            writeVulong(out, estCount);
+            writeVulong(out, sparseEntries.length);
+            int prev = 0;
+            for (int curr : sparseEntries) {
+                writeVulong(out, curr - prev);
+                prev = curr;
+            }
+        } else {
+            writeDenseHLL(out, p, numHashBits, register, bitPacking);
         }
+    }
 
-        // write the blob
+    /**
+     * Writes DENSE registers, after the magic string, in the format of
+     * serializeHLL().
+     * 
+     * @param out
+     * @param p
+     * @param numHashBits
+     *            - 32 or 128
+     * @param register
+     * @param bitPacking
+     * @throws IOException
+     */
+    private static void writeDenseHLL(OutputStream out, int p, int numHashBits, byte[] register,
+            boolean bitPacking) throws IOException {
+        // same sum and number of zeroes as deserializing the registers,
+        // so that the estimated count is the same as count() afterwards
+        final double[] inversePow2 = HLLConstants.inversePow2Data;
+        final int m = 1 << p;
+        double sum = m;
+        int numZeroes = m, max = bitPacking ? 0 : 0xff;
         for (byte value : register) {
-            int bitsToWrite = bitWidth;
-            while (bitsToWrite > bitsLeft) {
-                // add the bits to the bottom of the current word
-                current |= value >>> (bitsToWrite - bitsLeft);
-                // subtract out the bits we just added
-                bitsToWrite -= bitsLeft;
-                // zero out the bits above bitsToWrite
-                value &= (1 << bitsToWrite) - 1;
-                out.write(current);
-                current = 0;
-                bitsLeft = 8;
+            if (value != 0) {
+                sum += inversePow2[value & 0xff] - inversePow2[0];
+                numZeroes--;
+                if (value > max) {
+                    max = value;
+                }
             }
-            bitsLeft -= bitsToWrite;
-            current |= value << bitsLeft;
-            if (bitsLeft == 0) {
-                out.write(current);
-                current = 0;
-                bitsLeft = 8;
+        }
+        long estCount = HyperLogLog.estimateDenseCount(p, numHashBits, true, sum, numZeroes);
+        int bitWidth = getSerializedBitWidth(max, estCount);
+        out.write(getFourthByte(p, numHashBits, bitWidth));
+        writeVulong(out, estCount);
+        bitpackHLLRegister(out, register, bitWidth);
+    }
+
+    /**
+     * Serializes DENSE registers (e.g. converted from another HyperLogLog
+     * implementation) to the format of serializeHLL().
+     * 
+     * @param out
+     *            - output stream to write to
+     * @param numHashBits
+     *            - number of hash bits: 32, or 64 (or 128) for 64-bit hashing
+     * @param register
+     *            - {@code 2^p} register values, p between
+     *            {@link HLLConstants#MIN_P_VALUE} and 15 (the header stores p
+     *            in 4 bits)
+     * @throws IOException
+     */
+    public static void serializeRegisters(OutputStream out, int numHashBits, byte[] register)
+            throws IOException {
+        serializeRegisters(out, numHashBits, Murmur3.DEFAULT_SEED, register);
+    }
+
+    /**
+     * Serializes DENSE registers (e.g. converted from another HyperLogLog
+     * implementation) to the format of serializeHLL().
+     * 
+     * @param out
+     *            - output stream to write to
+     * @param numHashBits
+     *            - number of hash bits: 32, or 64 (or 128) for 64-bit hashing
+     * @param hashSeed
+     *            - seed of the hash function
+     * @param register
+     *            - {@code 2^p} register values, p between
+     *            {@link HLLConstants#MIN_P_VALUE} and 15 (the header stores p
+     *            in 4 bits)
+     * @throws IOException
+     */
+    public static void serializeRegisters(OutputStream out, int numHashBits, int hashSeed,
+            byte[] register) throws IOException {
+        int p = Integer.numberOfTrailingZeros(register.length);
+        if (register.length != 1 << p || p < HLLConstants.MIN_P_VALUE || p > 15) {
+            throw new IllegalArgumentException("Invalid number of registers ["
+                    + register.length + "].");
+        }
+        writeMagicString(out, hashSeed);
+        writeDenseHLL(out, p, numHashBits <= 32 ? 32 : 128, register, true);
+    }
+
+    /**
+     * Unions sorted SPARSE entries, retaining the largest value for a register
+     * index.
+     * 
+     * @param a
+     * @param b
+     * @param qPrime
+     * @return
+     */
+    private static int[] mergeSparseEntries(int[] a, int[] b, int qPrime) {
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            int keyA = a[i] >>> qPrime, keyB = b[j] >>> qPrime;
+            if (keyA < keyB) {
+                result[k++] = a[i++];
+            } else if (keyA > keyB) {
+                result[k++] = b[j++];
+            } else {
+                result[k++] = Math.max(a[i++], b[j++]);
             }
         }
+        while (i < a.length) {
+            result[k++] = a[i++];
+        }
+        while (j < b.length) {
+            result[k++] = b[j++];
+        }
+        return k == result.length ? result : Arrays.copyOf(result, k);
+    }
 
-        out.flush();
+    /**
+     * Applies SPARSE entries to DENSE registers, retaining the largest value
+     * for a register index (see
+     * {@link HyperLogLog#merge(HyperLogLog)}).
+     * 
+     * @param p
+     * @param entries
+     * @param register
+     */
+    private static void mergeSparseToDenseRegister(int p, int[] entries, byte[] register) {
+        final int qPrime = HLLConstants.Q_PRIME_VALUE;
+        final int pMask = (1 << p) - 1, qPrimeMask = (1 << qPrime) - 1;
+        for (int entry : entries) {
+            int idx = (entry >>> qPrime) & pMask;
+            byte value = (byte) (entry & qPrimeMask);
+            if (value > register[idx]) {
+                register[idx] = value;
+            }
+        }
     }
 
-    private static void fastPathWrite(OutputStream out, byte[] register) throws IOException {
-        for (byte b : register) {
-            out.write(b);
+    private static void bitpackHLLRegister(OutputStream out, byte[] register, int bitWidth)
+            throws IOException {
+        if (bitWidth == 8) {
+            out.write(register);
+        } else {
+            out.write(bitpack(register, bitWidth));
         }
+        out.flush();
     }
 
     /**
@@ -272,42 +701,202 @@ public class HyperLogLogUtils {
      */
     private static byte[] unpackHLLRegister(InputStream in, int length, int bitSize)
             throws IOException {
-        int mask = (1 << bitSize) - 1;
-        int bitsLeft = 8;
-
+        byte[] packed = new byte[length / 8 * bitSize];
+        readFully(in, packed);
         if (bitSize == 8) {
-            return fastPathRead(in, length);
+            return packed;
         }
+        return bitunpack(packed, 0, length, bitSize);
+    }
 
-        byte current = (byte) (0xff & in.read());
-
-        byte[] output = new byte[length];
-        for (int i = 0; i < output.length; i++) {
-            byte result = 0;
-            int bitsLeftToRead = bitSize;
-            while (bitsLeftToRead > bitsLeft) {
-                result <<= bitsLeft;
-                result |= current & ((1 << bitsLeft) - 1);
-                bitsLeftToRead -= bitsLeft;
-                current = (byte) (0xff & in.read());
-                bitsLeft = 8;
+    /**
+     * Bit packs register values, most significant bit first: value i takes
+     * bits [i * bitWidth, (i + 1) * bitWidth) of the output.
+     * 
+     * @param register
+     *            - register values, each fits in bitWidth bits; the number of
+     *            registers must be a multiple of 8
+     * @param bitWidth
+     *            - 1 to 8
+     * @return packed registers, register.length * bitWidth / 8 bytes
+     */
+    public static byte[] bitpack(byte[] register, int bitWidth) {
+        if (bitWidth < 1 || bitWidth > 8) {
+            throw new IllegalArgumentException("Invalid bit width [" + bitWidth + "]!");
+        }
+        if ((register.length & 7) != 0) {
+            throw new IllegalArgumentException(
+                    "Number of registers [" + register.length + "] is not a multiple of 8!");
+        }
+        byte[] packed = new byte[register.length / 8 * bitWidth];
+        switch (bitWidth) {
+        case 4:
+            bitpack4(register, packed);
+            break;
+        case 5:
+            bitpack5(register, packed);
+            break;
+        case 6:
+            bitpack6(register, packed);
+            break;
+        case 8:
+            System.arraycopy(register, 0, packed, 0, register.length);
+            break;
+        default:
+            // 8 registers make bitWidth bytes
+            final long mask = (1 << bitWidth) - 1;
+            for (int i = 0, o = 0; i < register.length; i += 8, o += bitWidth) {
+                long word = 0;
+                for (int j = 0; j < 8; j++) {
+                    word = (word << bitWidth) | (register[i + j] & mask);
+                }
+                for (int k = bitWidth - 1; k >= 0; k--, word >>>= 8) {
+                    packed[o + k] = (byte) word;
+                }
             }
-            if (bitsLeftToRead > 0) {
-                result <<= bitsLeftToRead;
-                bitsLeft -= bitsLeftToRead;
-                result |= (current >>> bitsLeft) & ((1 << bitsLeftToRead) - 1);
+        }
+        return packed;
+    }
+
+    private static void bitpack4(byte[] register, byte[] packed) {
+        for (int i = 0, o = 0; i < register.length; i += 2, o++) {
+            packed[o] = (byte) (((register[i] & 0x0F) << 4) | (register[i + 1] & 0x0F));
+        }
+    }
+
+    private static void bitpack5(byte[] register, byte[] packed) {
+        for (int i = 0, o = 0; i < register.length; i += 8, o += 5) {
+            long word = ((long) (register[i] & 0x1F) << 35)
+                    | ((long) (register[i + 1] & 0x1F) << 30)
+                    | ((long) (register[i + 2] & 0x1F) << 25) | ((register[i + 3] & 0x1F) << 20)
+                    | ((register[i + 4] & 0x1F) << 15) | ((register[i + 5] & 0x1F) << 10)
+                    | ((register[i + 6] & 0x1F) << 5) | (register[i + 7] & 0x1F);
+            packed[o] = (byte) (word >>> 32);
+            packed[o + 1] = (byte) (word >>> 24);
+            packed[o + 2] = (byte) (word >>> 16);
+            packed[o + 3] = (byte) (word >>> 8);
+            packed[o + 4] = (byte) word;
+        }
+    }
+
+    private static void bitpack6(byte[] register, byte[] packed) {
+        // 4 registers make 3 bytes
+        for (int i = 0, o = 0; i < register.length; i += 4, o += 3) {
+            int word = ((register[i] & 0x3F) << 18) | ((register[i + 1] & 0x3F) << 12)
+                    | ((register[i + 2] & 0x3F) << 6) | (register[i + 3] & 0x3F);
+            packed[o] = (byte) (word >>> 16);
+            packed[o + 1] = (byte) (word >>> 8);
+            packed[o + 2] = (byte) word;
+        }
+    }
+
+    /**
+     * Unpacks registers packed by bitpack().
+     * 
+     * @param packed
+     *            - packed registers
+     * @param offset
+     *            - offset of packed registers in packed
+     * @param numRegisters
+     *            - number of registers, a multiple of 8
+     * @param bitWidth
+     *            - 1 to 8
+     * @return register values
+     */
+    public static byte[] bitunpack(byte[] packed, int offset, int numRegisters, int bitWidth) {
+        byte[] register = new byte[numRegisters];
+        bitunpack(packed, offset, register, bitWidth);
+        return register;
+    }
+
+    /**
+     * Same as bitunpack(byte[], int, int, int) but unpacks into an existing
+     * array, of register.length registers.
+     */
+    private static void bitunpack(byte[] packed, int offset, byte[] register, int bitWidth) {
+        final int numRegisters = register.length;
+        if (bitWidth < 1 || bitWidth > 8) {
+            throw new IllegalArgumentException("Invalid bit width [" + bitWidth + "]!");
+        }
+        if ((numRegisters & 7) != 0) {
+            throw new IllegalArgumentException(
+                    "Number of registers [" + numRegisters + "] is not a multiple of 8!");
+        }
+        if (offset < 0 || offset + numRegisters / 8 * bitWidth > packed.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        switch (bitWidth) {
+        case 4:
+            bitunpack4(packed, offset, register);
+            break;
+        case 5:
+            bitunpack5(packed, offset, register);
+            break;
+        case 6:
+            bitunpack6(packed, offset, register);
+            break;
+        case 8:
+            System.arraycopy(packed, offset, register, 0, numRegisters);
+            break;
+        default:
+            // bitWidth bytes make 8 registers
+            final int mask = (1 << bitWidth) - 1;
+            for (int i = 0, o = offset; i < numRegisters; i += 8, o += bitWidth) {
+                long word = 0;
+                for (int k = 0; k < bitWidth; k++) {
+                    word = (word << 8) | (packed[o + k] & 0xFF);
+                }
+                for (int j = 7; j >= 0; j--, word >>>= bitWidth) {
+                    register[i + j] = (byte) (word & mask);
+                }
             }
-            output[i] = (byte) (result & mask);
         }
-        return output;
     }
 
-    private static byte[] fastPathRead(InputStream in, int length) throws IOException {
-        byte[] result = new byte[length];
-        for (int i = 0; i < length; i++) {
-            result[i] = (byte) in.read();
+    private static void bitunpack4(byte[] packed, int offset, byte[] register) {
+        for (int i = 0, o = offset; i < register.length; i += 2, o++) {
+            register[i] = (byte) ((packed[o] >>> 4) & 0x0F);
+            register[i + 1] = (byte) (packed[o] & 0x0F);
+        }
+    }
+
+    private static void bitunpack5(byte[] packed, int offset, byte[] register) {
+        for (int i = 0, o = offset; i < register.length; i += 8, o += 5) {
+            long word = ((long) (packed[o] & 0xFF) << 32) | ((long) (packed[o + 1] & 0xFF) << 24)
+                    | ((packed[o + 2] & 0xFF) << 16) | ((packed[o + 3] & 0xFF) << 8)
+                    | (packed[o + 4] & 0xFF);
+            register[i] = (byte) ((word >>> 35) & 0x1F);
+            register[i + 1] = (byte) ((word >>> 30) & 0x1F);
+            register[i + 2] = (byte) ((word >>> 25) & 0x1F);
+            register[i + 3] = (byte) ((word >>> 20) & 0x1F);
+            register[i + 4] = (byte) ((word >>> 15) & 0x1F);
+            register[i + 5] = (byte) ((word >>> 10) & 0x1F);
+            register[i + 6] = (byte) ((word >>> 5) & 0x1F);
+            register[i + 7] = (byte) (word & 0x1F);
+        }
+    }
+
+    private static void bitunpack6(byte[] packed, int offset, byte[] register) {
+        // 3 bytes make 4 registers
+        for (int i = 0, o = offset; i < register.length; i += 4, o += 3) {
+            int word = ((packed[o] & 0xFF) << 16) | ((packed[o + 1] & 0xFF) << 8)
+                    | (packed[o + 2] & 0xFF);
+            register[i] = (byte) (word >>> 18);
+            register[i + 1] = (byte) ((word >>> 12) & 0x3F);
+            register[i + 2] = (byte) ((word >>> 6) & 0x3F);
+            register[i + 3] = (byte) (word & 0x3F);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int n = in.read(buffer, offset, buffer.length - offset);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            offset += n;
         }
-        return result;
     }
 
     /**
@@ -319,27 +908,156 @@ public class HyperLogLogUtils {
      * @throws IOException
      */
     public static long getEstimatedCountFromSerializedHLL(InputStream in) throws IOException {
-        checkMagicString(in);
+        readMagicString(in);
         in.read();
         return readVulong(in);
     }
 
     /**
-     * Check if the specified input stream is actually a HLL stream
+     * Get estimated cardinality without deserializing HLL
+     * 
+     * @param in
+     *            - serialized HLL, from the buffer's position (the position is
+     *            not changed)
+     * @return - cardinality
+     */
+    public static long getEstimatedCountFromSerializedHLL(ByteBuffer in) {
+        try {
+            return getEstimatedCountFromSerializedHLL(new ByteBufferInputStream(in.duplicate()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get number of hash bits (32, or 64 for 64-bit hashing) without
+     * deserializing HLL
+     * 
+     * @param in
+     *            - serialized HLL, from the buffer's position (the position is
+     *            not changed)
+     * @return
+     */
+    public static int getNumHashBitsFromSerializedHLL(ByteBuffer in) {
+        try {
+            InputStream input = new ByteBufferInputStream(in.duplicate());
+            readMagicString(input);
+            return (input.read() & 8) != 0 ? 64 : 32;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get hash seed without deserializing HLL
+     * 
+     * @param in
+     *            - serialized HLL, from the buffer's position (the position is
+     *            not changed)
+     * @return
+     */
+    public static int getHashSeedFromSerializedHLL(ByteBuffer in) {
+        try {
+            return readMagicString(new ByteBufferInputStream(in.duplicate()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deserializes the registers of a serialized HLL (see serializeHLL()) as
+     * DENSE registers, SPARSE entries applied to them.
+     * 
+     * @param in
+     *            - serialized HLL, from the buffer's position (the position is
+     *            not changed)
+     * @return {@code 2^p} register values
+     */
+    public static byte[] deserializeRegisters(ByteBuffer in) {
+        try {
+            InputStream input = new ByteBufferInputStream(in.duplicate());
+            readMagicString(input);
+            int fourthByte = input.read() & 0xff;
+            int p = fourthByte >>> 4, enc = fourthByte & 7;
+            byte[] register = new byte[1 << p];
+            readVulong(input);
+            if (enc == 0) {
+                int numEntries = (int) readVulong(input);
+                int[] entries = new int[numEntries];
+                int prev = 0;
+                for (int i = 0; i < numEntries; i++) {
+                    prev += (int) readVulong(input);
+                    entries[i] = prev;
+                }
+                mergeSparseToDenseRegister(p, entries, register);
+            } else {
+                int bitWidth = enc == 7 ? 8 : enc;
+                byte[] packed = new byte[register.length / 8 * bitWidth];
+                readFully(input, packed);
+                bitunpack(packed, 0, register, bitWidth);
+            }
+            return register;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the magic string, followed by the hash seed if it is not the
+     * default one.
+     * 
+     * @param out
+     *            - output stream
+     * @param hashSeed
+     * @throws IOException
+     */
+    private static void writeMagicString(OutputStream out, int hashSeed) throws IOException {
+        if (hashSeed == Murmur3.DEFAULT_SEED) {
+            out.write(MAGIC);
+        } else {
+            out.write(SEEDED_MAGIC);
+            out.write(hashSeed >>> 24);
+            out.write(hashSeed >>> 16);
+            out.write(hashSeed >>> 8);
+            out.write(hashSeed);
+        }
+    }
+
+    /**
+     * Number of bytes writeMagicString() writes.
+     * 
+     * @param hashSeed
+     * @return
+     */
+    private static int getMagicStringSize(int hashSeed) {
+        return hashSeed == Murmur3.DEFAULT_SEED ? MAGIC.length : SEEDED_MAGIC.length + 4;
+    }
+
+    /**
+     * Check if the specified input stream is actually a HLL stream, and read
+     * the hash seed
      * 
      * @param in
      *            - input stream
+     * @return hash seed
      * @throws IOException
      */
-    private static void checkMagicString(InputStream in) throws IOException {
+    private static int readMagicString(InputStream in) throws IOException {
         byte[] magic = new byte[3];
         magic[0] = (byte) in.read();
         magic[1] = (byte) in.read();
         magic[2] = (byte) in.read();
 
-        if (!Arrays.equals(magic, MAGIC)) {
+        if (Arrays.equals(magic, MAGIC)) {
+            return Murmur3.DEFAULT_SEED;
+        }
+        if (!Arrays.equals(magic, SEEDED_MAGIC)) {
             throw new IllegalArgumentException("The input stream is not a HyperLogLog stream.");
         }
+        byte[] seed = new byte[4];
+        readFully(in, seed);
+        return (seed[0] & 0xff) << 24 | (seed[1] & 0xff) << 16 | (seed[2] & 0xff) << 8
+                | (seed[3] & 0xff);
     }
 
     /**
@@ -393,6 +1111,22 @@ public class HyperLogLogUtils {
         }
     }
 
+    /**
+     * Number of bytes writeVulong() writes for a value
+     * 
+     * @param value
+     *            - long
+     * @return encoded size
+     */
+    private static int getVulongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
     /**
      * Read variable length encoded longs from input stream
      * 
@@ -416,4 +1150,54 @@ public class HyperLogLogUtils {
         return result;
     }
 
+    /**
+     * Writes to a {@link ByteBuffer}, at its position.
+     */
+    private static class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+
+    /**
+     * Reads from a {@link ByteBuffer}, from its position to its limit.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+
 }
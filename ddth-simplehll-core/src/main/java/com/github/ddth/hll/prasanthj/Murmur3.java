@@ -0,0 +1,406 @@
+package com.github.ddth.hll.prasanthj;
+
+/**
+ * Allocation-free MurmurHash3 (x64_128 and x86_32) that hashes primitives,
+ * byte ranges and character sequences straight to a {@code long}/{@code int}.
+ *
+ * <pre>
+ * Results are bit-compatible with Guava's hash functions:
+ * hash64(..., seed) == Hashing.murmur3_128(seed).newHasher().putXXX(...).hash().asLong()
+ * hash32(..., seed) == Hashing.murmur3_32(seed).newHasher().putXXX(...).hash().asInt()
+ *
+ * Primitives are hashed as their little-endian bytes (same as Guava's putXXX),
+ * character sequences as their UTF-8 bytes (same as putString(value, UTF_8),
+ * unpaired surrogates are encoded as '?' like {@link String#getBytes}).
+ * </pre>
+ */
+public class Murmur3 {
+
+    // default seed, same as Hashing.murmur3_128() and Hashing.murmur3_32()
+    public static final int DEFAULT_SEED = 0;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final int C1_32 = 0xcc9e2d51;
+    private static final int C2_32 = 0x1b873593;
+
+    private Murmur3() {
+    }
+
+    /*----------------------------------------------------------------------*/
+    /* x64_128 */
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Hashes the {@code numBytes} low bytes of a value (little-endian), up to
+     * 8 bytes. Used for boolean (1 byte), byte (1), short (2), char (2), int
+     * (4), float (4), long (8) and double (8) values.
+     *
+     * @param value
+     * @param numBytes
+     * @param seed
+     * @return first 64 bits of MurmurHash3_x64_128
+     */
+    public static long hashLittleEndian64(long value, int numBytes, int seed) {
+        long h1 = seed;
+        long h2 = seed;
+        long k1 = numBytes < 8 ? value & ((1L << (numBytes << 3)) - 1) : value;
+        h1 ^= mixK1(k1);
+        return finish64(h1, h2, numBytes);
+    }
+
+    /**
+     * Hashes a long value (8 bytes, little-endian).
+     *
+     * @param value
+     * @param seed
+     * @return first 64 bits of MurmurHash3_x64_128
+     */
+    public static long hash64(long value, int seed) {
+        return hashLittleEndian64(value, 8, seed);
+    }
+
+    /**
+     * Hashes an int value (4 bytes, little-endian).
+     *
+     * @param value
+     * @param seed
+     * @return first 64 bits of MurmurHash3_x64_128
+     */
+    public static long hash64(int value, int seed) {
+        return hashLittleEndian64(value, 4, seed);
+    }
+
+    /**
+     * Hashes a range of a byte array.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param seed
+     * @return first 64 bits of MurmurHash3_x64_128
+     */
+    public static long hash64(byte[] data, int offset, int length, int seed) {
+        long h1 = seed;
+        long h2 = seed;
+        final int numBlocks = length >>> 4;
+        int pos = offset;
+        for (int i = 0; i < numBlocks; i++, pos += 16) {
+            long k1 = getLongLE(data, pos);
+            long k2 = getLongLE(data, pos + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // tail
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+        case 15:
+            k2 ^= (long) (data[pos + 14] & 0xff) << 48;
+        case 14:
+            k2 ^= (long) (data[pos + 13] & 0xff) << 40;
+        case 13:
+            k2 ^= (long) (data[pos + 12] & 0xff) << 32;
+        case 12:
+            k2 ^= (long) (data[pos + 11] & 0xff) << 24;
+        case 11:
+            k2 ^= (long) (data[pos + 10] & 0xff) << 16;
+        case 10:
+            k2 ^= (long) (data[pos + 9] & 0xff) << 8;
+        case 9:
+            k2 ^= (long) (data[pos + 8] & 0xff);
+        case 8:
+            k1 ^= (long) (data[pos + 7] & 0xff) << 56;
+        case 7:
+            k1 ^= (long) (data[pos + 6] & 0xff) << 48;
+        case 6:
+            k1 ^= (long) (data[pos + 5] & 0xff) << 40;
+        case 5:
+            k1 ^= (long) (data[pos + 4] & 0xff) << 32;
+        case 4:
+            k1 ^= (long) (data[pos + 3] & 0xff) << 24;
+        case 3:
+            k1 ^= (long) (data[pos + 2] & 0xff) << 16;
+        case 2:
+            k1 ^= (long) (data[pos + 1] & 0xff) << 8;
+        case 1:
+            k1 ^= (long) (data[pos] & 0xff);
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+        return finish64(h1, h2, length);
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of a character sequence, without encoding it
+     * to a byte array first.
+     *
+     * @param data
+     * @param seed
+     * @return first 64 bits of MurmurHash3_x64_128
+     */
+    public static long hash64(CharSequence data, int seed) {
+        long h1 = seed;
+        long h2 = seed;
+        long k1 = 0;
+        long k2 = 0;
+        int pos = 0; // number of bytes in current 16-byte block
+        int length = 0;
+        for (int i = 0, n = data.length(); i < n; i++) {
+            // UTF-8 bytes of current character, first byte in lowest 8 bits
+            int utf8;
+            int numBytes;
+            char c = data.charAt(i);
+            if (c < 0x80) {
+                utf8 = c;
+                numBytes = 1;
+            } else if (c < 0x800) {
+                utf8 = (0xc0 | (c >>> 6)) | ((0x80 | (c & 0x3f)) << 8);
+                numBytes = 2;
+            } else if (!Character.isSurrogate(c)) {
+                utf8 = (0xe0 | (c >>> 12)) | ((0x80 | ((c >>> 6) & 0x3f)) << 8)
+                        | ((0x80 | (c & 0x3f)) << 16);
+                numBytes = 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(data.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, data.charAt(++i));
+                utf8 = (0xf0 | (cp >>> 18)) | ((0x80 | ((cp >>> 12) & 0x3f)) << 8)
+                        | ((0x80 | ((cp >>> 6) & 0x3f)) << 16) | ((0x80 | (cp & 0x3f)) << 24);
+                numBytes = 4;
+            } else {
+                utf8 = '?';
+                numBytes = 1;
+            }
+            length += numBytes;
+            for (; numBytes > 0; numBytes--, utf8 >>>= 8) {
+                if (pos < 8) {
+                    k1 |= (long) (utf8 & 0xff) << (pos << 3);
+                } else {
+                    k2 |= (long) (utf8 & 0xff) << ((pos - 8) << 3);
+                }
+                if (++pos == 16) {
+                    h1 ^= mixK1(k1);
+                    h1 = Long.rotateLeft(h1, 27);
+                    h1 += h2;
+                    h1 = h1 * 5 + 0x52dce729;
+                    h2 ^= mixK2(k2);
+                    h2 = Long.rotateLeft(h2, 31);
+                    h2 += h1;
+                    h2 = h2 * 5 + 0x38495ab5;
+                    k1 = 0;
+                    k2 = 0;
+                    pos = 0;
+                }
+            }
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+        return finish64(h1, h2, length);
+    }
+
+    private static long finish64(long h1, long h2, long length) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        // h2 += h1; (second 64 bits of the hash are not needed)
+        return h1;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLongLE(byte[] data, int pos) {
+        return (data[pos] & 0xffL) | (data[pos + 1] & 0xffL) << 8 | (data[pos + 2] & 0xffL) << 16
+                | (data[pos + 3] & 0xffL) << 24 | (data[pos + 4] & 0xffL) << 32
+                | (data[pos + 5] & 0xffL) << 40 | (data[pos + 6] & 0xffL) << 48
+                | (data[pos + 7] & 0xffL) << 56;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /* x86_32 */
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Hashes the {@code numBytes} low bytes of a value (little-endian), up to
+     * 8 bytes.
+     *
+     * @param value
+     * @param numBytes
+     * @param seed
+     * @return MurmurHash3_x86_32
+     */
+    public static int hashLittleEndian32(long value, int numBytes, int seed) {
+        int h1 = seed;
+        if (numBytes >= 4) {
+            h1 = mixH1(h1, mixK1(((int) value)));
+            if (numBytes == 8) {
+                h1 = mixH1(h1, mixK1((int) (value >>> 32)));
+                return fmix32(h1, 8);
+            }
+            value >>>= 32;
+        }
+        int k1 = (int) value & ((1 << ((numBytes & 3) << 3)) - 1);
+        h1 ^= mixK1(k1);
+        return fmix32(h1, numBytes);
+    }
+
+    /**
+     * Hashes a long value (8 bytes, little-endian).
+     *
+     * @param value
+     * @param seed
+     * @return MurmurHash3_x86_32
+     */
+    public static int hash32(long value, int seed) {
+        return hashLittleEndian32(value, 8, seed);
+    }
+
+    /**
+     * Hashes an int value (4 bytes, little-endian).
+     *
+     * @param value
+     * @param seed
+     * @return MurmurHash3_x86_32
+     */
+    public static int hash32(int value, int seed) {
+        return hashLittleEndian32(value, 4, seed);
+    }
+
+    /**
+     * Hashes a range of a byte array.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param seed
+     * @return MurmurHash3_x86_32
+     */
+    public static int hash32(byte[] data, int offset, int length, int seed) {
+        int h1 = seed;
+        final int numBlocks = length >>> 2;
+        int pos = offset;
+        for (int i = 0; i < numBlocks; i++, pos += 4) {
+            int k1 = (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8
+                    | (data[pos + 2] & 0xff) << 16 | (data[pos + 3] & 0xff) << 24;
+            h1 = mixH1(h1, mixK1(k1));
+        }
+        int k1 = 0;
+        switch (length & 3) {
+        case 3:
+            k1 ^= (data[pos + 2] & 0xff) << 16;
+        case 2:
+            k1 ^= (data[pos + 1] & 0xff) << 8;
+        case 1:
+            k1 ^= (data[pos] & 0xff);
+        }
+        h1 ^= mixK1(k1);
+        return fmix32(h1, length);
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of a character sequence, without encoding it
+     * to a byte array first.
+     *
+     * @param data
+     * @param seed
+     * @return MurmurHash3_x86_32
+     */
+    public static int hash32(CharSequence data, int seed) {
+        int h1 = seed;
+        int k1 = 0;
+        int pos = 0; // number of bytes in current 4-byte block
+        int length = 0;
+        for (int i = 0, n = data.length(); i < n; i++) {
+            int utf8;
+            int numBytes;
+            char c = data.charAt(i);
+            if (c < 0x80) {
+                utf8 = c;
+                numBytes = 1;
+            } else if (c < 0x800) {
+                utf8 = (0xc0 | (c >>> 6)) | ((0x80 | (c & 0x3f)) << 8);
+                numBytes = 2;
+            } else if (!Character.isSurrogate(c)) {
+                utf8 = (0xe0 | (c >>> 12)) | ((0x80 | ((c >>> 6) & 0x3f)) << 8)
+                        | ((0x80 | (c & 0x3f)) << 16);
+                numBytes = 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(data.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, data.charAt(++i));
+                utf8 = (0xf0 | (cp >>> 18)) | ((0x80 | ((cp >>> 12) & 0x3f)) << 8)
+                        | ((0x80 | ((cp >>> 6) & 0x3f)) << 16) | ((0x80 | (cp & 0x3f)) << 24);
+                numBytes = 4;
+            } else {
+                utf8 = '?';
+                numBytes = 1;
+            }
+            length += numBytes;
+            for (; numBytes > 0; numBytes--, utf8 >>>= 8) {
+                k1 |= (utf8 & 0xff) << (pos << 3);
+                if (++pos == 4) {
+                    h1 = mixH1(h1, mixK1(k1));
+                    k1 = 0;
+                    pos = 0;
+                }
+            }
+        }
+        h1 ^= mixK1(k1);
+        return fmix32(h1, length);
+    }
+
+    private static int mixK1(int k1) {
+        k1 *= C1_32;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2_32;
+        return k1;
+    }
+
+    private static int mixH1(int h1, int k1) {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+        return h1;
+    }
+
+    private static int fmix32(int h1, int length) {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+}
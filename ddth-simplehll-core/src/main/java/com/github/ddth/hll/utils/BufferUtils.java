@@ -0,0 +1,80 @@
+package com.github.ddth.hll.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Direct buffer helpers, for internal use of this library (e.g. by
+ * {@link com.github.ddth.hll.impl.OffHeapHLL} and {@link HLLArchiveReader}).
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class BufferUtils {
+
+    private BufferUtils() {
+    }
+
+    /**
+     * Methods to release a direct buffer, looked up once (all {@code null} if
+     * the JVM does not allow it).
+     */
+    private static class Cleaner {
+        // Java 9+: Unsafe.invokeCleaner(buffer)
+        final static Object UNSAFE;
+        final static Method INVOKE_CLEANER;
+        // Java 7/8: ((DirectBuffer) buffer).cleaner().clean()
+        final static Method CLEANER, CLEAN;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null, cleaner = null, clean = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                unsafe = field.get(null);
+            } catch (Exception e) {
+                invokeCleaner = null;
+                try {
+                    cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                    clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                } catch (Exception e1) {
+                    cleaner = clean = null;
+                }
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+            CLEANER = cleaner;
+            CLEAN = clean;
+        }
+    }
+
+    /**
+     * Releases the memory of a direct (or mapped) buffer now rather than when
+     * it is garbage collected, if the JVM allows it. The buffer, and any
+     * buffer sharing its memory, must not be used afterwards.
+     * 
+     * @param buffer
+     */
+    public static void free(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        try {
+            if (Cleaner.INVOKE_CLEANER != null) {
+                Cleaner.INVOKE_CLEANER.invoke(Cleaner.UNSAFE, buffer);
+            } else if (Cleaner.CLEANER != null) {
+                Object cleaner = Cleaner.CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    Cleaner.CLEAN.invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            // left to the garbage collector
+        }
+    }
+
+}
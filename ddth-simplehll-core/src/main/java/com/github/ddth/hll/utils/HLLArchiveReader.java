@@ -0,0 +1,530 @@
+package com.github.ddth.hll.utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.github.ddth.hll.IHLL;
+
+/**
+ * Reads an archive of keyed, serialized {@link IHLL}s written by
+ * {@link HLLArchiveWriter}: streaming iteration over all entries, or lookup
+ * of a key by binary search over the memory-mapped index.
+ * 
+ * <p>
+ * Archive format (version 1):
+ * </p>
+ * <ul>
+ * <li>Header, 8 bytes: magic number (0x1981), archive ID (0, not an
+ * {@link HLLUtils} implementation ID), format version (1), flags (1: blocks
+ * are deflated), 3 bytes reserved</li>
+ * <li>Blocks: 4 bytes raw length, 4 bytes stored length, then the stored
+ * bytes (the raw records, compressed by raw deflate if flagged). Records are:
+ * varint key length, key (UTF-8), varint data length, data (output from
+ * {@link HLLUtils#toBytes(IHLL)}). An empty block (raw length {@code 0})
+ * marks the end of the blocks.</li>
+ * <li>Index: one 20-byte slot per entry, sorted by key (unsigned UTF-8
+ * bytes): 8 bytes offset of the entry's block, 4 bytes offset of the data in
+ * the raw block, 4 bytes data length, 4 bytes offset of the key in the key
+ * area; then the key area, the keys in the same order.</li>
+ * <li>Footer, 20 bytes: 8 bytes offset of the index, 4 bytes number of
+ * entries, 4 bytes length of the key area, magic number, archive ID and
+ * format version again.</li>
+ * </ul>
+ * 
+ * <p>
+ * Integers are big-endian, varints are unsigned LEB128. Blocks are read
+ * (and inflated) on lookup; the last block read is kept, so lookups of keys
+ * written close together are cheap. The index must be smaller than 2GB, the
+ * archive can be larger.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class HLLArchiveReader implements Closeable, Iterable<Map.Entry<String, byte[]>> {
+
+    final static byte[] MAGIC_BYTES = { 19, 81 };
+    final static byte ARCHIVE_ID = 0;
+    final static byte VERSION = 1;
+    final static byte FLAG_DEFLATE = 1;
+    final static int HEADER_SIZE = 8, FOOTER_SIZE = 20, SLOT_SIZE = 20;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private File file;
+    private RandomAccessFile raf;
+    private MappedByteBuffer index;
+    private boolean deflate;
+    private int numEntries;
+
+    private Inflater inflater;
+    private long cachedBlockOffset = -1;
+    private byte[] cachedBlock;
+
+    public HLLArchiveReader(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Opens the file, checks its header and footer, and maps the index.
+     * 
+     * @return
+     */
+    public HLLArchiveReader init() {
+        close();
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            final long length = raf.length();
+            if (length < HEADER_SIZE + 8 + FOOTER_SIZE) {
+                throw new IllegalArgumentException("File [" + file + "] is truncated!");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            deflate = checkHeader(header);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            readFully(channel, footer, length - FOOTER_SIZE);
+            if (footer.get(16) != MAGIC_BYTES[0] || footer.get(17) != MAGIC_BYTES[1]
+                    || footer.get(18) != ARCHIVE_ID || footer.get(19) != VERSION) {
+                throw new IllegalArgumentException(
+                        "Invalid footer in file [" + file + "], the archive may be truncated!");
+            }
+            final long indexOffset = footer.getLong(0);
+            numEntries = footer.getInt(8);
+            final long indexSize = (long) numEntries * SLOT_SIZE + footer.getInt(12);
+            if (indexOffset < HEADER_SIZE || indexOffset + indexSize != length - FOOTER_SIZE) {
+                throw new IllegalArgumentException("Invalid index in file [" + file + "]!");
+            }
+            if (indexSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "Index of file [" + file + "] is too large to be mapped!");
+            }
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexSize);
+            if (deflate) {
+                inflater = new Inflater(true);
+            }
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Unmaps the index and closes the file.
+     */
+    @Override
+    public void close() {
+        MappedByteBuffer index = this.index;
+        this.index = null;
+        if (index != null) {
+            BufferUtils.free(index);
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        cachedBlockOffset = -1;
+        cachedBlock = null;
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                raf = null;
+            }
+        }
+    }
+
+    private void ensureInitialized() {
+        if (index == null) {
+            throw new IllegalStateException();
+        }
+    }
+
+    public boolean isDeflate() {
+        ensureInitialized();
+        return deflate;
+    }
+
+    /**
+     * Gets the number of entries.
+     * 
+     * @return
+     */
+    public int size() {
+        ensureInitialized();
+        return numEntries;
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of file [" + position + "]!");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * @param header
+     * @return {@code true} if blocks are deflated
+     */
+    private static boolean checkHeader(ByteBuffer header) {
+        if (header.get(0) != MAGIC_BYTES[0] || header.get(1) != MAGIC_BYTES[1]
+                || header.get(2) != ARCHIVE_ID) {
+            throw new IllegalArgumentException("Invalid data signature [" + header.get(0) + ","
+                    + header.get(1) + "," + header.get(2) + "]!");
+        }
+        if (header.get(3) != VERSION) {
+            throw new IllegalArgumentException(
+                    "Unsupported format version [" + header.get(3) + "]!");
+        }
+        return (header.get(4) & FLAG_DEFLATE) != 0;
+    }
+
+    /**
+     * Compares keys by their unsigned UTF-8 bytes, the order of the index.
+     * 
+     * @param a
+     * @param b
+     * @return
+     */
+    static int compareKeys(byte[] a, byte[] b) {
+        final int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) {
+                return (a[i] & 0xFF) - (b[i] & 0xFF);
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Compares the key of index slot {@code i} with a key.
+     * 
+     * @param i
+     * @param key
+     * @return
+     */
+    private int compareSlotKey(int i, byte[] key) {
+        final int keyArea = numEntries * SLOT_SIZE;
+        final int start = keyArea + index.getInt(i * SLOT_SIZE + 16);
+        final int end = i + 1 < numEntries ? keyArea + index.getInt((i + 1) * SLOT_SIZE + 16)
+                : index.capacity();
+        final int n = Math.min(end - start, key.length);
+        for (int j = 0; j < n; j++) {
+            final int a = index.get(start + j) & 0xFF, b = key[j] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return (end - start) - key.length;
+    }
+
+    /**
+     * Binary search over the index.
+     * 
+     * @param key
+     * @return slot of the key, or {@code -1} if not found
+     */
+    private int findSlot(String key) {
+        ensureInitialized();
+        final byte[] keyBytes = key.getBytes(UTF8);
+        int low = 0, high = numEntries - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareSlotKey(mid, keyBytes);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a key exists in the archive.
+     * 
+     * @param key
+     * @return
+     */
+    public boolean contains(String key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * Gets the serialized {@link IHLL} (output from
+     * {@link HLLUtils#toBytes(IHLL)}) of a key.
+     * 
+     * @param key
+     * @return {@code null} if the key does not exist
+     */
+    public byte[] getBytes(String key) {
+        final int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        final long blockOffset = index.getLong(slot * SLOT_SIZE);
+        final int dataOffset = index.getInt(slot * SLOT_SIZE + 8);
+        final int dataLength = index.getInt(slot * SLOT_SIZE + 12);
+        try {
+            byte[] result = new byte[dataLength];
+            if (!deflate) {
+                // raw records: read the data only
+                readFully(raf.getChannel(), ByteBuffer.wrap(result), blockOffset + 8 + dataOffset);
+            } else {
+                System.arraycopy(readBlock(blockOffset), dataOffset, result, 0, dataLength);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets the {@link IHLL} of a key.
+     * 
+     * @param key
+     * @return {@code null} if the key does not exist
+     */
+    public IHLL get(String key) {
+        byte[] data = getBytes(key);
+        return data != null ? HLLUtils.fromBytes(data) : null;
+    }
+
+    /**
+     * Reads and inflates a block, or gets it from the cache.
+     * 
+     * @param blockOffset
+     * @return raw records
+     * @throws IOException
+     */
+    private byte[] readBlock(long blockOffset) throws IOException {
+        if (blockOffset != cachedBlockOffset) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(8);
+            readFully(channel, header, blockOffset);
+            final int rawLength = header.getInt(0), storedLength = header.getInt(4);
+            ByteBuffer stored = ByteBuffer.allocate(storedLength);
+            readFully(channel, stored, blockOffset + 8);
+            cachedBlock = inflate(inflater, stored.array(), storedLength, rawLength);
+            cachedBlockOffset = blockOffset;
+        }
+        return cachedBlock;
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] stored, int storedLength,
+            int rawLength) throws IOException {
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(stored, 0, storedLength);
+        try {
+            int n = 0;
+            while (n < rawLength) {
+                final int m = inflater.inflate(raw, n, rawLength - n);
+                if (m == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Corrupted block, " + n + " of " + rawLength
+                            + " bytes inflated!");
+                }
+                n += m;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        return raw;
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Iterates over all entries (key, serialized {@link IHLL}) of the
+     * archive in the order they were written, reading the blocks
+     * sequentially.
+     * 
+     * <p>
+     * The returned iterator reads the file through the reader's file
+     * channel and inflates blocks with the reader's {@link Inflater}: iterate
+     * one at a time, and not after this reader is closed.
+     * </p>
+     * 
+     * @return
+     */
+    @Override
+    public Iterator<Map.Entry<String, byte[]>> iterator() {
+        ensureInitialized();
+        try {
+            return iterator(Channels.newInputStream(raf.getChannel().position(0)), inflater);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Iterates over all entries (key, serialized {@link IHLL}) of an archive
+     * read from a stream (e.g. while it is being restored), in the order they
+     * were written. The index is not read: the stream is consumed up to the
+     * end of the blocks, and is not closed.
+     * 
+     * <p>
+     * Each deflated block is inflated by an {@link Inflater} of its own,
+     * released right away: the iterator holds no native memory, and can be
+     * dropped before the end.
+     * </p>
+     * 
+     * @param in
+     * @return
+     */
+    public static Iterator<Map.Entry<String, byte[]>> iterator(InputStream in) {
+        return iterator(in, null);
+    }
+
+    /**
+     * @param in
+     * @param inflater
+     *            to inflate blocks with, {@code null} to use one per block
+     * @return
+     */
+    private static Iterator<Map.Entry<String, byte[]>> iterator(InputStream in,
+            Inflater inflater) {
+        final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(in, 64 * 1024));
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            input.readFully(header);
+            final boolean deflate = checkHeader(ByteBuffer.wrap(header));
+            return new BlockIterator(input, deflate, inflater);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the blocks of an archive one at a time.
+     */
+    private static class BlockIterator implements Iterator<Map.Entry<String, byte[]>> {
+        private final DataInputStream input;
+        private final boolean deflate;
+        // not owned, null to use one per block
+        private final Inflater inflater;
+        private ByteBuffer block;
+        private boolean done;
+
+        BlockIterator(DataInputStream input, boolean deflate, Inflater inflater) {
+            this.input = input;
+            this.deflate = deflate;
+            this.inflater = inflater;
+        }
+
+        private static int readVarInt(ByteBuffer buffer) {
+            int result = 0;
+            for (int shift = 0;; shift += 7) {
+                final int b = buffer.get();
+                result |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+        }
+
+        /**
+         * @return {@code false} at the end of the blocks
+         */
+        private boolean nextBlock() throws IOException {
+            final int rawLength, storedLength;
+            try {
+                rawLength = input.readInt();
+                storedLength = input.readInt();
+            } catch (EOFException e) {
+                throw new IOException("Unexpected end of archive, it may be truncated!", e);
+            }
+            if (rawLength == 0) {
+                done = true;
+                return false;
+            }
+            byte[] stored = new byte[storedLength];
+            input.readFully(stored);
+            if (!deflate) {
+                block = ByteBuffer.wrap(stored);
+            } else if (inflater != null) {
+                block = ByteBuffer.wrap(inflate(inflater, stored, storedLength, rawLength));
+            } else {
+                Inflater blockInflater = new Inflater(true);
+                try {
+                    block = ByteBuffer
+                            .wrap(inflate(blockInflater, stored, storedLength, rawLength));
+                } finally {
+                    blockInflater.end();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (done) {
+                return false;
+            }
+            try {
+                return (block != null && block.hasRemaining()) || nextBlock();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            byte[] key = new byte[readVarInt(block)];
+            block.get(key);
+            byte[] data = new byte[readVarInt(block)];
+            block.get(data);
+            return new AbstractMap.SimpleImmutableEntry<String, byte[]>(new String(key, UTF8),
+                    data);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
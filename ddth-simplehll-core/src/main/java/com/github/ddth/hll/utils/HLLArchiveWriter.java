@@ -0,0 +1,298 @@
+package com.github.ddth.hll.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import com.github.ddth.hll.IHLL;
+
+/**
+ * Writes many keyed, serialized {@link IHLL}s into one archive, sequentially
+ * (see {@link HLLArchiveReader} for the format).
+ * 
+ * <p>
+ * Entries can be added in any order: they are written in blocks as they come,
+ * and only the index (key, block offset, offset and length in the block) is
+ * kept in memory, to be sorted and written by {@link #close()}.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class HLLArchiveWriter implements Closeable {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private OutputStream out;
+    private boolean deflate;
+    private int blockSize = 64 * 1024;
+
+    private long position;
+    private byte[] block, stored;
+    private int blockLength;
+    private Deflater deflater;
+    private List<IndexEntry> index;
+    // added keys and their total length, checked as they are added so that
+    // close() cannot fail half way through
+    private Set<String> keys;
+    private long keysLength;
+
+    private static class IndexEntry {
+        final byte[] key;
+        final long blockOffset;
+        final int dataOffset, dataLength;
+
+        IndexEntry(byte[] key, long blockOffset, int dataOffset, int dataLength) {
+            this.key = key;
+            this.blockOffset = blockOffset;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+    }
+
+    private final static Comparator<IndexEntry> KEY_ORDER = new Comparator<IndexEntry>() {
+        @Override
+        public int compare(IndexEntry a, IndexEntry b) {
+            return HLLArchiveReader.compareKeys(a.key, b.key);
+        }
+    };
+
+    /**
+     * @param out
+     *            stream to write the archive to, closed by {@link #close()}
+     * @param deflate
+     *            {@code true} to compress blocks
+     */
+    public HLLArchiveWriter(OutputStream out, boolean deflate) {
+        this.out = out;
+        this.deflate = deflate;
+    }
+
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the size of blocks before compression (default 64KB). Larger blocks
+     * compress better, smaller blocks make lookups of compressed archives
+     * cheaper. An entry larger than the block size takes a block of its own.
+     * 
+     * @param blockSize
+     * @return
+     */
+    public HLLArchiveWriter setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Writes the archive header.
+     * 
+     * @return
+     */
+    public HLLArchiveWriter init() {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        out = new BufferedOutputStream(out, 64 * 1024);
+        block = new byte[blockSize];
+        blockLength = 0;
+        index = new ArrayList<IndexEntry>();
+        keys = new HashSet<String>();
+        keysLength = 0;
+        if (deflate) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HLLArchiveReader.HEADER_SIZE);
+        header.put(HLLArchiveReader.MAGIC_BYTES).put(HLLArchiveReader.ARCHIVE_ID)
+                .put(HLLArchiveReader.VERSION)
+                .put(deflate ? HLLArchiveReader.FLAG_DEFLATE : 0);
+        write(header.array(), 0, header.capacity());
+        return this;
+    }
+
+    private void write(byte[] data, int offset, int length) {
+        try {
+            out.write(data, offset, length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        position += length;
+    }
+
+    private void ensureBlockCapacity(int length) {
+        if (blockLength + length > block.length) {
+            block = Arrays.copyOf(block, Math.max(blockLength + length, block.length * 2));
+        }
+    }
+
+    private void putVarInt(int value) {
+        ensureBlockCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            block[blockLength++] = (byte) (0x80 | (value & 0x7F));
+            value >>>= 7;
+        }
+        block[blockLength++] = (byte) value;
+    }
+
+    /**
+     * Adds a {@link IHLL}, serialized by {@link HLLUtils#toBytes(IHLL)}.
+     * 
+     * @param key
+     * @param hll
+     * @return
+     */
+    public HLLArchiveWriter add(String key, IHLL hll) {
+        return add(key, HLLUtils.toBytes(hll));
+    }
+
+    /**
+     * Adds a serialized {@link IHLL} (output from
+     * {@link HLLUtils#toBytes(IHLL)}) as is.
+     * 
+     * @param key
+     * @param data
+     * @return
+     * @throws IllegalArgumentException
+     *             if the key has already been added, the keys are too long
+     *             in total, or the data is not serialized by
+     *             {@link HLLUtils#toBytes(IHLL)}
+     */
+    public HLLArchiveWriter add(String key, byte[] data) {
+        if (index == null) {
+            throw new IllegalStateException();
+        }
+        if (data.length < 3 || data[0] != HLLArchiveReader.MAGIC_BYTES[0]
+                || data[1] != HLLArchiveReader.MAGIC_BYTES[1]) {
+            throw new IllegalArgumentException("Data of key [" + key
+                    + "] is not output from HLLUtils.toBytes(IHLL)!");
+        }
+        byte[] keyBytes = key.getBytes(UTF8);
+        if (keysLength + keyBytes.length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Keys are too long!");
+        }
+        if (!keys.add(key)) {
+            throw new IllegalArgumentException("Duplicated key [" + key + "]!");
+        }
+        keysLength += keyBytes.length;
+        if (blockLength > 0 && blockLength + data.length > blockSize) {
+            flushBlock();
+        }
+        putVarInt(keyBytes.length);
+        ensureBlockCapacity(keyBytes.length);
+        System.arraycopy(keyBytes, 0, block, blockLength, keyBytes.length);
+        blockLength += keyBytes.length;
+        putVarInt(data.length);
+        ensureBlockCapacity(data.length);
+        index.add(new IndexEntry(keyBytes, position, blockLength, data.length));
+        System.arraycopy(data, 0, block, blockLength, data.length);
+        blockLength += data.length;
+        return this;
+    }
+
+    /**
+     * Writes the current block: raw length, stored length, then the (maybe
+     * compressed) records.
+     */
+    private void flushBlock() {
+        byte[] data = block;
+        int length = blockLength;
+        if (deflate) {
+            deflater.reset();
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            if (stored == null || stored.length < blockLength + 64) {
+                stored = new byte[blockLength + blockLength / 8 + 64];
+            }
+            length = 0;
+            while (!deflater.finished()) {
+                if (length == stored.length) {
+                    stored = Arrays.copyOf(stored, stored.length * 2);
+                }
+                length += deflater.deflate(stored, length, stored.length - length);
+            }
+            data = stored;
+        }
+        byte[] header = ByteBuffer.allocate(8).putInt(blockLength).putInt(length).array();
+        write(header, 0, header.length);
+        write(data, 0, length);
+        blockLength = 0;
+    }
+
+    /**
+     * Writes the last block, the end-of-blocks marker, the sorted index and
+     * the footer, then closes the underlying stream.
+     */
+    @Override
+    public void close() {
+        if (index == null) {
+            return;
+        }
+        try {
+            if (blockLength > 0) {
+                flushBlock();
+            }
+            // end-of-blocks marker: an empty block
+            write(new byte[8], 0, 8);
+
+            final long indexOffset = position;
+            final int n = index.size();
+            Collections.sort(index, KEY_ORDER);
+            ByteBuffer slot = ByteBuffer.allocate(HLLArchiveReader.SLOT_SIZE);
+            int keyOffset = 0;
+            for (int i = 0; i < n; i++) {
+                IndexEntry entry = index.get(i);
+                slot.clear();
+                slot.putLong(entry.blockOffset).putInt(entry.dataOffset)
+                        .putInt(entry.dataLength).putInt(keyOffset);
+                write(slot.array(), 0, slot.capacity());
+                keyOffset += entry.key.length;
+            }
+            for (IndexEntry entry : index) {
+                write(entry.key, 0, entry.key.length);
+            }
+
+            ByteBuffer footer = ByteBuffer.allocate(HLLArchiveReader.FOOTER_SIZE);
+            footer.putLong(indexOffset).putInt(n).putInt((int) keysLength)
+                    .put(HLLArchiveReader.MAGIC_BYTES).put(HLLArchiveReader.ARCHIVE_ID)
+                    .put(HLLArchiveReader.VERSION);
+            write(footer.array(), 0, footer.capacity());
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            index = null;
+            keys = null;
+            block = stored = null;
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
@@ -1,11 +1,24 @@
 package com.github.ddth.hll.utils;
 
-import java.util.Arrays;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.github.ddth.hll.HLLRegisters;
 import com.github.ddth.hll.IHLL;
 import com.github.ddth.hll.impl.AkHLL;
 import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.OffHeapHLL;
 import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.impl.ShardedHLL;
+import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
+import com.github.ddth.hll.prasanthj.Murmur3;
 
 /**
  * @author Thanh Nguyen <btnguyen2k@gmail.com>
@@ -24,10 +37,16 @@ public class HLLUtils {
      * <ul>
      * <li>First 2 bytes: magic number (0x1981)</li>
      * <li>Next 1 byte: HLL implementation ID. {@link PjHLL}: 1, {@link AkHLL}:
-     * 2, {@link AtsHLL}: 3</li>
+     * 2, {@link AtsHLL}: 3, {@link ConcurrentHLL}: 4, {@link OffHeapHLL}:
+     * 5, {@link DdthHLL}: 6</li>
      * <li>Next n bytes: result from {@link IHLL#toBytes()}</li>
      * </ul>
      * 
+     * <p>
+     * A {@link ShardedHLL} is serialized as its merged view, i.e. as an
+     * {@link IHLL} of its shards' type.
+     * </p>
+     * 
      * @param hll
      * @return
      */
@@ -35,23 +54,89 @@ public class HLLUtils {
         if (hll == null) {
             return null;
         }
-        byte[] hllBytes = hll.toBytes();
-        byte[] result = new byte[hllBytes.length + 3];
-        result[0] = MAGIC_BYTES[0];
-        result[1] = MAGIC_BYTES[1];
+        if (hll instanceof ShardedHLL) {
+            hll = ((ShardedHLL) hll).snapshot();
+        }
+        byte[] result = new byte[hll.serializedSize() + 3];
+        writeTo(hll, ByteBuffer.wrap(result));
+        return result;
+    }
+
+    /**
+     * Gets the number of bytes {@link #toBytes(IHLL)} and
+     * {@link #writeTo(IHLL, ByteBuffer)} output.
+     * 
+     * @param hll
+     * @return
+     * @since 0.1.3
+     */
+    public static int serializedSize(IHLL hll) {
+        return hll.serializedSize() + 3;
+    }
+
+    /**
+     * Serializes a {@link IHLL} into a buffer, at its position, in the format
+     * of {@link #toBytes(IHLL)}. The position is advanced by the number of
+     * bytes written.
+     * 
+     * @param hll
+     * @param buffer
+     * @return number of bytes written
+     * @throws java.nio.BufferOverflowException
+     *             if fewer than {@link #serializedSize(IHLL)} bytes remain in
+     *             {@code buffer}
+     * @since 0.1.3
+     */
+    public static int writeTo(IHLL hll, ByteBuffer buffer) {
+        if (hll instanceof ShardedHLL) {
+            hll = ((ShardedHLL) hll).snapshot();
+        }
+        byte id = implementationId(hll);
+        int start = buffer.position();
+        buffer.put(MAGIC_BYTES).put(id);
+        hll.writeTo(buffer);
+        return buffer.position() - start;
+    }
+
+    /**
+     * Serializes a {@link IHLL} to a channel, in the format of
+     * {@link #toBytes(IHLL)}.
+     * 
+     * @param hll
+     * @param channel
+     * @return number of bytes written
+     * @throws IOException
+     * @since 0.1.3
+     */
+    public static int writeTo(IHLL hll, WritableByteChannel channel) throws IOException {
+        if (hll instanceof ShardedHLL) {
+            hll = ((ShardedHLL) hll).snapshot();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(serializedSize(hll));
+        writeTo(hll, buffer);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return buffer.limit();
+    }
+
+    private static byte implementationId(IHLL hll) {
         if (hll instanceof PjHLL) {
-            result[2] = 1;
+            return 1;
         } else if (hll instanceof AkHLL) {
-            result[2] = 2;
+            return 2;
         } else if (hll instanceof AtsHLL) {
-            result[2] = 3;
+            return 3;
+        } else if (hll instanceof ConcurrentHLL) {
+            return 4;
+        } else if (hll instanceof OffHeapHLL) {
+            return 5;
+        } else if (hll instanceof DdthHLL) {
+            return 6;
         } else {
             throw new IllegalArgumentException("Unsupported class [" + hll.getClass() + "]!");
         }
-        for (int i = 0; i < hllBytes.length; i++) {
-            result[i + 3] = hllBytes[i];
-        }
-        return result;
     }
 
     /**
@@ -64,23 +149,447 @@ public class HLLUtils {
         if (data == null) {
             return null;
         }
-        if (data.length < 4) {
+        return readFrom(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Deserializes a {@link IHLL} from the bytes between a buffer's position
+     * and limit (output from {@link #toBytes(IHLL)} or
+     * {@link #writeTo(IHLL, ByteBuffer)}). The position is advanced to the
+     * limit.
+     * 
+     * @param buffer
+     * @return
+     * @since 0.1.3
+     */
+    public static IHLL readFrom(ByteBuffer buffer) {
+        int pos = buffer.position();
+        IHLL hll = newInstance(implementationId(buffer));
+        buffer.position(pos + 3);
+        return hll.readFrom(buffer);
+    }
+
+    /**
+     * Creates an uninitialized {@link IHLL} of an implementation ID.
+     * 
+     * @param id
+     * @return
+     */
+    private static IHLL newInstance(byte id) {
+        switch (id) {
+        case 1:
+            return new PjHLL();
+        case 2:
+            return new AkHLL();
+        case 3:
+            return new AtsHLL();
+        case 4:
+            return new ConcurrentHLL();
+        case 5:
+            return new OffHeapHLL();
+        case 6:
+            return new DdthHLL();
+        default:
+            throw new IllegalArgumentException("Unsupported HLL implementation [" + id + "]!");
+        }
+    }
+
+    /**
+     * Checks the signature of serialized data, from a buffer's position.
+     * 
+     * @param buffer
+     * @return HLL implementation ID
+     */
+    private static byte implementationId(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
             throw new IllegalArgumentException();
         }
-        if (data[0] != MAGIC_BYTES[0] || data[1] != MAGIC_BYTES[1]) {
+        int pos = buffer.position();
+        byte magic0 = buffer.get(pos), magic1 = buffer.get(pos + 1);
+        if (magic0 != MAGIC_BYTES[0] || magic1 != MAGIC_BYTES[1]) {
             throw new IllegalArgumentException(
-                    "Invalid data signature [" + data[0] + "," + data[1] + "]!");
+                    "Invalid data signature [" + magic0 + "," + magic1 + "]!");
         }
-        switch (data[2]) {
+        return buffer.get(pos + 2);
+    }
+
+    /**
+     * Gets the estimated count stored in serialized data (output from
+     * {@link #toBytes(IHLL)}), without deserializing it.
+     * 
+     * <p>
+     * {@link PjHLL}, {@link ConcurrentHLL}, {@link OffHeapHLL} and
+     * {@link DdthHLL} store the value of {@link IHLL#count()} at the time of
+     * serialization. {@link AkHLL} and {@link AtsHLL} do not store an
+     * estimate.
+     * </p>
+     * 
+     * @param data
+     * @return the stored estimate, or {@code -1} if the format does not store
+     *         one
+     * @since 0.1.3
+     */
+    public static long peekCount(byte[] data) {
+        return peekCount(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Gets the estimated count stored in serialized data, from a buffer's
+     * position (the position is not changed). See {@link #peekCount(byte[])}.
+     * 
+     * @param buffer
+     * @return the stored estimate, or {@code -1} if the format does not store
+     *         one
+     * @since 0.1.3
+     */
+    public static long peekCount(ByteBuffer buffer) {
+        byte id = implementationId(buffer);
+        switch (id) {
         case 1:
-            return new PjHLL().init(Arrays.copyOfRange(data, 3, data.length));
+        case 4:
+        case 5:
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(payload.position() + 3);
+            return HyperLogLogUtils.getEstimatedCountFromSerializedHLL(payload);
+        case 6:
+            payload = buffer.duplicate();
+            payload.position(payload.position() + 3);
+            return DdthHLL.peekCount(payload);
         case 2:
-            return new AkHLL().init(Arrays.copyOfRange(data, 3, data.length));
         case 3:
-            return new AtsHLL().init(Arrays.copyOfRange(data, 3, data.length));
+            return -1;
+        default:
+            throw new IllegalArgumentException("Unsupported HLL implementation [" + id + "]!");
+        }
+    }
+
+    /**
+     * Merges serialized {@link IHLL}s (output from {@link #toBytes(IHLL)})
+     * into serialized form, see {@link #mergeBytes(Iterable)}.
+     * 
+     * @param data
+     * @return
+     * @since 0.1.3
+     */
+    public static byte[] mergeBytes(byte[]... data) {
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(data.length);
+        for (byte[] item : data) {
+            buffers.add(ByteBuffer.wrap(item));
+        }
+        return mergeBytes(buffers);
+    }
+
+    /**
+     * Merges serialized {@link IHLL}s (output from {@link #toBytes(IHLL)}),
+     * each from the buffer's position to its limit (the positions are not
+     * changed), into serialized form.
+     * 
+     * <p>
+     * {@link PjHLL}, {@link ConcurrentHLL} and {@link OffHeapHLL} data (which
+     * can be mixed) are merged directly in their wire format, without
+     * deserializing them; the result has the first one's implementation ID
+     * and is the same as a {@link PjHLL} would serialize after merging them.
+     * {@link AkHLL} data is merged directly too if any of them is SPARSE or
+     * FULL (see {@link AkHLL#mergeBytes(Iterable)}). {@link AtsHLL} and
+     * {@link DdthHLL} data is merged by deserializing it.
+     * </p>
+     * 
+     * @param data
+     * @return
+     * @throws IllegalArgumentException
+     *             if there is no data, or the {@link IHLL}s cannot be merged
+     * @since 0.1.3
+     */
+    public static byte[] mergeBytes(Iterable<ByteBuffer> data) {
+        List<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+        byte firstId = 0;
+        for (ByteBuffer buffer : data) {
+            byte id = implementationId(buffer);
+            if (firstId == 0) {
+                firstId = id;
+            } else if (family(id) != family(firstId)) {
+                throw new IllegalArgumentException("HLL implementations [" + firstId + "] and ["
+                        + id + "] cannot be merged!");
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(payload.position() + 3);
+            payloads.add(payload);
+        }
+        if (firstId == 0) {
+            throw new IllegalArgumentException("No data to merge!");
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC_BYTES[0]);
+        out.write(MAGIC_BYTES[1]);
+        out.write(firstId);
+        try {
+            switch (family(firstId)) {
+            case 1:
+                HyperLogLogUtils.mergeSerializedHLL(out, payloads);
+                break;
+            case 2:
+                out.write(AkHLL.mergeBytes(payloads));
+                break;
+            default:
+                // same implementation ID for all
+                IHLL result = null;
+                for (ByteBuffer payload : payloads) {
+                    IHLL hll = newInstance(firstId).readFrom(payload);
+                    result = result == null ? hll : result.merge(hll);
+                }
+                return toBytes(result);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Gets the registers of a {@link IHLL}, in canonical form (see
+     * {@link HLLRegisters}).
+     * 
+     * <ul>
+     * <li>{@link PjHLL}, {@link ConcurrentHLL}, {@link OffHeapHLL}:
+     * {@link HLLRegisters#MURMUR3_64} (or {@link HLLRegisters#MURMUR3_32} with
+     * 32-bit hashing), the hyperloglog's seed ({@link Murmur3#DEFAULT_SEED}
+     * unless set).</li>
+     * <li>{@link AkHLL}: {@link HLLRegisters#MURMUR3_64}, the {@link AkHLL}'s
+     * seed.</li>
+     * <li>{@link DdthHLL}: {@link HLLRegisters#MURMUR3_64}, seed
+     * {@link Murmur3#DEFAULT_SEED}.</li>
+     * <li>{@link AtsHLL}: {@link HLLRegisters#MURMUR2_32}, registers reordered
+     * to canonical order.</li>
+     * </ul>
+     * 
+     * <p>
+     * A {@link ShardedHLL}'s registers are those of its merged view.
+     * </p>
+     * 
+     * @param hll
+     * @return
+     * @since 0.1.3
+     */
+    public static HLLRegisters toRegisters(IHLL hll) {
+        byte[] data = toBytes(hll);
+        ByteBuffer payload = ByteBuffer.wrap(data, 3, data.length - 3);
+        switch (family(data[2])) {
+        case 1:
+            String hashFunction = HyperLogLogUtils.getNumHashBitsFromSerializedHLL(payload) > 32
+                    ? HLLRegisters.MURMUR3_64 : HLLRegisters.MURMUR3_32;
+            return new HLLRegisters(hashFunction,
+                    HyperLogLogUtils.getHashSeedFromSerializedHLL(payload),
+                    HyperLogLogUtils.deserializeRegisters(payload));
+        case 2:
+            return AkHLL.deserializeRegisters(payload);
+        case 3:
+            return AtsHLL.deserializeRegisters(payload);
+        case 6:
+            return DdthHLL.deserializeRegisters(payload);
         default:
             throw new IllegalArgumentException("Unsupported HLL implementation [" + data[2] + "]!");
         }
     }
 
+    /**
+     * Creates a {@link IHLL} of the specified class (with a no-argument
+     * constructor, not {@link ShardedHLL}) from registers. See
+     * {@link #convert(IHLL, Class)} for caveats.
+     * 
+     * <p>
+     * An {@link AkHLL} gets the default register width (4 bits), or a wider
+     * one if needed to store the largest register value.
+     * </p>
+     * 
+     * @param registers
+     * @param clazz
+     * @return
+     * @throws IllegalArgumentException
+     *             if the class is not supported or the number of registers is
+     *             out of its range
+     * @since 0.1.3
+     */
+    public static IHLL fromRegisters(HLLRegisters registers, Class<? extends IHLL> clazz) {
+        return fromRegisters(registers, clazz, null);
+    }
+
+    /**
+     * @param registers
+     * @param clazz
+     * @param template
+     *            {@link IHLL} to take the {@link AkHLL} register width from,
+     *            {@code null} to use the default one
+     * @return
+     */
+    private static IHLL fromRegisters(HLLRegisters registers, Class<? extends IHLL> clazz,
+            IHLL template) {
+        IHLL hll;
+        try {
+            hll = clazz.getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            // no accessible no-arg constructor
+            throw new IllegalArgumentException("Unsupported class [" + clazz + "]!", e);
+        }
+        byte[] data;
+        switch (implementationId(hll)) {
+        case 1:
+        case 4:
+        case 5:
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                HyperLogLogUtils.serializeRegisters(out,
+                        HLLRegisters.MURMUR3_32.equals(registers.getHashFunction()) ? 32 : 64,
+                        registers.getHashSeed(), registers.getRegisters());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            data = out.toByteArray();
+            break;
+        case 2:
+            int regWidth;
+            if (template instanceof AkHLL) {
+                regWidth = ((AkHLL) template).getRegWidth();
+            } else {
+                int max = 0;
+                for (byte value : registers.getRegisters()) {
+                    max = Math.max(max, value & 0xFF);
+                }
+                regWidth = Math.max(4, 32 - Integer.numberOfLeadingZeros(max));
+            }
+            data = AkHLL.serializeRegisters(registers, regWidth);
+            break;
+        case 3:
+            data = AtsHLL.serializeRegisters(registers);
+            break;
+        default:
+            data = DdthHLL.serializeRegisters(registers);
+            break;
+        }
+        return hll.init(data);
+    }
+
+    /**
+     * Converts a {@link IHLL} to another implementation, with the same number
+     * of registers. See {@link #convert(IHLL, Class, int)}.
+     * 
+     * @param hll
+     * @param clazz
+     * @return
+     * @since 0.1.3
+     */
+    public static IHLL convert(IHLL hll, Class<? extends IHLL> clazz) {
+        return fromRegisters(toRegisters(hll), clazz);
+    }
+
+    /**
+     * Converts a {@link IHLL} to another implementation (see
+     * {@link #fromRegisters(HLLRegisters, Class)}), folding its registers to
+     * {@code numRegisterIndexBits}. The source {@link IHLL} is not changed.
+     * 
+     * <p>
+     * The registers are kept as they are, so the converted {@link IHLL} counts
+     * about the same as the source one (estimators differ slightly between
+     * implementations). Caveats:
+     * </p>
+     * <ul>
+     * <li>Items added afterwards are hashed by the target implementation. If
+     * its hash differs from the source's (e.g. {@link AtsHLL} vs others, or
+     * {@link AkHLL} with a non-default seed vs {@link PjHLL}), items added
+     * before and after the conversion are not recognized as the same and
+     * are counted twice. {@link PjHLL} (64-bit hashing), {@link AkHLL}
+     * (default seed) and {@link DdthHLL} hash {@code long}, {@code String},
+     * {@code byte[]} and {@code double} items the same; {@link PjHLL} hashes
+     * {@code int}, {@code short}, {@code byte} and {@code char} items as
+     * their own size, the others as {@code long}.</li>
+     * <li>{@link AkHLL} caps register values at {@code 2^regWidth - 1},
+     * {@link AtsHLL} at {@code 31}: large cardinalities are underestimated
+     * after converting to them, as they would have been counted by them in
+     * the first place.</li>
+     * <li>{@link AtsHLL} hashes items to 32 bits: its registers hold smaller
+     * values than 64-bit ones for the same cardinality, and its counts
+     * saturate well below {@code 2^32}.</li>
+     * </ul>
+     * 
+     * @param hll
+     * @param clazz
+     * @param numRegisterIndexBits
+     *            at most the source's number of register index bits
+     * @return
+     * @throws IllegalArgumentException
+     *             if the class is not supported or the registers cannot be
+     *             folded to {@code numRegisterIndexBits}
+     * @since 0.1.3
+     */
+    public static IHLL convert(IHLL hll, Class<? extends IHLL> clazz, int numRegisterIndexBits) {
+        return fromRegisters(toRegisters(hll).fold(numRegisterIndexBits), clazz);
+    }
+
+    /**
+     * Merges a {@link IHLL} into another one, converting it to the target's
+     * implementation and number of registers if needed.
+     * 
+     * <p>
+     * {@link IHLL}s of the same class are merged by {@link IHLL#merge(IHLL)}
+     * as is (so they must have the same number of registers, see
+     * {@link #convert(IHLL, Class, int)}). Otherwise the registers of the other
+     * {@link IHLL} (which must have the same hash function and seed, see
+     * {@link HLLRegisters#isSameHash(HLLRegisters)}, and at least as many
+     * registers as the target) are folded to the target's number of
+     * registers and merged. E.g. {@link PjHLL}s (64-bit hashing),
+     * {@link AkHLL}s with the default seed and {@link DdthHLL}s can be merged
+     * with each other; see {@link #convert(IHLL, Class, int)} for caveats.
+     * </p>
+     * 
+     * @param target
+     * @param other
+     *            not changed
+     * @return the target
+     * @throws IllegalArgumentException
+     *             if the hash functions differ, or the other {@link IHLL} has
+     *             fewer registers than the target (a different number of
+     *             registers for the same class)
+     * @since 0.1.3
+     */
+    public static IHLL merge(IHLL target, IHLL other) {
+        if (target.getClass() == other.getClass()) {
+            return target.merge(other);
+        }
+        HLLRegisters registers = toRegisters(target), otherRegisters = toRegisters(other);
+        if (!registers.isSameHash(otherRegisters)) {
+            throw new IllegalArgumentException("HLLs of hash functions ["
+                    + registers.getHashFunction() + "/" + registers.getHashSeed() + "] and ["
+                    + otherRegisters.getHashFunction() + "/" + otherRegisters.getHashSeed()
+                    + "] cannot be merged!");
+        }
+        final int p = registers.getNumRegisterIndexBits();
+        IHLL template = target instanceof ShardedHLL ? ((ShardedHLL) target).snapshot() : target;
+        return target.merge(fromRegisters(otherRegisters.fold(p), template.getClass(), template));
+    }
+
+    /**
+     * HLL implementations of the same family have the same serialized form:
+     * {@link PjHLL}, {@link ConcurrentHLL} and {@link OffHeapHLL} are of
+     * family 1.
+     * 
+     * @param id
+     * @return
+     */
+    private static int family(byte id) {
+        switch (id) {
+        case 1:
+        case 4:
+        case 5:
+            return 1;
+        case 2:
+        case 3:
+        case 6:
+            return id;
+        default:
+            throw new IllegalArgumentException("Unsupported HLL implementation [" + id + "]!");
+        }
+    }
+
 }
@@ -7,6 +7,7 @@ import java.util.Set;
 import com.github.ddth.hll.IHLL;
 import com.github.ddth.hll.impl.AkHLL;
 import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.DdthHLL;
 import com.github.ddth.hll.impl.PjHLL;
 
 public class QndCompare {
@@ -23,6 +24,10 @@ public class QndCompare {
         return new PjHLL().init();
     }
 
+    private static IHLL ddthHLL() {
+        return new DdthHLL().init();
+    }
+
     private static double calcError(long numItems, long expectedNumItems) {
         double error = 100.0 * (numItems - expectedNumItems);
         error /= numItems;
@@ -36,14 +41,16 @@ public class QndCompare {
         final IHLL akHLL = akHLL();
         final IHLL atsHLL = atsHLL();
         final IHLL pjHLL = pjHLL();
+        final IHLL ddthHLL = ddthHLL();
 
-        long timeAk = 0, timeAts = 0, timePj = 0;
+        long timeAk = 0, timeAts = 0, timePj = 0, timeDdth = 0;
 
         for (int i = 0; i < NUM_DATASETS; i++) {
             final Set<Integer> localDataSet = new HashSet<>();
             final IHLL localAkHLL = akHLL();
             final IHLL localAtsHLL = atsHLL();
             final IHLL localPjHLL = pjHLL();
+            final IHLL localDdthHLL = ddthHLL();
 
             for (int j = 0; j < NUM_ITEMS; j++) {
                 int value = rand.nextInt(MAX_ITEM_VALUE);
@@ -66,6 +73,11 @@ public class QndCompare {
                     localPjHLL.add(data);
                     timePj += (System.nanoTime() - t);
                 }
+                {
+                    long t = System.nanoTime();
+                    localDdthHLL.add(data);
+                    timeDdth += (System.nanoTime() - t);
+                }
             }
 
             long numItems = localDataSet.size();
@@ -97,6 +109,15 @@ public class QndCompare {
                 pjHLL.merge(localPjHLL);
                 timePj += (System.nanoTime() - t);
             }
+            {
+                long t = System.nanoTime();
+                long hllSize = localDdthHLL.count();
+                double error = calcError(hllSize, numItems);
+                System.out.println(String.format("DdthHLL: %d\t%.2f\t%d", hllSize, error,
+                        localDdthHLL.toBytes().length));
+                ddthHLL.merge(localDdthHLL);
+                timeDdth += (System.nanoTime() - t);
+            }
         }
 
         long totalNumItems = dataSet.size();
@@ -119,6 +140,12 @@ public class QndCompare {
             System.out.println(String.format("PjHLL : %d\t%.2f\t%d\t%.3f", hllSize, error,
                     pjHLL.toBytes().length, timePj / 1E6));
         }
+        {
+            long hllSize = ddthHLL.count();
+            double error = calcError(hllSize, totalNumItems);
+            System.out.println(String.format("DdthHLL: %d\t%.2f\t%d\t%.3f", hllSize, error,
+                    ddthHLL.toBytes().length, timeDdth / 1E6));
+        }
     }
 
     /*
@@ -0,0 +1,17 @@
+package com.github.ddth.hll.qnd;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+
+public class QndDdthHLL extends BaseQnd {
+
+    protected IHLL hyperLogLog() {
+        return new DdthHLL().init();
+    }
+
+    public static void main(String[] args) throws Exception {
+        QndDdthHLL qnd = new QndDdthHLL();
+        qnd.run();
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.github.ddth.hll.qnd.test;
+
+/**
+ * Pre-computed 64-bit hashes for tests of
+ * {@link com.github.ddth.hll.IHLL#addHash(long)}.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.3
+ */
+public class Hashes {
+
+    private Hashes() {
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer, a cheap stand-in for an upstream hash.
+     * 
+     * @param value
+     * @return
+     */
+    public static long mix64(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
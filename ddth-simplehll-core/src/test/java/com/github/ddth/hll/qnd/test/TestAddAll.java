@@ -0,0 +1,64 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.PjHLL;
+
+import junit.framework.TestCase;
+
+public class TestAddAll extends TestCase {
+
+    private final static int NUM_ITEMS = 10000;
+
+    /*
+     * Items added in batches, then one by one: adding one by one must not
+     * change the HLL.
+     */
+    private static void assertAddAll(IHLL hll) {
+        // first and last elements are outside of the batch
+        long[] longs = new long[NUM_ITEMS + 2];
+        long[] hashes = new long[NUM_ITEMS + 2];
+        byte[][] bytes = new byte[NUM_ITEMS + 2][];
+        List<Object> objs = new ArrayList<>();
+        for (int i = 1; i <= NUM_ITEMS; i++) {
+            longs[i] = i;
+            hashes[i] = Hashes.mix64(i);
+            bytes[i] = ("bytes-" + i).getBytes();
+            objs.add(i % 2 == 0 ? "string-" + i : Double.valueOf(i));
+        }
+
+        hll.addAll(longs, 1, NUM_ITEMS);
+        hll.addAll(bytes, 1, NUM_ITEMS);
+        hll.addAllHashes(hashes, 1, NUM_ITEMS);
+        hll.addAll(objs);
+        long count = hll.count();
+        assertTrue("Estimated: " + count,
+                Math.abs(count - 4 * NUM_ITEMS) < 4 * NUM_ITEMS * 0.05);
+
+        byte[] expected = hll.toBytes();
+        for (int i = 1; i <= NUM_ITEMS; i++) {
+            hll.addLong(longs[i]);
+            hll.add(bytes[i]);
+            hll.addHash(hashes[i]);
+            hll.add(objs.get(i - 1));
+        }
+        assertTrue(Arrays.equals(expected, hll.toBytes()));
+    }
+
+    public void testAkAddAll() {
+        assertAddAll(new AkHLL().init());
+    }
+
+    public void testAtsAddAll() {
+        assertAddAll(new AtsHLL().init());
+    }
+
+    public void testPjAddAll() {
+        assertAddAll(new PjHLL().init());
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.util.Arrays;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.PjHLL;
+
+import junit.framework.TestCase;
+
+public class TestAddHash extends TestCase {
+
+    private static void assertAddHash(IHLL hll) {
+        final int NUM_ITEMS = 100000;
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            hll.addHash(Hashes.mix64(i));
+        }
+        long count = hll.count();
+        assertTrue("Estimated: " + count, Math.abs(count - NUM_ITEMS) < NUM_ITEMS * 0.05);
+
+        // duplicated hashes do not change the HLL
+        byte[] expected = hll.toBytes();
+        for (int i = 0; i < NUM_ITEMS; i += 7) {
+            hll.addHash(Hashes.mix64(i));
+        }
+        assertTrue(Arrays.equals(expected, hll.toBytes()));
+    }
+
+    public void testAkAddHash() {
+        assertAddHash(new AkHLL().init());
+    }
+
+    public void testAtsAddHash() {
+        assertAddHash(new AtsHLL().init());
+    }
+
+    public void testPjAddHash() {
+        assertAddHash(new PjHLL().init());
+    }
+
+    public void testPj32AddHash() {
+        assertAddHash(new PjHLL(0, 32).init());
+    }
+}
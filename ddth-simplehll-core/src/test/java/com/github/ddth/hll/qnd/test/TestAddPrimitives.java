@@ -0,0 +1,64 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.PjHLL;
+
+import junit.framework.TestCase;
+
+public class TestAddPrimitives extends TestCase {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    /*
+     * Adding an item via a primitive overload after adding the same item via
+     * add(Object) must not change the HLL.
+     */
+    private static void assertSameAsBoxed(IHLL hll) {
+        long longValue = System.currentTimeMillis();
+        int intValue = (int) longValue;
+        String strValue = "ddth-simplehll-" + longValue;
+        byte[] bytesValue = ("bytes-" + longValue).getBytes(UTF8);
+        byte[] padded = new byte[bytesValue.length + 4];
+        System.arraycopy(bytesValue, 0, padded, 2, bytesValue.length);
+
+        hll.add(longValue);
+        byte[] expected = hll.toBytes();
+        hll.addLong(longValue);
+        assertTrue(Arrays.equals(expected, hll.toBytes()));
+
+        hll.add(intValue);
+        expected = hll.toBytes();
+        hll.addInt(intValue);
+        assertTrue(Arrays.equals(expected, hll.toBytes()));
+
+        hll.add(bytesValue);
+        expected = hll.toBytes();
+        hll.addBytes(bytesValue, 0, bytesValue.length);
+        hll.addBytes(padded, 2, bytesValue.length);
+        assertTrue(Arrays.equals(expected, hll.toBytes()));
+
+        hll.add(strValue);
+        expected = hll.toBytes();
+        hll.addChars(new StringBuilder(strValue));
+        assertTrue(Arrays.equals(expected, hll.toBytes()));
+
+        assertEquals(4, hll.count());
+    }
+
+    public void testAkAddPrimitives() {
+        assertSameAsBoxed(new AkHLL().init());
+    }
+
+    public void testAtsAddPrimitives() {
+        assertSameAsBoxed(new AtsHLL().init());
+    }
+
+    public void testPjAddPrimitives() {
+        assertSameAsBoxed(new PjHLL().init());
+    }
+}
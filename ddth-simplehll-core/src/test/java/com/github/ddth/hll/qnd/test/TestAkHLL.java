@@ -6,7 +6,6 @@ import java.util.Arrays;
 import com.github.ddth.hll.IHLL;
 import com.github.ddth.hll.impl.AkHLL;
 import com.github.ddth.hll.utils.HLLUtils;
-import com.google.common.hash.HashFunction;
 
 import junit.framework.TestCase;
 
@@ -50,10 +49,7 @@ public class TestAkHLL extends TestCase {
         assertFieldEquals(AkHLL.class, "log2m", hll, der);
         assertFieldEquals(AkHLL.class, "regWidth", hll, der);
 
-        HashFunction hfThis = reflectionGetValue(AkHLL.class, "hf", hll, HashFunction.class);
-        HashFunction hfThat = reflectionGetValue(AkHLL.class, "hf", der, HashFunction.class);
-        assertEquals(hfThis.bits(), hfThat.bits());
-        assertTrue(hfThis != hfThat);
+        assertFieldEquals(AkHLL.class, "seed", hll, der);
 
         Object innerThis = reflectionGetValue(AkHLL.class, "hll", hll);
         Object innerThat = reflectionGetValue(AkHLL.class, "hll", der);
@@ -81,10 +77,7 @@ public class TestAkHLL extends TestCase {
         assertFieldEquals(AkHLL.class, "log2m", hll, der);
         assertFieldEquals(AkHLL.class, "regWidth", hll, der);
 
-        HashFunction hfThis = reflectionGetValue(AkHLL.class, "hf", hll, HashFunction.class);
-        HashFunction hfThat = reflectionGetValue(AkHLL.class, "hf", der, HashFunction.class);
-        assertEquals(hfThis.bits(), hfThat.bits());
-        assertTrue(hfThis != hfThat);
+        assertFieldEquals(AkHLL.class, "seed", hll, der);
 
         Object innerThis = reflectionGetValue(AkHLL.class, "hll", hll);
         Object innerThat = reflectionGetValue(AkHLL.class, "hll", der);
@@ -92,4 +85,36 @@ public class TestAkHLL extends TestCase {
 
         assertTrue(Arrays.equals(hll.toBytes(), der.toBytes()));
     }
+
+    public void testAkSeedSerDer() throws Exception {
+        IHLL hll = new AkHLL(0, 0, 1981).init();
+        hll.add(System.currentTimeMillis());
+
+        IHLL der = HLLUtils.fromBytes(HLLUtils.toBytes(hll));
+        assertEquals(1981, ((AkHLL) der).getSeed());
+        assertTrue(Arrays.equals(hll.toBytes(), der.toBytes()));
+    }
+
+    public void testAkMergeSameSeed() {
+        final int NUM_ITEMS = 10000;
+        IHLL hll1 = new AkHLL().init();
+        IHLL hll2 = new AkHLL().init();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            hll1.add(i);
+            hll2.add(i);
+        }
+        // same items hashed by the same function: union does not over-count
+        long count = hll1.count();
+        assertEquals(count, hll1.merge(hll2).count());
+    }
+
+    public void testAkMergeDifferentSeeds() {
+        IHLL hll1 = new AkHLL(0, 0, 1).init();
+        IHLL hll2 = new AkHLL(0, 0, 2).init();
+        try {
+            hll1.merge(hll2);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
 }
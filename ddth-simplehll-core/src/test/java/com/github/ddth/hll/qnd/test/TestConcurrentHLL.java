@@ -0,0 +1,92 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestConcurrentHLL extends TestCase {
+
+    public void testConcurrentEmpty() {
+        IHLL hll = new ConcurrentHLL().init();
+
+        assertEquals(0, hll.count());
+    }
+
+    public void testConcurrentSameAsPj() {
+        IHLL pj = new PjHLL().init();
+        IHLL concurrent = new ConcurrentHLL().init();
+        for (int i = 0; i < 100000; i++) {
+            Object item = i % 3 == 0 ? (Object) ("item-" + i) : (Object) Long.valueOf(i);
+            pj.add(item);
+            concurrent.add(item);
+        }
+        assertEquals(pj.count(), concurrent.count());
+        assertTrue(Arrays.equals(pj.toBytes(), concurrent.toBytes()));
+    }
+
+    public void testConcurrentSerDer() {
+        IHLL hll = new ConcurrentHLL().init();
+        for (int i = 0; i < 10000; i++) {
+            hll.addLong(i);
+        }
+
+        byte[] data = HLLUtils.toBytes(hll);
+        IHLL der = HLLUtils.fromBytes(data);
+        assertTrue(der instanceof ConcurrentHLL);
+        assertEquals(hll.count(), der.count());
+        assertTrue(Arrays.equals(hll.toBytes(), der.toBytes()));
+    }
+
+    public void testConcurrentAdd() throws Exception {
+        final int NUM_THREADS = 8;
+        final int NUM_ITEMS = 100000;
+        final IHLL hll = new ConcurrentHLL().init();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int t = 0; t < NUM_THREADS; t++) {
+            final int threadId = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // every thread adds all items, in a different order
+                    for (int i = 0; i < NUM_ITEMS; i++) {
+                        hll.addLong((i + threadId * 12345) % NUM_ITEMS);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        IHLL expected = new ConcurrentHLL().init();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            expected.addLong(i);
+        }
+        assertTrue(Arrays.equals(expected.toBytes(), hll.toBytes()));
+    }
+
+    public void testConcurrentMerge() {
+        IHLL hll1 = new ConcurrentHLL().init();
+        IHLL hll2 = new ConcurrentHLL().init();
+        IHLL all = new ConcurrentHLL().init();
+        for (int i = 0; i < 20000; i++) {
+            (i % 2 == 0 ? hll1 : hll2).addLong(i);
+            all.addLong(i);
+        }
+        hll1.merge(hll2);
+        assertTrue(Arrays.equals(all.toBytes(), hll1.toBytes()));
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.ddth.hll.HLLRegisters;
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.impl.PjHLLFactory;
+import com.github.ddth.hll.impl.ShardedHLL;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestConvert extends TestCase {
+
+    private static IHLL add(IHLL hll, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hll.addLong(i);
+        }
+        return hll;
+    }
+
+    public void testSameRegisters() {
+        for (int numItems : new int[] { 100, 100000 }) {
+            HLLRegisters pj = HLLUtils.toRegisters(add(new PjHLL(14, 64).init(), 0, numItems));
+            assertEquals(HLLRegisters.MURMUR3_64, pj.getHashFunction());
+            assertEquals(pj, HLLUtils.toRegisters(add(new AkHLL(14, 5).init(), 0, numItems)));
+            assertEquals(pj, HLLUtils.toRegisters(add(new DdthHLL(14).init(), 0, numItems)));
+            assertEquals(pj,
+                    HLLUtils.toRegisters(add(new ConcurrentHLL(14, 64).init(), 0, numItems)));
+        }
+        assertEquals(HLLRegisters.MURMUR3_32,
+                HLLUtils.toRegisters(new PjHLL(14, 32).init()).getHashFunction());
+        assertEquals(123, HLLUtils.toRegisters(new AkHLL(14, 5, 123).init()).getHashSeed());
+    }
+
+    public void testConvert() {
+        IHLL pj = add(new PjHLL().init(), 0, 100000);
+        HLLRegisters registers = HLLUtils.toRegisters(pj);
+        List<Class<? extends IHLL>> classes = new ArrayList<Class<? extends IHLL>>();
+        classes.add(PjHLL.class);
+        classes.add(ConcurrentHLL.class);
+        classes.add(AkHLL.class);
+        classes.add(DdthHLL.class);
+        for (Class<? extends IHLL> clazz : classes) {
+            IHLL hll = HLLUtils.convert(pj, clazz);
+            assertEquals(clazz, hll.getClass());
+            assertEquals(registers, HLLUtils.toRegisters(hll));
+            assertEquals(100000, hll.count(), 100000 * 0.02);
+            // and back
+            assertEquals(pj.count(), HLLUtils.convert(hll, PjHLL.class).count());
+        }
+        // a converted HLL keeps counting the same items
+        IHLL ddth = HLLUtils.convert(pj, DdthHLL.class);
+        add(ddth, 0, 200000);
+        add(pj, 0, 200000);
+        assertEquals(HLLUtils.toRegisters(pj), HLLUtils.toRegisters(ddth));
+    }
+
+    public void testConvertFold() {
+        IHLL pj = add(new PjHLL(15, 64).init(), 0, 100000);
+        IHLL ddth = HLLUtils.convert(pj, DdthHLL.class, 12);
+        // the same as counting with fewer registers in the first place
+        IHLL expected = add(new DdthHLL(12).init(), 0, 100000);
+        assertEquals(HLLUtils.toRegisters(expected), HLLUtils.toRegisters(ddth));
+        assertEquals(expected.count(), ddth.count());
+
+        try {
+            HLLUtils.convert(pj, DdthHLL.class, 16);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testConvertAts() {
+        IHLL ats = add(new AtsHLL(14).init(), 0, 100000);
+        HLLRegisters registers = HLLUtils.toRegisters(ats);
+        assertEquals(HLLRegisters.MURMUR2_32, registers.getHashFunction());
+
+        // round trip
+        IHLL der = HLLUtils.fromRegisters(registers, AtsHLL.class);
+        assertEquals(ats.count(), der.count());
+        assertEquals(registers, HLLUtils.toRegisters(der));
+
+        // counts are preserved across implementations
+        List<Class<? extends IHLL>> classes = new ArrayList<Class<? extends IHLL>>();
+        classes.add(PjHLL.class);
+        classes.add(DdthHLL.class);
+        for (Class<? extends IHLL> clazz : classes) {
+            assertEquals(100000, HLLUtils.convert(ats, clazz).count(), 100000 * 0.03);
+        }
+        assertEquals(100000,
+                HLLUtils.convert(add(new PjHLL(14, 64).init(), 0, 100000), AtsHLL.class).count(),
+                100000 * 0.03);
+    }
+
+    public void testMerge() {
+        // different implementations and numbers of registers
+        IHLL target = add(new DdthHLL(12).init(), 0, 100000);
+        IHLL other = add(new PjHLL(14, 64).init(), 50000, 200000);
+        IHLL expected = add(new DdthHLL(12).init(), 0, 200000);
+        assertSame(target, HLLUtils.merge(target, other));
+        assertEquals(HLLUtils.toRegisters(expected), HLLUtils.toRegisters(target));
+        assertEquals(expected.count(), target.count());
+
+        // AkHLL target keeps its register width
+        AkHLL ak = (AkHLL) add(new AkHLL(12, 4).init(), 0, 1000);
+        HLLUtils.merge(ak, add(new ConcurrentHLL(12, 64).init(), 0, 100000));
+        assertEquals(4, ak.getRegWidth());
+        assertEquals(100000, ak.count(), 100000 * 0.05);
+
+        // same class: IHLL.merge
+        IHLL pj = add(new PjHLL().init(), 0, 1000);
+        HLLUtils.merge(pj, add(new PjHLL().init(), 1000, 2000));
+        assertEquals(2000, pj.count(), 2000 * 0.02);
+        try {
+            HLLUtils.merge(pj, new PjHLL(14, 64).init());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // sharded target
+        IHLL sharded = add(new ShardedHLL(new PjHLLFactory()).init(), 0, 1000);
+        HLLUtils.merge(sharded, add(new DdthHLL(15).init(), 1000, 2000));
+        assertEquals(2000, sharded.count(), 2000 * 0.02);
+    }
+
+    public void testMergeInvalid() {
+        IHLL pj = new PjHLL(14, 64).init();
+        for (IHLL other : new IHLL[] { new AtsHLL(14).init(), new PjHLL(14, 32).init(),
+                new AkHLL(14, 5, 123).init(), new DdthHLL(12).init() }) {
+            try {
+                HLLUtils.merge(pj, other);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        try {
+            new HLLRegisters(HLLRegisters.MURMUR3_64, 0, new byte[100]);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
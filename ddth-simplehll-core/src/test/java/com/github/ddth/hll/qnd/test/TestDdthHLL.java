@@ -0,0 +1,182 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestDdthHLL extends TestCase {
+
+    private static IHLL hll(int from, int to) {
+        IHLL hll = new DdthHLL().init();
+        for (int i = from; i < to; i++) {
+            hll.addLong(i);
+        }
+        return hll;
+    }
+
+    public void testDdthEmpty() {
+        IHLL hll = new DdthHLL().init();
+        assertEquals(0, hll.count());
+        assertEquals(0, new DdthHLL().init(hll.toBytes()).count());
+    }
+
+    public void testDdthAccuracy() {
+        // exact-ish while sparse
+        IHLL hll = new DdthHLL().init();
+        for (int i = 0; i < 1000; i++) {
+            hll.add("item-" + i);
+            hll.add("item-" + i);
+        }
+        assertEquals(1000, hll.count(), 2);
+
+        // through the sparse => dense switch and the bias-corrected range
+        hll = new DdthHLL().init();
+        for (int i = 1; i <= 1000000; i++) {
+            hll.addLong(i);
+            if (i == 5000 || i == 6000 || i == 50000 || i == 150000 || i == 1000000) {
+                assertEquals(i, hll.count(), i * 0.03);
+            }
+        }
+    }
+
+    public void testDdthSerDer() {
+        for (int numItems : new int[] { 10, 1000, 10000, 1000000 }) {
+            IHLL hll = hll(0, numItems);
+            byte[] data = hll.toBytes();
+            IHLL der = new DdthHLL().init(data);
+            assertEquals(hll.count(), der.count());
+            assertTrue(Arrays.equals(data, der.toBytes()));
+
+            byte[] dataUtils = HLLUtils.toBytes(hll);
+            assertEquals(6, dataUtils[2]);
+            der = HLLUtils.fromBytes(dataUtils);
+            assertTrue(der instanceof DdthHLL);
+            assertEquals(hll.count(), der.count());
+            assertEquals(hll.count(), HLLUtils.peekCount(dataUtils));
+        }
+
+        // 4-bit registers with exceptions
+        IHLL hll = new DdthHLL(4).init();
+        for (int i = 0; i < 100000; i++) {
+            hll.addLong(i);
+        }
+        hll.addHash(0);
+        IHLL der = new DdthHLL().init(hll.toBytes());
+        assertEquals(hll.count(), der.count());
+        assertTrue(Arrays.equals(hll.toBytes(), der.toBytes()));
+
+        // version 1 (other register convention) and unknown versions
+        for (byte version : new byte[] { 1, 3 }) {
+            byte[] data = hll.toBytes();
+            assertEquals(2, data[0]);
+            data[0] = version;
+            try {
+                new DdthHLL().init(data);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                DdthHLL.peekCount(ByteBuffer.wrap(data));
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    public void testDdthSameCountAsPj() {
+        // the same registers give the same estimate
+        for (int numItems : new int[] { 5000, 20000, 100000, 1000000 }) {
+            IHLL hll = hll(0, numItems);
+            assertEquals(HLLUtils.convert(hll, PjHLL.class).count(), hll.count());
+        }
+        for (int p = 4; p <= 15; p++) {
+            IHLL hll = new DdthHLL(p).init();
+            for (int i = 0; i < 100 << p; i++) {
+                hll.addLong(i);
+                // in DENSE mode
+                if (i >= 1 << p >> 3 && i % 97 == 0) {
+                    assertEquals(HLLUtils.convert(hll, PjHLL.class).count(), hll.count());
+                }
+            }
+        }
+    }
+
+    public void testDdthSmallerThanPj() {
+        for (int numItems : new int[] { 10, 1000, 10000, 1000000 }) {
+            IHLL pj = new PjHLL().init();
+            for (int i = 0; i < numItems; i++) {
+                pj.addLong(i);
+            }
+            assertTrue(hll(0, numItems).toBytes().length < pj.toBytes().length);
+        }
+    }
+
+    private static void assertMerge(int from1, int to1, int from2, int to2) {
+        IHLL hll1 = hll(from1, to1);
+        IHLL hll2 = hll(from2, to2);
+        IHLL all = hll(from1, to1);
+        for (int i = from2; i < to2; i++) {
+            all.addLong(i);
+        }
+        byte[] data2 = hll2.toBytes();
+        hll1.merge(hll2);
+        assertEquals(all.count(), hll1.count());
+        assertTrue(Arrays.equals(all.toBytes(), hll1.toBytes()));
+        // the merged HLL is not changed
+        assertTrue(Arrays.equals(data2, hll2.toBytes()));
+    }
+
+    public void testDdthMerge() {
+        // sparse + sparse, sparse + sparse => dense
+        assertMerge(0, 1000, 500, 1500);
+        assertMerge(0, 3000, 3000, 6000);
+        // switching to dense on flushing pending entries before merging
+        assertMerge(0, 2058, -1000, 0);
+        // sparse + dense, dense + sparse, dense + dense
+        assertMerge(0, 1000, 0, 100000);
+        assertMerge(0, 100000, -1000, 0);
+        assertMerge(0, 100000, 50000, 200000);
+
+        try {
+            new DdthHLL().init().merge(new DdthHLL(14).init());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new DdthHLL().init().merge(new PjHLL().init());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testDdthClone() {
+        for (int numItems : new int[] { 100, 100000 }) {
+            IHLL hll = hll(0, numItems);
+            IHLL clone = hll.clone();
+            byte[] data = clone.toBytes();
+            for (int i = numItems; i < numItems * 2; i++) {
+                hll.addLong(i);
+            }
+            assertTrue(Arrays.equals(data, clone.toBytes()));
+        }
+    }
+
+    public void testDdthInvalid() {
+        try {
+            new DdthHLL().count();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            new DdthHLL(19).init();
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
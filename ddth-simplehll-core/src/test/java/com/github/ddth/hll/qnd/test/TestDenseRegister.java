@@ -0,0 +1,217 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.github.ddth.hll.prasanthj.HLLDenseRegister;
+import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
+
+import junit.framework.TestCase;
+
+public class TestDenseRegister extends TestCase {
+
+    private static void assertStats(HLLDenseRegister register) {
+        assertStats(register, 0.0);
+    }
+
+    private static void assertStats(HLLDenseRegister register, double relativeDelta) {
+        double sum = 0;
+        int numZeroes = 0;
+        for (byte value : register.getRegister()) { // unpacked copy if packed
+            sum += Math.pow(2, -value);
+            if (value == 0) {
+                numZeroes++;
+            }
+        }
+        assertEquals(sum, register.getSumInversePow2(), sum * relativeDelta);
+        assertEquals(numZeroes, register.getNumZeroes());
+    }
+
+    public void testAdd() {
+        Random random = new Random(1981);
+        HLLDenseRegister register = new HLLDenseRegister(10);
+        assertStats(register);
+        for (int i = 0; i < 100000; i++) {
+            register.add(random.nextLong());
+            if (i % 1000 == 0) {
+                assertStats(register);
+            }
+        }
+        assertStats(register);
+    }
+
+    public void testMerge() {
+        Random random = new Random(1981);
+        HLLDenseRegister register1 = new HLLDenseRegister(10);
+        HLLDenseRegister register2 = new HLLDenseRegister(10);
+        for (int i = 0; i < 1000; i++) {
+            register1.add(random.nextLong());
+            register2.add(random.nextLong());
+        }
+        register1.merge(register2);
+        assertStats(register1);
+    }
+
+    public void testSetRegister() {
+        Random random = new Random(1981);
+        HLLDenseRegister register = new HLLDenseRegister(10);
+        byte[] values = new byte[1 << 10];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (byte) random.nextInt(20);
+        }
+        register.setRegister(values);
+        assertStats(register);
+    }
+
+    public void testMergeValues() {
+        Random random = new Random(1981);
+        for (int bound : new int[] { 2, 64, 256 }) {
+            byte[] values1 = new byte[1 << 10];
+            byte[] values2 = new byte[1 << 10];
+            for (int i = 0; i < values1.length; i++) {
+                values1[i] = (byte) random.nextInt(bound);
+                values2[i] = (byte) random.nextInt(bound);
+            }
+            HLLDenseRegister register1 = new HLLDenseRegister(10);
+            HLLDenseRegister register2 = new HLLDenseRegister(10);
+            register1.setRegister(values1.clone());
+            register2.setRegister(values2.clone());
+            register1.merge(register2);
+            for (int i = 0; i < values1.length; i++) {
+                assertEquals((byte) Math.max(values1[i], values2[i]), register1.getRegister()[i]);
+            }
+            // incremental sums of widely spread 2^-value are rounded
+            assertStats(register1, 1E-12);
+        }
+    }
+
+    public void testPackedAddAndMerge() {
+        Random random = new Random(1981);
+        HLLDenseRegister register1 = new HLLDenseRegister(10);
+        HLLDenseRegister register2 = new HLLDenseRegister(10);
+        HLLDenseRegister packed1 = new HLLDenseRegister(10, true, true);
+        HLLDenseRegister packed2 = new HLLDenseRegister(10, true, true);
+        for (int i = 0; i < 5000; i++) {
+            long hash1 = random.nextLong(), hash2 = random.nextLong();
+            register1.add(hash1);
+            packed1.add(hash1);
+            register2.add(hash2);
+            packed2.add(hash2);
+        }
+        assertEquals(3 * 1024 / 4, packed1.getPackedRegister().length);
+        assertTrue(Arrays.equals(register1.getRegister(), packed1.getRegister()));
+        assertStats(packed1);
+        assertEquals(register1, packed1);
+        assertEquals(register1.hashCode(), packed1.hashCode());
+
+        packed1.merge(packed2);
+        register1.merge(register2);
+        assertTrue(Arrays.equals(register1.getRegister(), packed1.getRegister()));
+        assertStats(packed1);
+
+        // mixed merges
+        HLLDenseRegister packed3 = new HLLDenseRegister(10, true, true);
+        packed3.merge(register1);
+        assertTrue(Arrays.equals(register1.getRegister(), packed3.getRegister()));
+        HLLDenseRegister register3 = new HLLDenseRegister(10);
+        register3.merge(packed3);
+        assertTrue(Arrays.equals(register1.getRegister(), register3.getRegister()));
+    }
+
+    public void testPackedSet() {
+        HLLDenseRegister packed = new HLLDenseRegister(4, true, true);
+        for (int i = 0; i < packed.size(); i++) {
+            packed.set(i, (byte) (i * 5));
+        }
+        for (int i = 0; i < packed.size(); i++) {
+            assertEquals(Math.min(i * 5, HLLDenseRegister.PACKED_MAX_VALUE), packed.get(i));
+        }
+        assertStats(packed);
+    }
+
+    public void testHll4AddAndMerge() {
+        Random random = new Random(1981);
+        HLLDenseRegister register1 = new HLLDenseRegister(10);
+        HLLDenseRegister register2 = new HLLDenseRegister(10);
+        HLLDenseRegister hll4a = new HLLDenseRegister(10, true, HLLDenseRegister.Layout.HLL_4);
+        HLLDenseRegister hll4b = new HLLDenseRegister(10, true, HLLDenseRegister.Layout.HLL_4);
+        // enough items to move the base up a few times
+        for (int i = 0; i < 100000; i++) {
+            long hash1 = random.nextLong(), hash2 = random.nextLong();
+            register1.add(hash1);
+            hll4a.add(hash1);
+            register2.add(hash2);
+            hll4b.add(hash2);
+            if (i % 10000 == 0) {
+                assertTrue(Arrays.equals(register1.getRegister(), hll4a.getRegister()));
+                assertStats(hll4a);
+            }
+        }
+        assertTrue(Arrays.equals(register1.getRegister(), hll4a.getRegister()));
+        assertEquals(register1, hll4a);
+        assertEquals(register1.hashCode(), hll4a.hashCode());
+
+        hll4a.merge(hll4b);
+        register1.merge(register2);
+        assertTrue(Arrays.equals(register1.getRegister(), hll4a.getRegister()));
+        assertStats(hll4a);
+    }
+
+    public void testHll4Exceptions() {
+        Random random = new Random(1981);
+        byte[] values = new byte[1 << 8];
+        for (int i = 0; i < values.length; i++) {
+            // mostly around 10, some far above
+            values[i] = (byte) (i % 16 == 0 ? 30 + random.nextInt(30) : 10 + random.nextInt(3));
+        }
+        HLLDenseRegister hll4 = new HLLDenseRegister(8, true, HLLDenseRegister.Layout.HLL_4);
+        hll4.setRegister(values.clone());
+        assertTrue(Arrays.equals(values, hll4.getRegister()));
+        assertStats(hll4);
+
+        // raise all registers at the base
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == 10) {
+                values[i] = 11;
+                hll4.set(i, (byte) 11);
+            }
+        }
+        assertTrue(Arrays.equals(values, hll4.getRegister()));
+        assertStats(hll4);
+    }
+
+    /*
+     * Reference bit packing, one bit at a time, most significant bit first.
+     */
+    private static byte[] referenceBitpack(byte[] register, int bitWidth) {
+        byte[] packed = new byte[register.length * bitWidth / 8];
+        int bit = 0;
+        for (byte value : register) {
+            for (int b = bitWidth - 1; b >= 0; b--, bit++) {
+                if ((value >>> b & 1) != 0) {
+                    packed[bit >>> 3] |= 0x80 >>> (bit & 7);
+                }
+            }
+        }
+        return packed;
+    }
+
+    public void testBitpack() {
+        Random random = new Random(1981);
+        for (int bitWidth = 1; bitWidth <= 8; bitWidth++) {
+            for (int m : new int[] { 16, 1024, 1 << 14 }) {
+                byte[] register = new byte[m];
+                for (int i = 0; i < m; i++) {
+                    register[i] = (byte) random.nextInt(1 << bitWidth);
+                }
+                byte[] packed = HyperLogLogUtils.bitpack(register, bitWidth);
+                assertTrue(Arrays.equals(referenceBitpack(register, bitWidth), packed));
+
+                byte[] withOffset = new byte[packed.length + 3];
+                System.arraycopy(packed, 0, withOffset, 3, packed.length);
+                assertTrue(Arrays.equals(register,
+                        HyperLogLogUtils.bitunpack(withOffset, 3, m, bitWidth)));
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.github.ddth.hll.prasanthj.HLLConstants;
+import com.github.ddth.hll.prasanthj.HyperLogLog;
+
+import junit.framework.TestCase;
+
+public class TestEstimateBias extends TestCase {
+
+    private final static int K = HLLConstants.K_NEAREST_NEIGHBOR;
+
+    private Method estimateBias, estimateBiasOfTable;
+
+    @Override
+    protected void setUp() throws Exception {
+        estimateBias = HyperLogLog.class.getDeclaredMethod("estimateBias", int.class,
+                long.class);
+        estimateBias.setAccessible(true);
+        estimateBiasOfTable = HyperLogLog.class.getDeclaredMethod("estimateBias",
+                double[].class, double[].class, long.class);
+        estimateBiasOfTable.setAccessible(true);
+    }
+
+    /*
+     * The former estimator: all squared distances in a sorted map, where an
+     * index replaces any other index at the same distance.
+     */
+    private static long linearScan(double[] rawEst, double[] bias, long count) {
+        Map<Double, Integer> estIndexMap = new TreeMap<Double, Integer>();
+        for (int i = 0; i < rawEst.length; i++) {
+            estIndexMap.put(Math.pow(count - rawEst[i], 2), i);
+        }
+        double biasSum = 0;
+        int kNeighbors = K;
+        for (Map.Entry<Double, Integer> entry : estIndexMap.entrySet()) {
+            biasSum += bias[entry.getValue()];
+            kNeighbors--;
+            if (kNeighbors <= 0) {
+                break;
+            }
+        }
+        return (long) ((biasSum / K) + 0.5);
+    }
+
+    /*
+     * Indices of the raw estimates by distance to count, the smaller raw
+     * estimate first on equal distances. Equal raw estimates are in the
+     * table order above count and in the reverse order below count: from
+     * count outwards in a sorted table.
+     */
+    private static Integer[] byDistance(final double[] rawEst, final long count) {
+        Integer[] order = new Integer[rawEst.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int result = Double.compare(Math.abs(count - rawEst[a]),
+                        Math.abs(count - rawEst[b]));
+                if (result == 0) {
+                    result = Double.compare(rawEst[a], rawEst[b]);
+                }
+                if (result == 0) {
+                    result = rawEst[a] < count ? b - a : a - b;
+                }
+                return result;
+            }
+        });
+        return order;
+    }
+
+    /*
+     * Checks an estimate against the plain average of the k nearest
+     * neighbors, and against the former estimator if no neighbor shares its
+     * distance with the next one (the former estimator dropped one of them).
+     * 
+     * Returns true if neighbors shared a distance.
+     */
+    private static boolean assertEstimateBias(String message, double[] rawEst, double[] bias,
+            long count, long actual) {
+        Integer[] order = byDistance(rawEst, count);
+        double biasSum = 0;
+        boolean tie = false;
+        for (int i = 0; i < K; i++) {
+            biasSum += bias[order[i]];
+            tie |= Math.abs(count - rawEst[order[i]]) == Math.abs(count - rawEst[order[i + 1]]);
+        }
+        assertEquals(message, (long) ((biasSum / K) + 0.5), actual);
+        if (!tie) {
+            assertEquals(message, linearScan(rawEst, bias, count), actual);
+        }
+        return tie;
+    }
+
+    private void assertEstimateBias(int p, long count) throws Exception {
+        assertEstimateBias("p=" + p + ", count=" + count, HLLConstants.rawEstimateData[p - 4],
+                HLLConstants.biasData[p - 4], count, (Long) estimateBias.invoke(null, p, count));
+    }
+
+    public void testSameAsLinearScan() throws Exception {
+        for (int p = 4; p <= 16; p++) {
+            // every count where bias is corrected for small p, a sample for
+            // larger ones
+            long max = 5L << p;
+            long step = Math.max(1, max >> 14);
+            for (long count = 0; count <= max; count += step) {
+                assertEstimateBias(p, count);
+            }
+            // around each raw estimate, and halfway between two of them
+            double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
+            for (int i = 0; i < rawEstForP.length; i++) {
+                for (long count = (long) rawEst(p, i) - 2; count <= rawEst(p, i) + 2; count++) {
+                    assertEstimateBias(p, count);
+                }
+                for (int j = i + 1; j < rawEstForP.length; j++) {
+                    double mid = (rawEstForP[i] + rawEstForP[j]) / 2;
+                    if (mid == (long) mid) {
+                        assertEstimateBias(p, (long) mid);
+                    }
+                }
+            }
+        }
+    }
+
+    private static double rawEst(int p, int i) {
+        return HLLConstants.rawEstimateData[p - 4][i];
+    }
+
+    public void testUnsortedTables() throws Exception {
+        // the raw estimate tables of p=5 and p=6 are not strictly increasing
+        for (int p : new int[] { 5, 6 }) {
+            double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
+            boolean sorted = true;
+            for (int i = 1; i < rawEstForP.length; i++) {
+                sorted &= rawEstForP[i - 1] < rawEstForP[i];
+            }
+            assertFalse(sorted);
+            for (long count = 0; count <= 5L << p; count++) {
+                assertEstimateBias(p, count);
+            }
+        }
+    }
+
+    public void testEqualDistances() throws Exception {
+        // the real tables have no neighbors at equal distances, these do
+        double[] rawEst = { 10, 20, 30, 40, 50, 60, 70, 80, 90 };
+        double[] bias = { 1, 2, 4, 8, 16, 32, 64, 128, 256 };
+        int numTies = 0;
+        for (long count = 0; count <= 100; count++) {
+            long actual = (Long) estimateBiasOfTable.invoke(null, rawEst, bias, count);
+            if (assertEstimateBias("count=" + count, rawEst, bias, count, actual)) {
+                numTies++;
+            }
+        }
+        assertTrue(numTies > 0);
+        // 50: 40 and 60, 30 and 70, then 20 before 80
+        assertEquals((long) ((2 + 4 + 8 + 16 + 32 + 64) / 6.0 + 0.5),
+                estimateBiasOfTable.invoke(null, rawEst, bias, 50L));
+
+        // equal raw estimates
+        rawEst = new double[] { 10, 20, 20, 20, 30, 40, 40, 50 };
+        bias = new double[] { 1, 2, 4, 8, 16, 32, 64, 128 };
+        for (long count = 0; count <= 60; count++) {
+            long actual = (Long) estimateBiasOfTable.invoke(null, rawEst, bias, count);
+            assertEstimateBias("count=" + count, rawEst, bias, count, actual);
+        }
+    }
+}
@@ -6,6 +6,12 @@ import com.github.ddth.hll.impl.AkHLL;
 import com.github.ddth.hll.impl.AkHLLFactory;
 import com.github.ddth.hll.impl.AtsHLL;
 import com.github.ddth.hll.impl.AtsHLLFactory;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+import com.github.ddth.hll.impl.ConcurrentHLLFactory;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.DdthHLLFactory;
+import com.github.ddth.hll.impl.OffHeapHLL;
+import com.github.ddth.hll.impl.OffHeapHLLFactory;
 import com.github.ddth.hll.impl.PjHLL;
 import com.github.ddth.hll.impl.PjHLLFactory;
 
@@ -24,6 +30,24 @@ public class TestFactory extends TestCase {
         assertTrue(hll instanceof AtsHLL);
     }
 
+    public void testConcurrentFactory() {
+        IHLLFactory factory = new ConcurrentHLLFactory();
+        IHLL hll = factory.createHLL();
+        assertTrue(hll instanceof ConcurrentHLL);
+    }
+
+    public void testDdthFactory() {
+        IHLLFactory factory = new DdthHLLFactory();
+        IHLL hll = factory.createHLL();
+        assertTrue(hll instanceof DdthHLL);
+    }
+
+    public void testOffHeapFactory() {
+        IHLLFactory factory = new OffHeapHLLFactory();
+        IHLL hll = factory.createHLL();
+        assertTrue(hll instanceof OffHeapHLL);
+    }
+
     public void testPjFactory() {
         IHLLFactory factory = new PjHLLFactory();
         IHLL hll = factory.createHLL();
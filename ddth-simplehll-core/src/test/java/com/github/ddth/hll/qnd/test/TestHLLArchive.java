@@ -0,0 +1,214 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.utils.HLLArchiveReader;
+import com.github.ddth.hll.utils.HLLArchiveWriter;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestHLLArchive extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("hll", ".archive");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Keyed sketches of various implementations and sizes, in a non-sorted
+     * order.
+     */
+    private static Map<String, byte[]> sketches(int numSketches) {
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        for (int k = 0; k < numSketches; k++) {
+            IHLL hll = k % 3 == 0 ? new PjHLL(12, 64).init()
+                    : k % 3 == 1 ? new DdthHLL(12).init() : new AkHLL(10, 5).init();
+            for (int i = 0, n = (k * 37) % 5000; i < n; i++) {
+                hll.addLong(k * 10000L + i);
+            }
+            result.put("key-" + ((k * 7919) % numSketches) + "-\u00e9", HLLUtils.toBytes(hll));
+        }
+        return result;
+    }
+
+    private void write(Map<String, byte[]> sketches, boolean deflate, int blockSize)
+            throws Exception {
+        HLLArchiveWriter writer = new HLLArchiveWriter(new FileOutputStream(file), deflate)
+                .setBlockSize(blockSize).init();
+        for (Map.Entry<String, byte[]> entry : sketches.entrySet()) {
+            writer.add(entry.getKey(), entry.getValue());
+        }
+        writer.close();
+    }
+
+    private static void assertEntries(Map<String, byte[]> expected,
+            Iterator<Map.Entry<String, byte[]>> it) {
+        // in the order they were written
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Map.Entry<String, byte[]> actual = it.next();
+            assertEquals(entry.getKey(), actual.getKey());
+            assertTrue(Arrays.equals(entry.getValue(), actual.getValue()));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    private void assertArchive(Map<String, byte[]> sketches, boolean deflate, int blockSize)
+            throws Exception {
+        write(sketches, deflate, blockSize);
+        HLLArchiveReader reader = new HLLArchiveReader(file).init();
+        try {
+            assertEquals(deflate, reader.isDeflate());
+            assertEquals(sketches.size(), reader.size());
+            for (Map.Entry<String, byte[]> entry : sketches.entrySet()) {
+                assertTrue(Arrays.equals(entry.getValue(), reader.getBytes(entry.getKey())));
+            }
+            for (String key : new String[] { "", "key-", "key-1", "zzz", "key-0-\u00e9x" }) {
+                assertFalse(reader.contains(key));
+                assertNull(reader.get(key));
+            }
+            assertEntries(sketches, reader.iterator());
+        } finally {
+            reader.close();
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            assertEntries(sketches, HLLArchiveReader.iterator(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testArchive() throws Exception {
+        Map<String, byte[]> sketches = sketches(500);
+        assertArchive(sketches, false, 64 * 1024);
+        long rawSize = file.length();
+        assertArchive(sketches, true, 64 * 1024);
+        assertTrue(file.length() < rawSize);
+        // tiny blocks: one entry per block
+        assertArchive(sketches, true, 16);
+        assertArchive(sketches, false, 16);
+    }
+
+    public void testArchiveGet() throws Exception {
+        IHLL hll = new DdthHLL().init();
+        for (int i = 0; i < 100000; i++) {
+            hll.addLong(i);
+        }
+        HLLArchiveWriter writer = new HLLArchiveWriter(new FileOutputStream(file), true).init();
+        writer.add("b", hll).add("a", new PjHLL().init()).close();
+
+        HLLArchiveReader reader = new HLLArchiveReader(file).init();
+        try {
+            IHLL der = reader.get("b");
+            assertTrue(der instanceof DdthHLL);
+            assertEquals(hll.count(), der.count());
+            assertEquals(0, reader.get("a").count());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testArchivePartialIteration() throws Exception {
+        Map<String, byte[]> sketches = sketches(100);
+        write(sketches, true, 1024);
+        HLLArchiveReader reader = new HLLArchiveReader(file).init();
+        try {
+            // half of the entries, with lookups in between (sharing the
+            // reader's inflater)
+            Iterator<Map.Entry<String, byte[]>> it = reader.iterator();
+            int n = 0;
+            for (Map.Entry<String, byte[]> entry : sketches.entrySet()) {
+                assertEquals(entry.getKey(), it.next().getKey());
+                assertTrue(Arrays.equals(entry.getValue(), reader.getBytes(entry.getKey())));
+                if (++n == sketches.size() / 2) {
+                    break;
+                }
+            }
+            assertTrue(it.hasNext());
+        } finally {
+            reader.close();
+        }
+        // dropped before the end
+        InputStream in = new FileInputStream(file);
+        try {
+            Iterator<Map.Entry<String, byte[]>> it = HLLArchiveReader.iterator(in);
+            assertEquals(sketches.keySet().iterator().next(), it.next().getKey());
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testArchiveEmpty() throws Exception {
+        write(new LinkedHashMap<String, byte[]>(), true, 1024);
+        HLLArchiveReader reader = new HLLArchiveReader(file).init();
+        try {
+            assertEquals(0, reader.size());
+            assertNull(reader.getBytes("a"));
+            assertFalse(reader.iterator().hasNext());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testArchiveInvalid() throws Exception {
+        HLLArchiveWriter writer = new HLLArchiveWriter(new FileOutputStream(file), false).init();
+        try {
+            writer.add("a", new byte[] { 1, 2, 3 });
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+        writer.add("a", new PjHLL().init());
+        try {
+            writer.add("a", new PjHLL().init());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+        // the archive is still complete
+        writer.add("b", new PjHLL().init()).close();
+        HLLArchiveReader reader = new HLLArchiveReader(file).init();
+        try {
+            assertEquals(2, reader.size());
+            assertTrue(reader.contains("a"));
+        } finally {
+            reader.close();
+        }
+
+        // truncated
+        write(sketches(10), false, 1024);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        try {
+            new HLLArchiveReader(file).init();
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            new HLLArchiveReader(file).size();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+        }
+    }
+}
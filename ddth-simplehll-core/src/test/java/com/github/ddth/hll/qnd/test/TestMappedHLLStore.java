@@ -0,0 +1,128 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.MappedHLLStore;
+import com.github.ddth.hll.impl.OffHeapHLL;
+import com.github.ddth.hll.impl.PjHLL;
+
+import junit.framework.TestCase;
+
+public class TestMappedHLLStore extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("hll", ".store");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testAddAndCount() {
+        MappedHLLStore store = new MappedHLLStore(file, 10, 12, 0).init();
+        IHLL[] expected = new IHLL[10];
+        for (int key = 0; key < 10; key++) {
+            expected[key] = new OffHeapHLL(12, 0).init();
+        }
+        for (int i = 0; i < 50000; i++) {
+            int key = i % 7;
+            store.add(key, "item-" + i);
+            expected[key].add("item-" + i);
+        }
+        try {
+            for (int key = 0; key < 10; key++) {
+                assertEquals(expected[key].count(), store.count(key));
+                assertTrue(Arrays.equals(expected[key].toBytes(), store.toBytes(key)));
+            }
+            assertEquals(0, store.count(9));
+            assertEquals(expected[3].count(), new PjHLL().init(store.toBytes(3)).count());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testReopen() {
+        MappedHLLStore store = new MappedHLLStore(file, 4, 0, 0).init();
+        for (int i = 0; i < 10000; i++) {
+            store.addLong(2, i);
+        }
+        long count = store.count(2);
+        store.flush();
+        store.close();
+
+        store = new MappedHLLStore(file, 4, 0, 0).init();
+        try {
+            assertEquals(count, store.count(2));
+            assertEquals(0, store.count(1));
+        } finally {
+            store.close();
+        }
+
+        try {
+            new MappedHLLStore(file, 4, 10, 0).init();
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testMerge() {
+        MappedHLLStore store = new MappedHLLStore(file, 3, 0, 0).init();
+        IHLL all = new OffHeapHLL().init();
+        try {
+            for (int i = 0; i < 20000; i++) {
+                store.addLong(i % 2, i);
+                all.addLong(i);
+            }
+            IHLL merged = store.merge(0, 1);
+            assertEquals(all.count(), merged.count());
+            assertTrue(Arrays.equals(all.toBytes(), merged.toBytes()));
+
+            // merging into a slot view writes to the store
+            store.get(2).merge(merged);
+            assertEquals(all.count(), store.count(2));
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testViewAfterClose() {
+        MappedHLLStore store = new MappedHLLStore(file, 2, 0, 0).init();
+        OffHeapHLL view = store.get(1);
+        store.close();
+        try {
+            store.count(1);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+        }
+
+        // the mapping outlives the store
+        for (int i = 0; i < 10000; i++) {
+            view.addLong(i);
+        }
+        assertEquals(10000, view.count(), 10000 * 0.02);
+        store = new MappedHLLStore(file, 2, 0, 0).init();
+        try {
+            assertEquals(view.count(), store.count(1));
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testKeyOutOfRange() {
+        MappedHLLStore store = new MappedHLLStore(file, 3, 0, 0).init();
+        try {
+            store.addLong(3, 1);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.OffHeapHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.prasanthj.HyperLogLog;
+import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestMergeBytes extends TestCase {
+
+    private static byte[] toBytes(IHLL hll, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hll.addLong(i);
+        }
+        return HLLUtils.toBytes(hll);
+    }
+
+    private static void assertMergeBytes(byte[]... data) {
+        IHLL expected = HLLUtils.fromBytes(data[0]);
+        for (int i = 1; i < data.length; i++) {
+            expected.merge(HLLUtils.fromBytes(data[i]));
+        }
+        byte[] merged = HLLUtils.mergeBytes(data);
+        assertTrue(Arrays.equals(HLLUtils.toBytes(expected), merged));
+        assertEquals(expected.count(), HLLUtils.fromBytes(merged).count());
+    }
+
+    public void testPjMergeBytes() {
+        // registers of different bit widths
+        assertMergeBytes(toBytes(new PjHLL().init(), 0, 100),
+                toBytes(new PjHLL().init(), 50, 200));
+        assertMergeBytes(toBytes(new PjHLL().init(), 0, 100000),
+                toBytes(new PjHLL().init(), 50000, 200000));
+        assertMergeBytes(toBytes(new PjHLL().init(), 0, 1000),
+                toBytes(new PjHLL().init(), 0, 100000));
+        // several, with packed registers and a 32 bit hash
+        assertMergeBytes(toBytes(new PjHLL().setPackedRegister(true).init(), 0, 100000),
+                toBytes(new PjHLL().init(), 0, 10), toBytes(new PjHLL().init(), -500, 0),
+                toBytes(new PjHLL().init(), 1000000, 1100000));
+        assertMergeBytes(toBytes(new PjHLL(14, 32).init(), 0, 10),
+                toBytes(new PjHLL(14, 32).init(), 0, 100000));
+        // empty
+        assertMergeBytes(toBytes(new PjHLL().init(), 0, 0), toBytes(new PjHLL().init(), 0, 0));
+    }
+
+    private static byte[] serialize(HyperLogLog hll) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HyperLogLogUtils.serializeHLL(out, hll);
+        return out.toByteArray();
+    }
+
+    private static HyperLogLog hll(boolean sparse, boolean bitPacking, int from, int to) {
+        HyperLogLog hll = HyperLogLog.builder().enableBitPacking(bitPacking)
+                .setEncoding(sparse ? HyperLogLog.EncodingType.SPARSE
+                        : HyperLogLog.EncodingType.DENSE)
+                .build();
+        for (int i = from; i < to; i++) {
+            hll.addLong(i);
+        }
+        return hll;
+    }
+
+    private static void assertMergeSerialized(HyperLogLog... hlls) throws Exception {
+        List<ByteBuffer> data = new ArrayList<ByteBuffer>();
+        HyperLogLog expected = null;
+        for (HyperLogLog hll : hlls) {
+            byte[] bytes = serialize(hll);
+            data.add(ByteBuffer.wrap(bytes));
+            HyperLogLog der = HyperLogLogUtils.deserializeHLL(new ByteArrayInputStream(bytes));
+            if (expected == null) {
+                expected = der;
+            } else {
+                expected.merge(der);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HyperLogLogUtils.mergeSerializedHLL(out, data);
+        assertTrue(Arrays.equals(serialize(expected), out.toByteArray()));
+        assertEquals(expected.count(), HyperLogLogUtils
+                .deserializeHLL(new ByteArrayInputStream(out.toByteArray())).count());
+    }
+
+    public void testMergeSerializedSparse() throws Exception {
+        // sparse + sparse
+        assertMergeSerialized(hll(true, true, 0, 1000), hll(true, true, 500, 2000));
+        // sparse + sparse => dense
+        assertMergeSerialized(hll(true, true, 0, 2000), hll(true, true, 2000, 4000),
+                hll(true, true, 4000, 4100));
+        // sparse + dense, dense + sparse
+        assertMergeSerialized(hll(true, true, 0, 1000), hll(false, true, 0, 100000));
+        assertMergeSerialized(hll(false, true, 0, 100000), hll(true, true, -1000, 0));
+        // bit packing disabled
+        assertMergeSerialized(hll(true, true, 0, 1000), hll(false, false, 500, 1500),
+                hll(true, true, -1000, 0));
+        assertMergeSerialized(hll(false, false, 0, 100), hll(false, true, 0, 100000));
+        assertMergeSerialized(hll(false, true, 0, 100000), hll(false, false, 0, 100));
+        assertMergeSerialized(hll(false, true, 0, 100), hll(true, true, 0, 100),
+                hll(false, false, 0, 100), hll(false, true, 0, 100));
+        assertMergeSerialized(hll(false, false, 0, 100), hll(true, true, 0, 100));
+        assertMergeSerialized(hll(true, true, 0, 100), hll(true, true, 100, 4000),
+                hll(false, false, 0, 100));
+        // empty
+        assertMergeSerialized(hll(true, true, 0, 0), hll(true, true, 0, 0));
+    }
+
+    public void testPjFamilyMergeBytes() {
+        byte[] pj = toBytes(new PjHLL().init(), 0, 100000);
+        byte[] concurrent = toBytes(new ConcurrentHLL().init(), 50000, 150000);
+        byte[] offHeap = toBytes(new OffHeapHLL().init(), 100000, 200000);
+        IHLL expected = toPjHLL(pj).merge(toPjHLL(concurrent)).merge(toPjHLL(offHeap));
+
+        byte[] merged = HLLUtils.mergeBytes(offHeap, pj, concurrent);
+        IHLL der = HLLUtils.fromBytes(merged);
+        assertTrue(der instanceof OffHeapHLL);
+        assertEquals(expected.count(), der.count());
+        assertEquals(expected.count(), HLLUtils.peekCount(merged));
+    }
+
+    private static IHLL toPjHLL(byte[] data) {
+        return new PjHLL().init(Arrays.copyOfRange(data, 3, data.length));
+    }
+
+    public void testAkMergeBytes() {
+        assertMergeBytes(toBytes(new AkHLL().init(), 0, 100000),
+                toBytes(new AkHLL().init(), 50000, 200000));
+        assertMergeBytes(toBytes(new AkHLL(11, 5, 123).init(), 0, 100000),
+                toBytes(new AkHLL(11, 5, 123).init(), 50000, 200000),
+                toBytes(new AkHLL(11, 5, 123).init(), -100000, 0));
+    }
+
+    private static byte[] akBytes(int seed, byte[] hllBytes) {
+        return ByteBuffer.allocate(8 + hllBytes.length).put((byte) 19).put((byte) 81)
+                .put((byte) 2).put((byte) 0xDD).putInt(seed).put(hllBytes).array();
+    }
+
+    public void testAkMergeBytesExplicitSparse() {
+        final int log2m = 11, regWidth = 5, seed = 123;
+        AkHLL full = (AkHLL) new AkHLL(log2m, regWidth, seed).init();
+        for (int i = 0; i < 100000; i++) {
+            full.addLong(i);
+        }
+        AkHLL expected = full.clone();
+
+        // java-hll EXPLICIT: raw values as 8-byte longs
+        long[] raws = { 1L << 40 | 7, 3L << log2m | 2000, -1L, 1 };
+        ByteBuffer explicit = ByteBuffer.allocate(3 + 8 * raws.length);
+        explicit.put((byte) 0x12).put((byte) ((regWidth - 1) << 5 | log2m)).put((byte) 0x7F);
+        for (long raw : raws) {
+            explicit.putLong(raw);
+            expected.addHash(raw);
+        }
+
+        // java-hll SPARSE: (log2m + regWidth)-bit words of index << regWidth | value
+        int[][] registers = { { 5, 30 }, { 100, 20 }, { 2047, 31 } };
+        final int wordLength = log2m + regWidth;
+        byte[] sparse = new byte[3 + (registers.length * wordLength + 7) / 8];
+        sparse[0] = 0x13;
+        sparse[1] = (byte) ((regWidth - 1) << 5 | log2m);
+        sparse[2] = 0x7F;
+        for (int i = 0; i < registers.length; i++) {
+            long word = (long) registers[i][0] << regWidth | registers[i][1];
+            for (int b = 0; b < wordLength; b++) {
+                if ((word >>> (wordLength - 1 - b) & 1) != 0) {
+                    int bit = i * wordLength + b;
+                    sparse[3 + bit / 8] |= 0x80 >>> (bit % 8);
+                }
+            }
+            // a raw value with that rank at that index
+            expected.addHash(registers[i][0] | 1L << (log2m + registers[i][1] - 1));
+        }
+
+        byte[] merged = HLLUtils.mergeBytes(HLLUtils.toBytes(full),
+                akBytes(seed, explicit.array()), akBytes(seed, sparse));
+        assertTrue(Arrays.equals(HLLUtils.toBytes(expected), merged));
+
+        try {
+            HLLUtils.mergeBytes(HLLUtils.toBytes(full), akBytes(seed + 1, sparse));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testAtsMergeBytes() {
+        assertMergeBytes(toBytes(new AtsHLL().init(), 0, 100000),
+                toBytes(new AtsHLL().init(), 50000, 200000));
+    }
+
+    public void testDdthMergeBytes() {
+        assertMergeBytes(toBytes(new DdthHLL().init(), 0, 1000),
+                toBytes(new DdthHLL().init(), 0, 100000),
+                toBytes(new DdthHLL().init(), 50000, 200000));
+    }
+
+    public void testMergeBytesInvalid() {
+        try {
+            HLLUtils.mergeBytes();
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            HLLUtils.mergeBytes(toBytes(new PjHLL().init(), 0, 10),
+                    toBytes(new AkHLL().init(), 0, 10));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            HLLUtils.mergeBytes(toBytes(new PjHLL(14, 0).init(), 0, 10),
+                    toBytes(new PjHLL(15, 0).init(), 0, 10));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
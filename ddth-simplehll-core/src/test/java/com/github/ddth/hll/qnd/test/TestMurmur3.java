@@ -0,0 +1,118 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import com.github.ddth.hll.prasanthj.HyperLogLog;
+import com.github.ddth.hll.prasanthj.Murmur3;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import junit.framework.TestCase;
+
+public class TestMurmur3 extends TestCase {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static int[] SEEDS = { 0, 1, -1, 1981, Integer.MIN_VALUE };
+
+    private static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0, n = random.nextInt(40); i < n; i++) {
+            switch (random.nextInt(5)) {
+            case 0:
+                sb.append((char) random.nextInt(0x80));
+                break;
+            case 1:
+                sb.append((char) (0x80 + random.nextInt(0x780)));
+                break;
+            case 2:
+                sb.append((char) (0x800 + random.nextInt(0xD000)));
+                break;
+            case 3:
+                sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                break;
+            default:
+                // unpaired surrogate
+                sb.append((char) (0xD800 + random.nextInt(0x800)));
+            }
+        }
+        return sb.toString();
+    }
+
+    public void testHash64() {
+        Random random = new Random(1981);
+        for (int seed : SEEDS) {
+            HashFunction hf = Hashing.murmur3_128(seed);
+            for (int i = 0; i < 1000; i++) {
+                long value = random.nextLong();
+                assertEquals(hf.newHasher().putLong(value).hash().asLong(),
+                        Murmur3.hash64(value, seed));
+                assertEquals(hf.newHasher().putInt((int) value).hash().asLong(),
+                        Murmur3.hash64((int) value, seed));
+                assertEquals(hf.newHasher().putShort((short) value).hash().asLong(),
+                        Murmur3.hashLittleEndian64((short) value, 2, seed));
+                assertEquals(hf.newHasher().putByte((byte) value).hash().asLong(),
+                        Murmur3.hashLittleEndian64((byte) value, 1, seed));
+
+                byte[] data = new byte[random.nextInt(70) + 1];
+                random.nextBytes(data);
+                int offset = random.nextInt(data.length);
+                int length = random.nextInt(data.length - offset + 1);
+                assertEquals(hf.hashBytes(data, offset, length).asLong(),
+                        Murmur3.hash64(data, offset, length, seed));
+
+                String str = randomString(random);
+                assertEquals(hf.hashBytes(str.getBytes(UTF8)).asLong(), Murmur3.hash64(str, seed));
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testHash32() {
+        Random random = new Random(1981);
+        for (int seed : SEEDS) {
+            HashFunction hf = Hashing.murmur3_32(seed);
+            for (int i = 0; i < 1000; i++) {
+                long value = random.nextLong();
+                assertEquals(hf.newHasher().putLong(value).hash().asInt(),
+                        Murmur3.hash32(value, seed));
+                assertEquals(hf.newHasher().putInt((int) value).hash().asInt(),
+                        Murmur3.hash32((int) value, seed));
+                assertEquals(hf.newHasher().putShort((short) value).hash().asInt(),
+                        Murmur3.hashLittleEndian32((short) value, 2, seed));
+                assertEquals(hf.newHasher().putByte((byte) value).hash().asInt(),
+                        Murmur3.hashLittleEndian32((byte) value, 1, seed));
+
+                byte[] data = new byte[random.nextInt(70) + 1];
+                random.nextBytes(data);
+                int offset = random.nextInt(data.length);
+                int length = random.nextInt(data.length - offset + 1);
+                assertEquals(hf.hashBytes(data, offset, length).asInt(),
+                        Murmur3.hash32(data, offset, length, seed));
+
+                String str = randomString(random);
+                assertEquals(hf.hashBytes(str.getBytes(UTF8)).asInt(), Murmur3.hash32(str, seed));
+            }
+        }
+    }
+
+    public void testGuavaCompatibleHash() {
+        for (int numHashBits : new int[] { 32, 64, 128 }) {
+            HashFunction hf = Hashing.goodFastHash(numHashBits);
+            HyperLogLog expected = HyperLogLog.builder().setNumHashBits(numHashBits)
+                    .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+            HyperLogLog hll = HyperLogLog.builder().setNumHashBits(numHashBits)
+                    .setEncoding(HyperLogLog.EncodingType.DENSE).enableGuavaCompatibleHash(true)
+                    .build();
+            for (long i = 0; i < 10000; i++) {
+                if (numHashBits <= 32) {
+                    expected.add(hf.hashLong(i).asInt());
+                } else {
+                    expected.add(hf.hashLong(i).asLong());
+                }
+                hll.addLong(i);
+            }
+            assertEquals(expected, hll);
+        }
+    }
+}
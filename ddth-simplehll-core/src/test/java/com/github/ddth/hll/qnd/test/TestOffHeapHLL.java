@@ -0,0 +1,115 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.OffHeapHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestOffHeapHLL extends TestCase {
+
+    public void testOffHeapEmpty() {
+        IHLL hll = new OffHeapHLL().init();
+
+        assertEquals(0, hll.count());
+    }
+
+    public void testOffHeapSameAsPj() {
+        // registers are always serialized 6 bits each, as by a PjHLL with
+        // packed registers
+        IHLL pj = new PjHLL().setPackedRegister(true).init();
+        IHLL offHeap = new OffHeapHLL().init();
+        for (int i = 0; i < 100000; i++) {
+            Object item = i % 3 == 0 ? (Object) ("item-" + i) : (Object) Long.valueOf(i);
+            pj.add(item);
+            offHeap.add(item);
+        }
+        assertEquals(pj.count(), offHeap.count());
+        assertTrue(Arrays.equals(pj.toBytes(), offHeap.toBytes()));
+        assertEquals(pj.count(), new PjHLL().init(offHeap.toBytes()).count());
+    }
+
+    public void testOffHeapInitFromPj() {
+        // sparse data
+        IHLL pj = new PjHLL().init();
+        for (int i = 0; i < 1000; i++) {
+            pj.addLong(i);
+        }
+        IHLL offHeap = new OffHeapHLL().init(pj.toBytes());
+        assertEquals(pj.count(), offHeap.count());
+
+        // dense data
+        for (int i = 0; i < 100000; i++) {
+            pj.addLong(i);
+        }
+        offHeap = new OffHeapHLL().init(pj.toBytes());
+        assertEquals(pj.count(), offHeap.count());
+        assertTrue(Arrays.equals(new PjHLL().init(offHeap.toBytes()).toBytes(), pj.toBytes()));
+    }
+
+    public void testOffHeapSerDer() {
+        IHLL hll = new OffHeapHLL().init();
+        for (int i = 0; i < 10000; i++) {
+            hll.addLong(i);
+        }
+
+        byte[] data = HLLUtils.toBytes(hll);
+        IHLL der = HLLUtils.fromBytes(data);
+        assertTrue(der instanceof OffHeapHLL);
+        assertEquals(hll.count(), der.count());
+        assertTrue(Arrays.equals(hll.toBytes(), der.toBytes()));
+    }
+
+    public void testOffHeapMerge() {
+        IHLL hll1 = new OffHeapHLL().init();
+        IHLL hll2 = new OffHeapHLL().init();
+        IHLL all = new OffHeapHLL().init();
+        for (int i = 0; i < 20000; i++) {
+            (i % 2 == 0 ? hll1 : hll2).addLong(i);
+            all.addLong(i);
+        }
+        hll1.merge(hll2);
+        assertEquals(all.count(), hll1.count());
+        assertTrue(Arrays.equals(all.toBytes(), hll1.toBytes()));
+    }
+
+    public void testOffHeapClose() {
+        OffHeapHLL hll = (OffHeapHLL) new OffHeapHLL().init();
+        hll.addLong(1);
+        IHLL clone = hll.clone();
+        hll.close();
+        try {
+            hll.count();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(1, clone.count());
+    }
+
+    public void testOffHeapSharedBuffer() {
+        final int p = 10;
+        final int size = OffHeapHLL.registerBytes(p);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size * 2);
+        OffHeapHLL hll1 = (OffHeapHLL) new OffHeapHLL(p, 0, buffer).init();
+        buffer.position(size);
+        OffHeapHLL hll2 = (OffHeapHLL) new OffHeapHLL(p, 0, buffer).init();
+        IHLL expected1 = new OffHeapHLL(p, 0).init();
+        IHLL expected2 = new OffHeapHLL(p, 0).init();
+        for (int i = 0; i < 5000; i++) {
+            hll1.addLong(i);
+            expected1.addLong(i);
+            hll2.addLong(-i);
+            expected2.addLong(-i);
+        }
+        assertTrue(Arrays.equals(expected1.toBytes(), hll1.toBytes()));
+        assertTrue(Arrays.equals(expected2.toBytes(), hll2.toBytes()));
+
+        // closing does not free, nor touch, the shared buffer
+        hll1.close();
+        assertTrue(Arrays.equals(expected2.toBytes(), hll2.toBytes()));
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.nio.ByteBuffer;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.OffHeapHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestPeekCount extends TestCase {
+
+    private static void assertPeekCount(IHLL hll) {
+        assertEquals(0, HLLUtils.peekCount(HLLUtils.toBytes(hll)));
+        for (int i = 0; i < 100000; i++) {
+            hll.addLong(i);
+            if (i == 100 || i == 5000) {
+                // sparse, and sparse => dense
+                assertEquals(hll.count(), HLLUtils.peekCount(HLLUtils.toBytes(hll)));
+            }
+        }
+        byte[] data = HLLUtils.toBytes(hll);
+        assertEquals(hll.count(), HLLUtils.peekCount(data));
+
+        // the stored estimate follows items added after deserialization
+        IHLL der = HLLUtils.fromBytes(data);
+        for (int i = 100000; i < 200000; i++) {
+            der.addLong(i);
+        }
+        assertEquals(der.count(), HLLUtils.peekCount(HLLUtils.toBytes(der)));
+
+        // ... and merges
+        hll.merge(der);
+        assertEquals(hll.count(), HLLUtils.peekCount(HLLUtils.toBytes(hll)));
+
+        ByteBuffer buffer = ByteBuffer.allocate(HLLUtils.serializedSize(hll) + 5);
+        buffer.position(5);
+        HLLUtils.writeTo(hll, buffer);
+        buffer.flip().position(5);
+        assertEquals(hll.count(), HLLUtils.peekCount(buffer));
+        assertEquals(5, buffer.position());
+    }
+
+    public void testPjPeekCount() {
+        assertPeekCount(new PjHLL().init());
+    }
+
+    public void testConcurrentPeekCount() {
+        assertPeekCount(new ConcurrentHLL().init());
+    }
+
+    public void testOffHeapPeekCount() {
+        assertPeekCount(new OffHeapHLL().init());
+    }
+
+    public void testDdthPeekCount() {
+        assertPeekCount(new DdthHLL().init());
+    }
+
+    public void testNoStoredEstimate() {
+        assertEquals(-1, HLLUtils.peekCount(HLLUtils.toBytes(new AkHLL().init())));
+        assertEquals(-1, HLLUtils.peekCount(HLLUtils.toBytes(new AtsHLL().init())));
+    }
+}
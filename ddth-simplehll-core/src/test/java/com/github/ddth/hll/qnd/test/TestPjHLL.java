@@ -1,10 +1,15 @@
 package com.github.ddth.hll.qnd.test;
 
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import com.github.ddth.hll.IHLL;
 import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.prasanthj.HLLDenseRegister;
+import com.github.ddth.hll.prasanthj.HyperLogLog;
+import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
 import com.github.ddth.hll.utils.HLLUtils;
 
 import junit.framework.TestCase;
@@ -74,4 +79,117 @@ public class TestPjHLL extends TestCase {
 
         assertTrue(Arrays.equals(hll.toBytes(), der.toBytes()));
     }
+
+    public void testPjPackedRegister() throws Exception {
+        PjHLL hll = (PjHLL) new PjHLL().setPackedRegister(true).init();
+        PjHLL unpacked = (PjHLL) new PjHLL().init();
+        for (int i = 0; i < 100000; i++) {
+            hll.addLong(i);
+            unpacked.addLong(i);
+        }
+        assertEquals(unpacked.count(), hll.count());
+
+        byte[] data = hll.toBytes();
+        PjHLL der = (PjHLL) new PjHLL().setPackedRegister(true).init(data);
+        assertEquals(hll.count(), der.count());
+        assertTrue(Arrays.equals(data, der.toBytes()));
+
+        // packed form is readable as plain PjHLL and vice versa
+        PjHLL derUnpacked = (PjHLL) new PjHLL().init(data);
+        assertEquals(hll.count(), derUnpacked.count());
+        PjHLL derPacked = (PjHLL) new PjHLL().setPackedRegister(true).init(unpacked.toBytes());
+        assertTrue(Arrays.equals(data, derPacked.toBytes()));
+    }
+
+    public void testPjHll4Layout() throws Exception {
+        PjHLL hll = (PjHLL) new PjHLL().setDenseLayout(HLLDenseRegister.Layout.HLL_4).init();
+        PjHLL bytes = (PjHLL) new PjHLL().init();
+        for (int i = 0; i < 100000; i++) {
+            hll.addLong(i);
+            bytes.addLong(i);
+        }
+        assertEquals(bytes.count(), hll.count());
+        assertTrue(Arrays.equals(bytes.toBytes(), hll.toBytes()));
+
+        PjHLL der = (PjHLL) new PjHLL().setDenseLayout(HLLDenseRegister.Layout.HLL_4)
+                .init(bytes.toBytes());
+        assertEquals(bytes.count(), der.count());
+        der.merge(hll);
+        assertEquals(bytes.count(), der.count());
+    }
+
+    public void testPjSparseDerDenseLayout() throws Exception {
+        HyperLogLog sparse = HyperLogLog.builder().setNumHashBits(64)
+                .setEncoding(HyperLogLog.EncodingType.SPARSE).build();
+        sparse.addLong(0);
+        byte[] data = new byte[HyperLogLogUtils.getSerializedSize(sparse)];
+        HyperLogLogUtils.serializeHLL(ByteBuffer.wrap(data), sparse);
+        PjHLL hll4 = (PjHLL) new PjHLL().setDenseLayout(HLLDenseRegister.Layout.HLL_4)
+                .init(data);
+        PjHLL packed = (PjHLL) new PjHLL().setPackedRegister(true).init(data);
+        HyperLogLog hll = (HyperLogLog) reflectionGetValue(PjHLL.class, "hll", hll4);
+        assertEquals(HyperLogLog.EncodingType.SPARSE, hll.getEncoding());
+        for (int i = 1; i < 100000; i++) {
+            hll4.addLong(i);
+            packed.addLong(i);
+        }
+        hll = (HyperLogLog) reflectionGetValue(PjHLL.class, "hll", hll4);
+        assertEquals(HyperLogLog.EncodingType.DENSE, hll.getEncoding());
+        assertEquals(HLLDenseRegister.Layout.HLL_4, hll.getHLLDenseRegister().getLayout());
+        hll = (HyperLogLog) reflectionGetValue(PjHLL.class, "hll", packed);
+        assertEquals(HyperLogLog.EncodingType.DENSE, hll.getEncoding());
+        assertEquals(HLLDenseRegister.Layout.PACKED, hll.getHLLDenseRegister().getLayout());
+    }
+
+    public void testPjHashSeedSerDer() throws Exception {
+        for (HyperLogLog.EncodingType encoding : HyperLogLog.EncodingType.values()) {
+            HyperLogLog hll = HyperLogLog.builder().setHashSeed(123).setEncoding(encoding)
+                    .build();
+            HyperLogLog unseeded = HyperLogLog.builder().setEncoding(encoding).build();
+            for (int i = 0; i < 1000; i++) {
+                hll.addLong(i);
+                unseeded.addLong(i);
+            }
+            byte[] data = new byte[HyperLogLogUtils.getSerializedSize(hll)];
+            HyperLogLogUtils.serializeHLL(ByteBuffer.wrap(data), hll);
+            assertEquals('S', data[2]);
+            byte[] unseededData = new byte[HyperLogLogUtils.getSerializedSize(unseeded)];
+            HyperLogLogUtils.serializeHLL(ByteBuffer.wrap(unseededData), unseeded);
+            assertEquals('L', unseededData[2]);
+
+            HyperLogLog der = HyperLogLogUtils.deserializeHLL(ByteBuffer.wrap(data),
+                    HLLDenseRegister.Layout.BYTES);
+            assertEquals(123, der.getHashSeed());
+            assertEquals(hll.count(), der.count());
+            assertEquals(123,
+                    HyperLogLogUtils.getHashSeedFromSerializedHLL(ByteBuffer.wrap(data)));
+            assertEquals(hll.count(),
+                    HyperLogLogUtils.getEstimatedCountFromSerializedHLL(ByteBuffer.wrap(data)));
+            // same seed, so adding the same items again changes nothing
+            for (int i = 0; i < 1000; i++) {
+                der.addLong(i);
+            }
+            assertEquals(hll.count(), der.count());
+
+            PjHLL pj = (PjHLL) new PjHLL().init(data);
+            assertTrue(Arrays.equals(data, pj.toBytes()));
+
+            try {
+                der.merge(unseeded);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                HyperLogLogUtils.mergeSerializedHLL(new ByteArrayOutputStream(),
+                        Arrays.asList(ByteBuffer.wrap(data), ByteBuffer.wrap(unseededData)));
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HyperLogLogUtils.mergeSerializedHLL(out,
+                    Arrays.asList(ByteBuffer.wrap(data), ByteBuffer.wrap(data)));
+            assertEquals(123, HyperLogLogUtils
+                    .getHashSeedFromSerializedHLL(ByteBuffer.wrap(out.toByteArray())));
+        }
+    }
 }
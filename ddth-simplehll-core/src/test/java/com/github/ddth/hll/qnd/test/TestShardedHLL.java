@@ -0,0 +1,86 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.util.Arrays;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.impl.PjHLLFactory;
+import com.github.ddth.hll.impl.ShardedHLL;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestShardedHLL extends TestCase {
+
+    public void testShardedEmpty() {
+        IHLL hll = new ShardedHLL(new PjHLLFactory()).init();
+
+        assertEquals(0, hll.count());
+    }
+
+    public void testShardedAdd() throws Exception {
+        final int NUM_THREADS = 4;
+        final int NUM_ITEMS = 100000;
+        final ShardedHLL hll = (ShardedHLL) new ShardedHLL(new PjHLLFactory()).init();
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int t = 0; t < NUM_THREADS; t++) {
+            final int threadId = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = threadId; i < NUM_ITEMS; i += NUM_THREADS) {
+                        hll.addLong(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(NUM_THREADS, hll.getNumShards());
+
+        IHLL expected = new PjHLL().init();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            expected.addLong(i);
+        }
+        assertEquals(expected.count(), hll.count());
+        assertTrue(Arrays.equals(expected.toBytes(), hll.toBytes()));
+
+        // the cached view is updated by later writes
+        for (int i = NUM_ITEMS; i < 2 * NUM_ITEMS; i++) {
+            expected.addLong(i);
+            hll.addLong(i);
+        }
+        assertEquals(expected.count(), hll.count());
+    }
+
+    public void testShardedSerDer() {
+        IHLL hll = new ShardedHLL(new PjHLLFactory()).init();
+        for (int i = 0; i < 10000; i++) {
+            hll.addLong(i);
+        }
+
+        IHLL der = HLLUtils.fromBytes(HLLUtils.toBytes(hll));
+        assertTrue(der instanceof PjHLL);
+        assertEquals(hll.count(), der.count());
+
+        IHLL sharded = new ShardedHLL(new PjHLLFactory()).init(hll.toBytes());
+        assertEquals(hll.count(), sharded.count());
+    }
+
+    public void testShardedMerge() {
+        IHLL hll1 = new ShardedHLL(new PjHLLFactory()).init();
+        IHLL hll2 = new ShardedHLL(new PjHLLFactory()).init();
+        IHLL all = new PjHLL().init();
+        for (int i = 0; i < 20000; i++) {
+            (i % 2 == 0 ? hll1 : hll2).addLong(i);
+            all.addLong(i);
+        }
+        hll1.merge(hll2);
+        assertTrue(Arrays.equals(all.toBytes(), hll1.toBytes()));
+
+        IHLL clone = hll1.clone();
+        assertTrue(clone instanceof ShardedHLL);
+        assertTrue(Arrays.equals(hll1.toBytes(), clone.toBytes()));
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.github.ddth.hll.prasanthj.HLLConstants;
+import com.github.ddth.hll.prasanthj.HLLSparseRegister;
+import com.github.ddth.hll.prasanthj.HyperLogLog;
+import com.github.ddth.hll.prasanthj.HyperLogLogUtils;
+
+import junit.framework.TestCase;
+
+public class TestSparseRegister extends TestCase {
+
+    private static HLLSparseRegister newRegister() {
+        return new HLLSparseRegister(14, HLLConstants.P_PRIME_VALUE, HLLConstants.Q_PRIME_VALUE);
+    }
+
+    /*
+     * Reference model: register index => largest number of trailing zeroes.
+     */
+    private static void addToModel(TreeMap<Integer, Integer> model, HLLSparseRegister register,
+            long hash) {
+        int encodedHash = register.encodeHash(hash);
+        int key = encodedHash & ((1 << HLLConstants.P_PRIME_VALUE) - 1);
+        int value = encodedHash < 0
+                ? (encodedHash >>> HLLConstants.P_PRIME_VALUE)
+                        & ((1 << HLLConstants.Q_PRIME_VALUE) - 1)
+                : Integer.numberOfTrailingZeros(encodedHash >>> register.getP()) + 1;
+        Integer existing = model.get(key);
+        if (existing == null || existing < value) {
+            model.put(key, value);
+        }
+    }
+
+    private static void assertEntries(TreeMap<Integer, Integer> model,
+            HLLSparseRegister register) {
+        int[] entries = register.getSparseEntries();
+        assertEquals(model.size(), register.getSize());
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : model.entrySet()) {
+            int expected = (e.getKey() << HLLConstants.Q_PRIME_VALUE) | e.getValue();
+            assertEquals(expected, entries[i++]);
+        }
+    }
+
+    public void testAdd() {
+        Random random = new Random(1981);
+        HLLSparseRegister register = newRegister();
+        TreeMap<Integer, Integer> model = new TreeMap<Integer, Integer>();
+        // more than the temp list size, with duplicates
+        for (int i = 0; i < 5000; i++) {
+            long hash = random.nextInt(3000) * 0x9E3779B97F4A7C15L;
+            register.add(hash);
+            addToModel(model, register, hash);
+        }
+        assertEntries(model, register);
+    }
+
+    public void testAddFullTempList() {
+        HLLSparseRegister register = newRegister();
+        int n = HLLConstants.TEMP_LIST_DEFAULT_SIZE + 1;
+        for (int i = 0; i < n; i++) {
+            register.add((long) i * 0x9E3779B97F4A7C15L);
+        }
+        // the hash that triggers the temp list merge must not be dropped
+        assertEquals(n, register.getSize());
+    }
+
+    public void testSetAndMerge() {
+        Random random = new Random(1981);
+        HLLSparseRegister register1 = newRegister();
+        HLLSparseRegister register2 = newRegister();
+        TreeMap<Integer, Integer> model = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < 2000; i++) {
+            long hash1 = random.nextLong();
+            long hash2 = random.nextLong();
+            register1.add(hash1);
+            register2.add(hash2);
+            addToModel(model, register1, hash1);
+            addToModel(model, register2, hash2);
+        }
+        register2.set(7, (byte) 3);
+        Integer existing = model.get(7);
+        if (existing == null || existing < 3) {
+            model.put(7, 3);
+        }
+        register1.merge(register2);
+        assertEntries(model, register1);
+    }
+
+    public void testSerDer() throws Exception {
+        Random random = new Random(1981);
+        HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(14).build();
+        for (int i = 0; i < 2000; i++) {
+            hll.addLong(random.nextLong());
+        }
+        assertEquals(HyperLogLog.EncodingType.SPARSE, hll.getEncoding());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HyperLogLogUtils.serializeHLL(out, hll);
+        HyperLogLog hll2 = HyperLogLogUtils
+                .deserializeHLL(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(HyperLogLog.EncodingType.SPARSE, hll2.getEncoding());
+        assertEquals(hll.count(), hll2.count());
+        assertEquals(hll, hll2);
+    }
+
+    private static HyperLogLog newHLL(long[] items, int offset, int length) {
+        HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(14).build();
+        for (int i = offset; i < offset + length; i++) {
+            hll.addLong(items[i]);
+        }
+        return hll;
+    }
+
+    private static void assertMerge(long[] items, int length1, int length2) throws Exception {
+        HyperLogLog hll = newHLL(items, 0, length1);
+        hll.merge(newHLL(items, length1, length2));
+        HyperLogLog expected = newHLL(items, 0, length1 + length2);
+
+        assertEquals(expected.getEncoding(), hll.getEncoding());
+        assertEquals(expected.count(), hll.count());
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        HyperLogLogUtils.serializeHLL(out1, expected);
+        HyperLogLogUtils.serializeHLL(out2, hll);
+        assertTrue(Arrays.equals(out1.toByteArray(), out2.toByteArray()));
+    }
+
+    public void testMergeEncodings() throws Exception {
+        Random random = new Random(1981);
+        long[] items = new long[20000];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = random.nextLong();
+        }
+        assertMerge(items, 1000, 1000); // sparse + sparse
+        assertMerge(items, 2000, 2000); // sparse + sparse => dense
+        assertMerge(items, 1000, 10000); // sparse + dense
+        assertMerge(items, 10000, 1000); // dense + sparse
+        assertMerge(items, 10000, 10000); // dense + dense
+    }
+}
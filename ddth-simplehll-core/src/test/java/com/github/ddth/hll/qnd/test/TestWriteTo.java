@@ -0,0 +1,95 @@
+package com.github.ddth.hll.qnd.test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import com.github.ddth.hll.IHLL;
+import com.github.ddth.hll.impl.AkHLL;
+import com.github.ddth.hll.impl.AtsHLL;
+import com.github.ddth.hll.impl.ConcurrentHLL;
+import com.github.ddth.hll.impl.DdthHLL;
+import com.github.ddth.hll.impl.OffHeapHLL;
+import com.github.ddth.hll.impl.PjHLL;
+import com.github.ddth.hll.utils.HLLUtils;
+
+import junit.framework.TestCase;
+
+public class TestWriteTo extends TestCase {
+
+    private static void assertWriteTo(IHLL hll, IHLL reader, int numItems) throws Exception {
+        for (int i = 0; i < numItems; i++) {
+            hll.addLong(i);
+        }
+        byte[] expected = hll.toBytes();
+        assertEquals(expected.length, hll.serializedSize());
+
+        // at an offset, in a direct buffer
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 10);
+        buffer.position(7);
+        hll.writeTo(buffer);
+        assertEquals(7 + expected.length, buffer.position());
+        buffer.flip().position(7);
+        ByteBuffer data = buffer.slice();
+        byte[] actual = new byte[data.remaining()];
+        data.duplicate().get(actual);
+        assertTrue(Arrays.equals(expected, actual));
+
+        IHLL der = reader.readFrom(data);
+        assertFalse(data.hasRemaining());
+        assertEquals(hll.count(), der.count());
+        assertTrue(Arrays.equals(expected, der.toBytes()));
+
+        // HLLUtils
+        byte[] expectedUtils = HLLUtils.toBytes(hll);
+        assertEquals(expectedUtils.length, HLLUtils.serializedSize(hll));
+        buffer = ByteBuffer.allocate(expectedUtils.length);
+        assertEquals(expectedUtils.length, HLLUtils.writeTo(hll, buffer));
+        assertTrue(Arrays.equals(expectedUtils, buffer.array()));
+        buffer.flip();
+        der = HLLUtils.readFrom(buffer);
+        assertEquals(hll.getClass(), der.getClass());
+        assertEquals(hll.count(), der.count());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expectedUtils.length, HLLUtils.writeTo(hll, Channels.newChannel(out)));
+        assertTrue(Arrays.equals(expectedUtils, out.toByteArray()));
+
+        try {
+            hll.writeTo(ByteBuffer.allocate(expected.length - 1));
+            fail("BufferOverflowException expected");
+        } catch (BufferOverflowException e) {
+        }
+    }
+
+    public void testPjWriteTo() throws Exception {
+        assertWriteTo(new PjHLL().init(), new PjHLL(), 100);
+        assertWriteTo(new PjHLL().init(), new PjHLL(), 100000);
+        assertWriteTo(new PjHLL().setPackedRegister(true).init(),
+                new PjHLL().setPackedRegister(true), 100000);
+        assertWriteTo(new PjHLL(14, 32).init(), new PjHLL(), 0);
+    }
+
+    public void testConcurrentWriteTo() throws Exception {
+        assertWriteTo(new ConcurrentHLL().init(), new ConcurrentHLL(), 100000);
+    }
+
+    public void testOffHeapWriteTo() throws Exception {
+        assertWriteTo(new OffHeapHLL().init(), new OffHeapHLL(), 100000);
+    }
+
+    public void testAkWriteTo() throws Exception {
+        assertWriteTo(new AkHLL().init(), new AkHLL(), 100000);
+    }
+
+    public void testAtsWriteTo() throws Exception {
+        assertWriteTo(new AtsHLL().init(), new AtsHLL(), 100000);
+    }
+
+    public void testDdthWriteTo() throws Exception {
+        assertWriteTo(new DdthHLL().init(), new DdthHLL(), 100);
+        assertWriteTo(new DdthHLL().init(), new DdthHLL(), 100000);
+    }
+}